@@ -0,0 +1,149 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.RemovalNotification;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.events.AccountIndexedListener;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheRemovalListener;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Account id of SAML users, keyed by both their username and their SAML external id.
+ *
+ * <p>Shared by {@link SamlMembership} and {@link AccountNameUpdater}, so that a login resolves the
+ * account once. Entries expire after a while and are dropped whenever the account is reindexed.
+ *
+ * <p>The keys of each account are tracked in a reverse index, so that a reindexed account is
+ * invalidated without scanning the cache. Keys leave the index when the cache removes them,
+ * whether they expired, were evicted or were replaced, so that the index holds the keys of the
+ * cache and nothing else.
+ */
+@Singleton
+class AccountIdCache
+    implements AccountIndexedListener, CacheRemovalListener<String, Account.Id> {
+  static final String CACHE_NAME = "saml_account_ids";
+
+  private static final String USERNAME_PREFIX = "username:";
+  private static final String EXTERNAL_ID_PREFIX = "external:";
+  private static final long DEFAULT_MEMORY_LIMIT = 20000;
+  private static final Duration DEFAULT_MAX_AGE = Duration.ofMinutes(30);
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, String.class, Account.Id.class)
+            .maximumWeight(DEFAULT_MEMORY_LIMIT)
+            .expireAfterWrite(DEFAULT_MAX_AGE);
+      }
+    };
+  }
+
+  private final Cache<String, Account.Id> cache;
+  private final Map<Account.Id, Set<String>> keysByAccount = new ConcurrentHashMap<>();
+
+  @Inject
+  AccountIdCache(@Named(CACHE_NAME) Cache<String, Account.Id> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Looks up the account of {@code user}, by username first and then by external id.
+   *
+   * @param user authenticated SAML user
+   * @return the cached account id, or empty when the account was not resolved recently
+   */
+  Optional<Account.Id> get(AuthenticatedUser user) {
+    Account.Id id = cache.getIfPresent(USERNAME_PREFIX + user.getUsername());
+    if (id == null && user.getExternalId() != null) {
+      id = cache.getIfPresent(EXTERNAL_ID_PREFIX + user.getExternalId());
+    }
+    return Optional.ofNullable(id);
+  }
+
+  void put(AuthenticatedUser user, Account.Id id) {
+    put(USERNAME_PREFIX + user.getUsername(), id);
+    if (user.getExternalId() != null) {
+      put(EXTERNAL_ID_PREFIX + user.getExternalId(), id);
+    }
+  }
+
+  /**
+   * Caches a key before tracking it, so that a removal of the key handled meanwhile either sees
+   * the new entry, or is followed by the tracking.
+   */
+  private void put(String key, Account.Id id) {
+    cache.put(key, id);
+    keysByAccount.compute(
+        id,
+        (k, keys) -> {
+          Set<String> updated = keys != null ? keys : new HashSet<>();
+          updated.add(key);
+          return updated;
+        });
+  }
+
+  @Override
+  public void onAccountIndexed(int id) {
+    Set<String> keys = keysByAccount.remove(Account.id(id));
+    if (keys != null) {
+      cache.invalidateAll(keys);
+    }
+  }
+
+  /**
+   * Drops a key removed from the cache from the keys of its former account, unless it was cached
+   * again for that account meanwhile.
+   */
+  @Override
+  public void onRemoval(
+      String pluginName, String cacheName, RemovalNotification<String, Account.Id> notification) {
+    if (!CACHE_NAME.equals(cacheName)) {
+      return;
+    }
+    String key = notification.getKey();
+    Account.Id id = notification.getValue();
+    if (key == null || id == null) {
+      return;
+    }
+    keysByAccount.computeIfPresent(
+        id,
+        (k, keys) -> {
+          if (!id.equals(cache.getIfPresent(key))) {
+            keys.remove(key);
+          }
+          return keys.isEmpty() ? null : keys;
+        });
+  }
+
+  /** The number of accounts whose keys are tracked. */
+  @VisibleForTesting
+  int trackedAccounts() {
+    return keysByAccount.size();
+  }
+}
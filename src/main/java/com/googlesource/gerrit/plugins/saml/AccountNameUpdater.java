@@ -0,0 +1,141 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.account.AccountCache;
+import com.google.gerrit.server.account.AccountState;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Objects;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the full name of Gerrit accounts in sync with the display name sent by the IdP.
+ *
+ * <p>When {@code saml.asyncNameUpdate} is set, the names are updated by a bounded background queue
+ * that only keeps the latest pending update of each account.
+ */
+@Singleton
+class AccountNameUpdater implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(AccountNameUpdater.class);
+
+  private final GerritApi gApi;
+  private final AccountCache accountCache;
+  private final AccountIdCache accountIdCache;
+  private final OneOffRequestContext oneOffRequestContext;
+  private final DisplayNameCache displayNameCache;
+  private final CoalescingWorkQueue<String, AuthenticatedUser> queue;
+
+  @Inject
+  AccountNameUpdater(
+      GerritApi gApi,
+      AccountCache accountCache,
+      AccountIdCache accountIdCache,
+      OneOffRequestContext oneOffRequestContext,
+      DisplayNameCache displayNameCache,
+      SamlConfig samlConfig,
+      MetricMaker metricMaker) {
+    this.gApi = gApi;
+    this.accountCache = accountCache;
+    this.accountIdCache = accountIdCache;
+    this.oneOffRequestContext = oneOffRequestContext;
+    this.displayNameCache = displayNameCache;
+    this.queue =
+        samlConfig.isAsyncNameUpdate()
+            ? new CoalescingWorkQueue<>(
+                "name_update",
+                samlConfig.getNameUpdateThreads(),
+                samlConfig.getNameUpdateQueueSize(),
+                this::update,
+                metricMaker)
+            : null;
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    if (queue != null) {
+      queue.stop();
+    }
+  }
+
+  /**
+   * Updates the full name of the account of {@code user} in the background. Falls back to updating
+   * it right away when the background queue is full or not enabled.
+   *
+   * @param user authenticated SAML user
+   */
+  void updateInBackground(AuthenticatedUser user) {
+    if (queue != null && queue.offer(user.getUsername(), user)) {
+      return;
+    }
+    try {
+      update(user);
+    } catch (RestApiException e) {
+      if (queue != null) {
+        queue.recordFailure();
+      }
+      log.error("Saml plugin could not set account name of {}", user.getUsername(), e);
+    }
+  }
+
+  /**
+   * Sets the full name of the account of {@code user}, unless it is already up to date.
+   *
+   * @param user authenticated SAML user
+   * @throws RestApiException when the account cannot be read or updated
+   */
+  void update(AuthenticatedUser user) throws RestApiException {
+    String displayName = user.getDisplayName();
+    Optional<Account.Id> cachedId = accountIdCache.get(user);
+    if (cachedId.isPresent() && displayNameCache.isCurrent(cachedId.get(), displayName)) {
+      return;
+    }
+
+    AccountState account = getAccount(user);
+    Account.Id accountId = account.account().id();
+    if (!Objects.equals(account.account().fullName(), displayName)) {
+      try (ManualRequestContext ignored = oneOffRequestContext.openAs(accountId)) {
+        gApi.accounts().id(Integer.toString(accountId.get())).setName(displayName);
+      }
+    }
+    displayNameCache.put(accountId, displayName);
+  }
+
+  private AccountState getAccount(AuthenticatedUser user) throws ResourceNotFoundException {
+    Optional<AccountState> account = accountIdCache.get(user).flatMap(accountCache::get);
+    if (account.isPresent()) {
+      return account.get();
+    }
+    account = accountCache.getByUsername(user.getUsername());
+    if (!account.isPresent()) {
+      throw new ResourceNotFoundException(user.getUsername());
+    }
+    accountIdCache.put(user, account.get().account().id());
+    return account.get();
+  }
+}
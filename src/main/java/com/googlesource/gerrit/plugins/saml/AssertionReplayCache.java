@@ -0,0 +1,172 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the SAML responses that were accepted, to reject them when they are posted again.
+ *
+ * <p>Responses are keyed by the identity provider and the ID of their assertion, and kept until the
+ * {@code NotOnOrAfter} of the assertion, at most {@code saml.replayCacheMaxAge}. Looking up a
+ * response is a single lock-free map read, done before any signature is verified, unless the
+ * assertion is encrypted and thus only identified once pac4j decrypted it.
+ *
+ * <p>Entries are not expired one by one: they are grouped in buckets by expiry time, and a whole
+ * bucket is dropped once it expired. When the cache holds more than {@code saml.replayCacheSize}
+ * entries, the buckets expiring first are dropped early.
+ */
+@Singleton
+class AssertionReplayCache {
+  private static final long BUCKET_MILLIS = 10_000;
+
+  private final int maxEntries;
+  private final long maxAgeMillis;
+  private final Clock clock;
+  @Nullable private final Counter0 rejected;
+  @Nullable private final Counter0 evictedEarly;
+
+  /** Bucket an entry is kept in, by key. */
+  private final ConcurrentHashMap<String, Long> entries = new ConcurrentHashMap<>();
+
+  /** Keys of the entries, by bucket, guarded by {@code this}. */
+  private final TreeMap<Long, List<String>> buckets = new TreeMap<>();
+
+  @Inject
+  AssertionReplayCache(SamlConfig samlConfig, MetricMaker metricMaker) {
+    this(
+        samlConfig.getReplayCacheSize(),
+        samlConfig.getReplayCacheMaxAge(),
+        Clock.systemUTC(),
+        metricMaker.newCounter(
+            "saml/replay_cache/rejected",
+            new Description("Replayed SAML responses rejected before validation")
+                .setRate()
+                .setUnit("responses")),
+        metricMaker.newCounter(
+            "saml/replay_cache/evicted_early",
+            new Description("SAML responses forgotten before expiry because the cache was full")
+                .setRate()
+                .setUnit("responses")));
+    metricMaker.newCallbackMetric(
+        "saml/replay_cache/size",
+        Integer.class,
+        new Description("SAML responses remembered to reject replays")
+            .setGauge()
+            .setUnit("responses"),
+        entries::size);
+  }
+
+  AssertionReplayCache(int maxEntries, Duration maxAge, Clock clock) {
+    this(maxEntries, maxAge, clock, null, null);
+  }
+
+  private AssertionReplayCache(
+      int maxEntries,
+      Duration maxAge,
+      Clock clock,
+      @Nullable Counter0 rejected,
+      @Nullable Counter0 evictedEarly) {
+    this.maxEntries = maxEntries;
+    this.maxAgeMillis = maxAge.toMillis();
+    this.clock = clock;
+    this.rejected = rejected;
+    this.evictedEarly = evictedEarly;
+  }
+
+  boolean isEnabled() {
+    return maxEntries > 0;
+  }
+
+  /** Whether a response with this key was already accepted, and did not expire yet. */
+  boolean isReplay(String key) {
+    Long bucket = entries.get(key);
+    if (bucket != null && bucket > bucketOf(clock.millis())) {
+      if (rejected != null) {
+        rejected.increment();
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Remembers an accepted response.
+   *
+   * @param key key of the response
+   * @param notOnOrAfter when the assertion of the response expires, if known
+   * @return false when the response was already accepted, and is thus replayed
+   */
+  synchronized boolean add(String key, @Nullable Instant notOnOrAfter) {
+    long now = clock.millis();
+    long current = bucketOf(now);
+    evictUpTo(current);
+
+    long expires = now + maxAgeMillis;
+    if (notOnOrAfter != null) {
+      expires = Math.max(now, Math.min(expires, notOnOrAfter.toEpochMilli()));
+    }
+    if (entries.containsKey(key)) {
+      if (rejected != null) {
+        rejected.increment();
+      }
+      return false;
+    }
+    long bucket = bucketOf(expires) + 1;
+    entries.put(key, bucket);
+    buckets.computeIfAbsent(bucket, b -> new ArrayList<>()).add(key);
+
+    while (entries.size() > maxEntries && !buckets.isEmpty()) {
+      int evicted = evict(buckets.pollFirstEntry());
+      if (evictedEarly != null) {
+        evictedEarly.incrementBy(evicted);
+      }
+    }
+    return true;
+  }
+
+  private void evictUpTo(long bucket) {
+    while (!buckets.isEmpty() && buckets.firstKey() <= bucket) {
+      evict(buckets.pollFirstEntry());
+    }
+  }
+
+  private int evict(Map.Entry<Long, List<String>> bucket) {
+    int evicted = 0;
+    for (String key : bucket.getValue()) {
+      if (entries.remove(key, bucket.getKey())) {
+        evicted++;
+      }
+    }
+    return evicted;
+  }
+
+  private static long bucketOf(long millis) {
+    return millis / BUCKET_MILLIS;
+  }
+}
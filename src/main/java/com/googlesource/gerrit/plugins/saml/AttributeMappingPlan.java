@@ -0,0 +1,217 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.googlesource.gerrit.plugins.saml.SamlWebFilter.SAML;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.pac4j.saml.profile.SAML2Profile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * How the attributes of a SAML profile become an {@link AuthenticatedUser}, compiled once from a
+ * {@link SamlConfig}.
+ *
+ * <p>The user name, display name and email address are each read from one attribute, falling back
+ * to the NameID, and then go through the transforms configured for them, in order:
+ *
+ * <ul>
+ *   <li>{@code lowercase}: lower-cases the value.
+ *   <li>{@code stripDomain}: drops everything from the last {@code @}.
+ *   <li>{@code regex:<pattern>}: keeps the first group of the first match of the pattern, or the
+ *       whole match when the pattern has no group. A value that does not match is kept as is.
+ * </ul>
+ */
+class AttributeMappingPlan {
+  private static final Logger log = LoggerFactory.getLogger(AttributeMappingPlan.class);
+
+  private static final String REGEX_PREFIX = "regex:";
+
+  /** Reads one attribute and transforms its value. */
+  private static class FieldMapping {
+    final String attribute;
+    final ImmutableList<UnaryOperator<String>> transforms;
+
+    FieldMapping(String attribute, ImmutableList<UnaryOperator<String>> transforms) {
+      this.attribute = attribute;
+      this.transforms = transforms;
+    }
+
+    @Nullable
+    String read(SAML2Profile profile) {
+      return firstValue(profile.getAttribute(attribute));
+    }
+
+    @Nullable
+    String transform(@Nullable String value) {
+      for (int i = 0; value != null && i < transforms.size(); i++) {
+        value = transforms.get(i).apply(value);
+      }
+      return value;
+    }
+  }
+
+  /** The configuration this plan was compiled from. */
+  final SamlConfig samlConfig;
+
+  private final String externalIdPrefix;
+  private final FieldMapping userName;
+  private final FieldMapping displayName;
+  private final FieldMapping emailAddress;
+  @Nullable private final String firstNameAttr;
+  @Nullable private final String lastNameAttr;
+
+  private AttributeMappingPlan(SamlConfig samlConfig, String namespace) {
+    this.samlConfig = samlConfig;
+    this.externalIdPrefix = SAML + "/" + namespace;
+    this.userName =
+        new FieldMapping(
+            samlConfig.getUserNameAttr(),
+            compileTransforms("userNameTransform", samlConfig.getUserNameTransforms()));
+    this.displayName =
+        new FieldMapping(
+            samlConfig.getDisplayNameAttr(),
+            compileTransforms("displayNameTransform", samlConfig.getDisplayNameTransforms()));
+    this.emailAddress =
+        new FieldMapping(
+            samlConfig.getEmailAddressAttr(),
+            compileTransforms("emailAddressTransform", samlConfig.getEmailAddressTransforms()));
+    boolean computed = samlConfig.isComputedDisplayName();
+    this.firstNameAttr = computed ? samlConfig.getFirstNameAttr() : null;
+    this.lastNameAttr = computed ? samlConfig.getLastNameAttr() : null;
+  }
+
+  static AttributeMappingPlan compile(SamlConfig samlConfig) {
+    return compile(samlConfig, "");
+  }
+
+  /**
+   * Compiles the mapping of an identity provider.
+   *
+   * @param namespace prefix of the NameID in the external ID, empty for the default identity
+   *     provider
+   * @throws IllegalArgumentException if a transform is unknown or has an invalid pattern
+   */
+  static AttributeMappingPlan compile(SamlConfig samlConfig, String namespace) {
+    return new AttributeMappingPlan(samlConfig, namespace);
+  }
+
+  /**
+   * Maps an authenticated SAML profile to a user.
+   *
+   * @param userNameToLowerCase whether Gerrit lower-cases user names, after the transforms
+   */
+  AuthenticatedUser map(SAML2Profile profile, boolean userNameToLowerCase) {
+    String id = profile.getId();
+
+    String user = userName.read(profile);
+    user = userName.transform(user != null ? user : id);
+    if (userNameToLowerCase) {
+      user = user.toLowerCase(Locale.US);
+    }
+
+    String display;
+    if (firstNameAttr != null) {
+      display =
+          orElse(firstValue(profile.getAttribute(firstNameAttr)), id)
+              + " "
+              + orElse(firstValue(profile.getAttribute(lastNameAttr)), id);
+    } else {
+      display = orElse(displayName.read(profile), id);
+    }
+    display = displayName.transform(display);
+
+    String email = emailAddress.read(profile);
+    if (email == null) {
+      if (id.contains("@")) {
+        email = id;
+      } else {
+        log.debug(
+            "Email address attribute not found, NameId {} does not look like an email.", id);
+      }
+    }
+    email = emailAddress.transform(email);
+
+    return new AuthenticatedUser(user, display, email, externalIdPrefix + id);
+  }
+
+  private static String orElse(@Nullable String value, String fallback) {
+    return value != null ? value : fallback;
+  }
+
+  /** The first value of an attribute, which pac4j holds as a string, an array or a list. */
+  @Nullable
+  private static String firstValue(@Nullable Object value) {
+    if (value instanceof String) {
+      return (String) value;
+    } else if (value instanceof String[]) {
+      String[] values = (String[]) value;
+      return values.length > 0 ? values[0] : null;
+    } else if (value instanceof List) {
+      List<?> values = (List<?>) value;
+      return values.isEmpty() || values.get(0) == null ? null : values.get(0).toString();
+    }
+    return null;
+  }
+
+  private static ImmutableList<UnaryOperator<String>> compileTransforms(
+      String key, List<String> specs) {
+    ImmutableList.Builder<UnaryOperator<String>> transforms = ImmutableList.builder();
+    for (String spec : specs) {
+      transforms.add(transform(key, spec.trim()));
+    }
+    return transforms.build();
+  }
+
+  private static UnaryOperator<String> transform(String key, String spec) {
+    if (spec.equalsIgnoreCase("lowercase")) {
+      return v -> v.toLowerCase(Locale.US);
+    }
+    if (spec.equalsIgnoreCase("stripDomain")) {
+      return v -> {
+        int at = v.lastIndexOf('@');
+        return at >= 0 ? v.substring(0, at) : v;
+      };
+    }
+    if (spec.regionMatches(true, 0, REGEX_PREFIX, 0, REGEX_PREFIX.length())) {
+      Pattern pattern;
+      try {
+        pattern = Pattern.compile(spec.substring(REGEX_PREFIX.length()));
+      } catch (PatternSyntaxException e) {
+        throw new IllegalArgumentException(
+            String.format("Invalid saml.%s %s: %s", key, spec, e.getDescription()), e);
+      }
+      return v -> {
+        Matcher m = pattern.matcher(v);
+        if (!m.find()) {
+          return v;
+        }
+        return m.groupCount() > 0 && m.group(1) != null ? m.group(1) : m.group();
+      };
+    }
+    throw new IllegalArgumentException(
+        String.format(
+            "Invalid saml.%s %s: expected lowercase, stripDomain or %s<pattern>",
+            key, spec, REGEX_PREFIX));
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterators;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Case-insensitive matcher for the authentication headers that the SAML filter hands over to
+ * Gerrit.
+ *
+ * <p>The header names are sorted once with {@link String#CASE_INSENSITIVE_ORDER}, so a lookup is a
+ * short binary search that does not allocate.
+ */
+class AuthHeaderMatcher {
+  private final ImmutableSortedSet<String> headers;
+
+  AuthHeaderMatcher(Set<String> authHeaders) {
+    this.headers = ImmutableSortedSet.copyOf(String.CASE_INSENSITIVE_ORDER, authHeaders);
+  }
+
+  boolean matches(String name) {
+    return name != null && headers.contains(name);
+  }
+
+  /**
+   * Whether the client sent any of the authentication headers itself.
+   *
+   * @param request incoming request, not yet wrapped
+   * @return true when at least one authentication header is present
+   */
+  boolean isPresentIn(HttpServletRequest request) {
+    for (String header : headers) {
+      if (request.getHeader(header) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Lazily hides the authentication headers from an enumeration of header names.
+   *
+   * @param names header names of the wrapped request, may be {@code null}
+   * @return a view of {@code names} without the authentication headers
+   */
+  Enumeration<String> withoutAuthHeaders(Enumeration<String> names) {
+    if (names == null) {
+      return Collections.emptyEnumeration();
+    }
+    return Iterators.asEnumeration(
+        Iterators.filter(Iterators.forEnumeration(names), name -> !matches(name)));
+  }
+
+  /**
+   * Lazily adds the authentication headers in front of an enumeration of header names.
+   *
+   * @param names header names of the wrapped request, already stripped of authentication headers
+   * @return a view of the authentication headers followed by {@code names}
+   */
+  Enumeration<String> withAuthHeaders(Enumeration<String> names) {
+    if (names == null) {
+      return Iterators.asEnumeration(headers.iterator());
+    }
+    return Iterators.asEnumeration(
+        Iterators.concat(headers.iterator(), Iterators.forEnumeration(names)));
+  }
+}
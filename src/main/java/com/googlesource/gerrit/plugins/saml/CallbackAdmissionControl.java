@@ -0,0 +1,256 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Limits the SAML responses being validated, which is CPU intensive, so that posting responses
+ * cannot starve the HTTP threads of Gerrit.
+ *
+ * <p>Two limits apply. Each client IP address gets a token bucket of {@code
+ * saml.callbackBurst} tokens, refilled at {@code saml.callbackRate} per minute. And at most
+ * {@code saml.maxConcurrentCallbacks} responses are validated at once. A response beyond that is
+ * rejected right away, unless {@code saml.callbackQueueTimeout} is set: it then waits for its
+ * turn, holding its HTTP thread. Rejected responses are answered with {@code 429} without being
+ * decoded, and a response rejected for the second limit gets its token back.
+ *
+ * <p>The buckets are kept in a bounded, segmented cache, whose segment is locked when the bucket
+ * of a new client is added. Each bucket is a single {@link AtomicLong} updated with
+ * compare-and-set, following the generic cell rate algorithm: it holds the time at which the
+ * bucket will be full again.
+ */
+@Singleton
+class CallbackAdmissionControl {
+  static final int SC_TOO_MANY_REQUESTS = 429;
+
+  private static final int MAX_CLIENTS = 10_000;
+
+  @Nullable private final Semaphore inFlight;
+  private final long queueTimeoutNanos;
+  private final long emissionIntervalNanos;
+  private final long burstToleranceNanos;
+  private final String clientIpHeader;
+  private final int trustedProxyCount;
+  private final Ticker ticker;
+  private final Cache<String, AtomicLong> buckets;
+  @Nullable private final Counter0 admitted;
+  @Nullable private final Counter0 queued;
+  @Nullable private final Counter0 rejected;
+
+  @Inject
+  CallbackAdmissionControl(SamlConfig samlConfig, MetricMaker metricMaker) {
+    this(
+        samlConfig.getMaxConcurrentCallbacks(),
+        samlConfig.getCallbackQueueTimeout(),
+        samlConfig.getCallbackRate(),
+        samlConfig.getCallbackBurst(),
+        samlConfig.getClientIpHeader(),
+        samlConfig.getTrustedProxyCount(),
+        Ticker.systemTicker(),
+        metricMaker.newCounter(
+            "saml/callback/admitted",
+            new Description("SAML responses admitted for validation")
+                .setRate()
+                .setUnit("responses")),
+        metricMaker.newCounter(
+            "saml/callback/queued",
+            new Description("SAML responses that waited for validation")
+                .setRate()
+                .setUnit("responses")),
+        metricMaker.newCounter(
+            "saml/callback/rejected",
+            new Description("SAML responses rejected with 429")
+                .setRate()
+                .setUnit("responses")));
+    if (inFlight != null) {
+      int maxConcurrent = samlConfig.getMaxConcurrentCallbacks();
+      metricMaker.newCallbackMetric(
+          "saml/callback/in_flight",
+          Integer.class,
+          new Description("SAML responses being validated").setGauge().setUnit("responses"),
+          () -> maxConcurrent - inFlight.availablePermits());
+    }
+  }
+
+  CallbackAdmissionControl(
+      int maxConcurrent,
+      Duration queueTimeout,
+      int ratePerMinute,
+      int burst,
+      @Nullable String clientIpHeader,
+      int trustedProxyCount,
+      Ticker ticker) {
+    this(
+        maxConcurrent,
+        queueTimeout,
+        ratePerMinute,
+        burst,
+        clientIpHeader,
+        trustedProxyCount,
+        ticker,
+        null,
+        null,
+        null);
+  }
+
+  private CallbackAdmissionControl(
+      int maxConcurrent,
+      Duration queueTimeout,
+      int ratePerMinute,
+      int burst,
+      @Nullable String clientIpHeader,
+      int trustedProxyCount,
+      Ticker ticker,
+      @Nullable Counter0 admitted,
+      @Nullable Counter0 queued,
+      @Nullable Counter0 rejected) {
+    this.inFlight = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+    this.queueTimeoutNanos = queueTimeout.toNanos();
+    this.emissionIntervalNanos =
+        ratePerMinute > 0 ? TimeUnit.MINUTES.toNanos(1) / ratePerMinute : 0;
+    this.burstToleranceNanos = emissionIntervalNanos * Math.max(burst - 1, 0);
+    this.clientIpHeader = Strings.emptyToNull(clientIpHeader);
+    this.trustedProxyCount = Math.max(trustedProxyCount, 1);
+    this.ticker = ticker;
+    this.buckets =
+        CacheBuilder.newBuilder()
+            .maximumSize(MAX_CLIENTS)
+            .expireAfterAccess(
+                Math.max(emissionIntervalNanos + burstToleranceNanos, 1), TimeUnit.NANOSECONDS)
+            .ticker(ticker)
+            .build();
+    this.admitted = admitted;
+    this.queued = queued;
+    this.rejected = rejected;
+  }
+
+  /**
+   * Admits a SAML response for validation. When admitted, {@link #release()} must be called once
+   * the response was handled.
+   *
+   * @return false when the response must be rejected
+   */
+  boolean admit(HttpServletRequest request) throws InterruptedException {
+    AtomicLong bucket = bucket(clientIp(request));
+    if (!takeToken(bucket)) {
+      increment(rejected);
+      return false;
+    }
+    if (!acquire()) {
+      returnToken(bucket);
+      increment(rejected);
+      return false;
+    }
+    increment(admitted);
+    return true;
+  }
+
+  void release() {
+    if (inFlight != null) {
+      inFlight.release();
+    }
+  }
+
+  private boolean acquire() throws InterruptedException {
+    if (inFlight == null || inFlight.tryAcquire()) {
+      return true;
+    }
+    if (queueTimeoutNanos <= 0) {
+      return false;
+    }
+    increment(queued);
+    return inFlight.tryAcquire(queueTimeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Nullable
+  private AtomicLong bucket(String clientIp) {
+    if (emissionIntervalNanos == 0) {
+      return null;
+    }
+    try {
+      return buckets.get(clientIp, () -> new AtomicLong(Long.MIN_VALUE));
+    } catch (ExecutionException e) {
+      return null;
+    }
+  }
+
+  private boolean takeToken(@Nullable AtomicLong bucket) {
+    if (bucket == null) {
+      return true;
+    }
+    long now = ticker.read();
+    while (true) {
+      long full = bucket.get();
+      long from = Math.max(full, now);
+      if (from - now > burstToleranceNanos) {
+        return false;
+      }
+      if (bucket.compareAndSet(full, from + emissionIntervalNanos)) {
+        return true;
+      }
+    }
+  }
+
+  /** Gives back the token of a response that was rejected after taking it. */
+  private void returnToken(@Nullable AtomicLong bucket) {
+    if (bucket != null) {
+      bucket.addAndGet(-emissionIntervalNanos);
+    }
+  }
+
+  /**
+   * The client IP address. Behind reverse proxies, each proxy appends the address it received the
+   * request from to {@code saml.clientIpHeader}, and whatever the client sent comes first. The
+   * address appended by the outermost of the {@code saml.trustedProxyCount} proxies is therefore
+   * taken, counting from the end of the header.
+   */
+  private String clientIp(HttpServletRequest request) {
+    if (clientIpHeader != null) {
+      String forwarded = request.getHeader(clientIpHeader);
+      if (!Strings.isNullOrEmpty(forwarded)) {
+        int end = forwarded.length();
+        int start = forwarded.lastIndexOf(',', end - 1) + 1;
+        for (int hop = 1; hop < trustedProxyCount && start > 0; hop++) {
+          end = start - 1;
+          start = forwarded.lastIndexOf(',', end - 1) + 1;
+        }
+        return forwarded.substring(start, end).trim();
+      }
+    }
+    return Strings.nullToEmpty(request.getRemoteAddr());
+  }
+
+  private static void increment(@Nullable Counter0 counter) {
+    if (counter != null) {
+      counter.increment();
+    }
+  }
+}
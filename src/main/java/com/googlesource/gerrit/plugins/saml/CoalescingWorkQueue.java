@@ -0,0 +1,247 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded background queue that keeps at most one pending task per key.
+ *
+ * <p>Offering a value for a key that is still waiting replaces the waiting value, so only the
+ * latest one is processed. Values of the same key are never processed concurrently: a value offered
+ * while the previous one of its key is being processed waits for it to complete. When as many keys
+ * as the capacity are waiting or being processed, {@link #offer} refuses the value and the caller
+ * is expected to process it itself.
+ *
+ * <p>The queue reports its depth, the time values waited before being processed, the failures of
+ * the handler and the number of refused values under {@code saml/<name>/...}.
+ *
+ * @param <K> key the values are coalesced by
+ * @param <V> value to process
+ */
+class CoalescingWorkQueue<K, V> {
+  private static final Logger log = LoggerFactory.getLogger(CoalescingWorkQueue.class);
+
+  interface Handler<V> {
+    void handle(V value) throws Exception;
+  }
+
+  private static class Pending<V> {
+    final V value;
+    final long enqueuedNanos;
+
+    Pending(V value, long enqueuedNanos) {
+      this.value = value;
+      this.enqueuedNanos = enqueuedNanos;
+    }
+  }
+
+  /**
+   * A key that is waiting or being processed. It stays in the queue while its value is processed,
+   * so that a value offered meanwhile waits for the processing to complete. Only read and written
+   * within {@link ConcurrentMap#compute}.
+   */
+  private static class Slot<V> {
+    Pending<V> waiting;
+
+    Slot(Pending<V> waiting) {
+      this.waiting = waiting;
+    }
+  }
+
+  private final String name;
+  private final int capacity;
+  private final Handler<V> handler;
+  private final ConcurrentMap<K, Slot<V>> slots = new ConcurrentHashMap<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final ExecutorService executor;
+  private final Timer0 lag;
+  private final Counter0 failures;
+  private final Counter0 refused;
+
+  CoalescingWorkQueue(
+      String name, int threads, int capacity, Handler<V> handler, MetricMaker metricMaker) {
+    this.name = name;
+    this.capacity = capacity;
+    this.handler = handler;
+    this.executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("SAML-" + name + "-%d")
+                .setDaemon(true)
+                .build());
+
+    String prefix = "saml/" + name + "/";
+    metricMaker.newCallbackMetric(
+        prefix + "queue_depth",
+        Integer.class,
+        new Description("Number of accounts waiting to be processed or being processed")
+            .setGauge()
+            .setUnit("accounts"),
+        size::get);
+    this.lag =
+        metricMaker.newTimer(
+            prefix + "lag",
+            new Description("Time a queued task waited before being processed")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    this.failures =
+        metricMaker.newCounter(
+            prefix + "failures",
+            new Description("Number of tasks that failed").setRate().setUnit("failures"));
+    this.refused =
+        metricMaker.newCounter(
+            prefix + "refused",
+            new Description("Number of tasks refused because the queue was full")
+                .setRate()
+                .setUnit("tasks"));
+  }
+
+  /**
+   * Queues {@code value} for background processing.
+   *
+   * @param key key to coalesce by
+   * @param value value to process
+   * @return false when the queue is full and the value was not queued
+   */
+  boolean offer(K key, V value) {
+    AtomicBoolean submit = new AtomicBoolean();
+    AtomicBoolean accepted = new AtomicBoolean(true);
+    slots.compute(
+        key,
+        (k, slot) -> {
+          if (slot != null) {
+            long enqueuedNanos =
+                slot.waiting != null ? slot.waiting.enqueuedNanos : System.nanoTime();
+            slot.waiting = new Pending<>(value, enqueuedNanos);
+            return slot;
+          }
+          if (!reserve()) {
+            accepted.set(false);
+            return null;
+          }
+          submit.set(true);
+          return new Slot<>(new Pending<>(value, System.nanoTime()));
+        });
+    if (submit.get()) {
+      submit(key);
+    }
+    if (!accepted.get()) {
+      refused.increment();
+    }
+    return accepted.get();
+  }
+
+  /** Records a failure of processing a value outside of the queue. */
+  void recordFailure() {
+    failures.increment();
+  }
+
+  int size() {
+    return size.get();
+  }
+
+  void stop() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        log.warn("{} tasks of saml/{} were dropped on shutdown", size.get(), name);
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Takes a slot for a new key, unless the queue is full. */
+  private boolean reserve() {
+    int current;
+    do {
+      current = size.get();
+      if (current >= capacity) {
+        return false;
+      }
+    } while (!size.compareAndSet(current, current + 1));
+    return true;
+  }
+
+  private void submit(K key) {
+    try {
+      executor.execute(() -> process(key));
+    } catch (RejectedExecutionException e) {
+      slots.remove(key);
+      size.decrementAndGet();
+      log.warn("saml/{} is stopped, dropped the task of {}", name, key);
+    }
+  }
+
+  private void process(K key) {
+    AtomicReference<Pending<V>> task = new AtomicReference<>();
+    slots.computeIfPresent(
+        key,
+        (k, slot) -> {
+          task.set(slot.waiting);
+          slot.waiting = null;
+          return slot;
+        });
+    if (task.get() != null) {
+      lag.record(System.nanoTime() - task.get().enqueuedNanos, TimeUnit.NANOSECONDS);
+      try {
+        handler.handle(task.get().value);
+      } catch (Exception e) {
+        failures.increment();
+        log.error("saml/{} failed to process {}", name, key, e);
+      }
+    }
+
+    AtomicBoolean resubmit = new AtomicBoolean();
+    slots.computeIfPresent(
+        key,
+        (k, slot) -> {
+          if (slot.waiting != null) {
+            resubmit.set(true);
+            return slot;
+          }
+          size.decrementAndGet();
+          return null;
+        });
+    if (resubmit.get()) {
+      submit(key);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.events.AccountIndexedListener;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.Objects;
+
+/**
+ * Last display name known to be stored for an account, keyed by account id.
+ *
+ * <p>Lets {@link AccountNameUpdater} skip both the account lookup and the write when the display
+ * name sent by the identity provider did not change since the previous login. Entries are dropped
+ * whenever the account is reindexed, so a name changed by other means is picked up again. Keying by
+ * account id lets that be done without looking up the reindexed account, which would load every
+ * account of the server into the account cache on a full reindex.
+ */
+@Singleton
+class DisplayNameCache implements AccountIndexedListener {
+  static final String CACHE_NAME = "saml_display_names";
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Account.Id.class, String.class).maximumWeight(10000);
+      }
+    };
+  }
+
+  private final Cache<Account.Id, String> cache;
+
+  @Inject
+  DisplayNameCache(@Named(CACHE_NAME) Cache<Account.Id, String> cache) {
+    this.cache = cache;
+  }
+
+  boolean isCurrent(Account.Id accountId, String displayName) {
+    return Objects.equals(cache.getIfPresent(accountId), displayName);
+  }
+
+  void put(Account.Id accountId, String displayName) {
+    if (displayName != null) {
+      cache.put(accountId, displayName);
+    }
+  }
+
+  @Override
+  public void onAccountIndexed(int id) {
+    cache.invalidate(Account.id(id));
+  }
+}
@@ -0,0 +1,184 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.common.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Selects and renames the group claims of a SAML profile before they become {@code saml/} groups,
+ * compiled once from a {@link SamlConfig}.
+ *
+ * <p>A claim with a {@code saml.groupMapping} is replaced by its group name and kept. Other claims
+ * are kept when they match one of the {@code saml.groupInclude} patterns, if any, and none of the
+ * {@code saml.groupExclude} patterns. The first {@code saml.groupRename} rule matching a kept claim
+ * then rewrites it. Claims ending up with the same name are merged.
+ *
+ * <p>The include patterns are combined into a single pattern, and so are the exclude patterns, so
+ * that a claim is matched at most twice whatever the number of patterns. Back references are thus
+ * not supported in include and exclude patterns.
+ *
+ * <p>An invalid pattern or rule fails the compilation, rather than silently keeping or dropping
+ * claims it was meant to handle.
+ */
+class GroupClaimFilter {
+  static final String RULE_SEPARATOR = "=>";
+
+  /** Rewrites the claims matching a pattern. */
+  private static class Rename {
+    final Pattern pattern;
+    final String replacement;
+
+    Rename(Pattern pattern, String replacement) {
+      this.pattern = pattern;
+      this.replacement = replacement;
+    }
+  }
+
+  /** The configuration this filter was compiled from. */
+  final SamlConfig samlConfig;
+
+  private final ImmutableMap<String, String> mappings;
+  @Nullable private final Pattern include;
+  @Nullable private final Pattern exclude;
+  private final ImmutableList<Rename> renames;
+
+  private GroupClaimFilter(SamlConfig samlConfig) {
+    this.samlConfig = samlConfig;
+    this.mappings = compileMappings(samlConfig.getGroupMappings());
+    this.include = combine("groupInclude", samlConfig.getGroupIncludes());
+    this.exclude = combine("groupExclude", samlConfig.getGroupExcludes());
+    this.renames = compileRenames(samlConfig.getGroupRenames());
+  }
+
+  /**
+   * Compiles the group settings of a configuration.
+   *
+   * @throws IllegalArgumentException if a pattern or rule is invalid
+   */
+  static GroupClaimFilter compile(SamlConfig samlConfig) {
+    return new GroupClaimFilter(samlConfig);
+  }
+
+  /** Whether the filter keeps all claims unchanged. */
+  boolean isEmpty() {
+    return mappings.isEmpty() && include == null && exclude == null && renames.isEmpty();
+  }
+
+  /** The names of the groups of the claims that are kept. */
+  List<String> apply(List<?> claims) {
+    if (isEmpty()) {
+      List<String> names = new ArrayList<>(claims.size());
+      for (Object claim : claims) {
+        names.add(claim.toString());
+      }
+      return names;
+    }
+    Set<String> names = new LinkedHashSet<>();
+    for (Object value : claims) {
+      String claim = value.toString();
+      String mapped = mappings.get(claim);
+      if (mapped != null) {
+        names.add(mapped);
+      } else if (isIncluded(claim)) {
+        names.add(rename(claim));
+      }
+    }
+    return new ArrayList<>(names);
+  }
+
+  private boolean isIncluded(String claim) {
+    return (include == null || include.matcher(claim).matches())
+        && (exclude == null || !exclude.matcher(claim).matches());
+  }
+
+  private String rename(String claim) {
+    for (Rename r : renames) {
+      Matcher m = r.pattern.matcher(claim);
+      if (m.matches()) {
+        return m.replaceFirst(r.replacement);
+      }
+    }
+    return claim;
+  }
+
+  @Nullable
+  private static Pattern combine(String key, List<String> patterns) {
+    if (patterns.isEmpty()) {
+      return null;
+    }
+    StringBuilder combined = new StringBuilder();
+    for (String pattern : patterns) {
+      compilePattern(key, pattern);
+      if (combined.length() > 0) {
+        combined.append('|');
+      }
+      combined.append("(?:").append(pattern).append(')');
+    }
+    return Pattern.compile(combined.toString());
+  }
+
+  private static ImmutableMap<String, String> compileMappings(List<String> rules) {
+    Map<String, String> mappings = new HashMap<>();
+    for (String rule : rules) {
+      int separator = rule.lastIndexOf(RULE_SEPARATOR);
+      if (separator < 0) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Invalid saml.groupMapping %s: expected <claim> %s <group>", rule, RULE_SEPARATOR));
+      }
+      mappings.putIfAbsent(
+          rule.substring(0, separator).trim(),
+          rule.substring(separator + RULE_SEPARATOR.length()).trim());
+    }
+    return ImmutableMap.copyOf(mappings);
+  }
+
+  private static ImmutableList<Rename> compileRenames(List<String> rules) {
+    ImmutableList.Builder<Rename> renames = ImmutableList.builder();
+    for (String rule : rules) {
+      int separator = rule.lastIndexOf(RULE_SEPARATOR);
+      if (separator < 0) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Invalid saml.groupRename %s: expected <pattern> %s <name>", rule, RULE_SEPARATOR));
+      }
+      renames.add(
+          new Rename(
+              compilePattern("groupRename", rule.substring(0, separator).trim()),
+              rule.substring(separator + RULE_SEPARATOR.length()).trim()));
+    }
+    return renames.build();
+  }
+
+  private static Pattern compilePattern(String key, String pattern) {
+    try {
+      return Pattern.compile(pattern);
+    } catch (PatternSyntaxException e) {
+      throw new IllegalArgumentException(
+          String.format("Invalid saml.%s pattern %s: %s", key, pattern, e.getDescription()), e);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/** Maps group claims to group names as logins do, for tools outside of this package. */
+public class GroupClaims {
+  private GroupClaims() {}
+
+  /**
+   * Compiles the group settings of an identity provider into a function giving the names, without
+   * the {@code saml/} prefix, of the groups a claim of that identity provider becomes. The names
+   * of an additional identity provider are in its {@code <name>/} namespace, and those of the
+   * default identity provider are never in the namespace of another one. The list is empty if the
+   * claim is not kept.
+   *
+   * @param identityProvider {@code default}, or the name of a {@code [saml "name"]} subsection
+   * @throws IllegalArgumentException if the identity provider is not configured, or one of its
+   *     group patterns or rules is invalid
+   */
+  public static Function<String, List<String>> mapper(
+      SamlConfig samlConfig, String identityProvider) {
+    boolean isDefault = SamlConfig.DEFAULT_IDENTITY_PROVIDER.equals(identityProvider);
+    SamlConfig config =
+        isDefault ? samlConfig : samlConfig.getIdentityProviders().get(identityProvider);
+    if (config == null) {
+      throw new IllegalArgumentException("Unknown identity provider " + identityProvider);
+    }
+    String namespace = isDefault ? "" : identityProvider + "/";
+    List<String> otherNamespaces = new ArrayList<>();
+    if (isDefault) {
+      for (String name : samlConfig.getIdentityProviders().keySet()) {
+        otherNamespaces.add(name + "/");
+      }
+    }
+    GroupClaimFilter filter = GroupClaimFilter.compile(config);
+    return claim -> {
+      List<String> names = new ArrayList<>();
+      for (String name : filter.apply(Collections.singletonList(claim))) {
+        if (!name.isEmpty() && otherNamespaces.stream().noneMatch(name::startsWith)) {
+          names.add(namespace + name);
+        }
+      }
+      return names;
+    };
+  }
+}
@@ -0,0 +1,157 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.git.RefUpdateUtil;
+import com.google.gerrit.server.GerritPersonIdent;
+import com.google.gerrit.server.account.AccountCache;
+import com.google.gerrit.server.account.GroupBackend;
+import com.google.gerrit.server.account.GroupCache;
+import com.google.gerrit.server.account.GroupIncludeCache;
+import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.config.GerritServerId;
+import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.meta.MetaDataUpdate;
+import com.google.gerrit.server.group.db.AuditLogFormatter;
+import com.google.gerrit.server.group.db.GroupConfig;
+import com.google.gerrit.server.group.db.GroupDelta;
+import com.google.gerrit.server.index.group.GroupIndexer;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Applies all membership changes of one account to the {@code saml/} groups with a single batch ref
+ * update in {@code All-Users}, followed by one cache eviction and reindex pass.
+ *
+ * <p>This replaces one {@code GroupsUpdate#updateGroup} call, i.e. one commit, ref update and
+ * reindex, per group the account joins or leaves.
+ */
+@Singleton
+class GroupMembershipBatchUpdate {
+  private final GitRepositoryManager repoManager;
+  private final AllUsersName allUsersName;
+  private final MetaDataUpdate.InternalFactory metaDataUpdateFactory;
+  private final PersonIdent serverIdent;
+  private final AuditLogFormatter auditLogFormatter;
+  private final GroupCache groupCache;
+  private final GroupIncludeCache groupIncludeCache;
+  private final Provider<GroupIndexer> indexer;
+  private final GitReferenceUpdated gitRefUpdated;
+
+  @Inject
+  GroupMembershipBatchUpdate(
+      GitRepositoryManager repoManager,
+      AllUsersName allUsersName,
+      MetaDataUpdate.InternalFactory metaDataUpdateFactory,
+      @GerritPersonIdent PersonIdent serverIdent,
+      AccountCache accountCache,
+      GroupBackend groupBackend,
+      @GerritServerId String serverId,
+      GroupCache groupCache,
+      GroupIncludeCache groupIncludeCache,
+      Provider<GroupIndexer> indexer,
+      GitReferenceUpdated gitRefUpdated) {
+    this.repoManager = repoManager;
+    this.allUsersName = allUsersName;
+    this.metaDataUpdateFactory = metaDataUpdateFactory;
+    this.serverIdent = serverIdent;
+    this.auditLogFormatter = AuditLogFormatter.createBackedBy(accountCache, groupBackend, serverId);
+    this.groupCache = groupCache;
+    this.groupIncludeCache = groupIncludeCache;
+    this.indexer = indexer;
+    this.gitRefUpdated = gitRefUpdated;
+  }
+
+  /**
+   * Adds {@code accountId} to {@code added} and removes it from {@code removed}.
+   *
+   * @param accountId account whose memberships change
+   * @param added groups the account joins
+   * @param removed groups the account leaves
+   * @throws IOException when the batch cannot be written, in which case none of the groups is
+   *     updated
+   * @throws ConfigInvalidException when one of the groups cannot be loaded
+   */
+  void update(Account.Id accountId, Set<AccountGroup.UUID> added, Set<AccountGroup.UUID> removed)
+      throws IOException, ConfigInvalidException {
+    if (added.isEmpty() && removed.isEmpty()) {
+      return;
+    }
+    ImmutableSet<Account.Id> member = ImmutableSet.of(accountId);
+    List<InternalGroup> updatedGroups = new ArrayList<>(added.size() + removed.size());
+
+    try (Repository allUsersRepo = repoManager.openRepository(allUsersName)) {
+      BatchRefUpdate batch = allUsersRepo.getRefDatabase().newBatchUpdate();
+      batch.setAtomic(true);
+      MetaDataUpdate metaDataUpdate =
+          metaDataUpdateFactory.create(allUsersName, allUsersRepo, batch);
+      metaDataUpdate.getCommitBuilder().setAuthor(serverIdent);
+      metaDataUpdate.getCommitBuilder().setCommitter(serverIdent);
+      for (AccountGroup.UUID group : added) {
+        stage(allUsersRepo, metaDataUpdate, group, m -> Sets.union(m, member))
+            .ifPresent(updatedGroups::add);
+      }
+      for (AccountGroup.UUID group : removed) {
+        stage(allUsersRepo, metaDataUpdate, group, m -> Sets.difference(m, member))
+            .ifPresent(updatedGroups::add);
+      }
+      RefUpdateUtil.executeChecked(batch, allUsersRepo);
+      gitRefUpdated.fire(allUsersName, batch, null);
+    }
+
+    for (InternalGroup group : updatedGroups) {
+      groupCache.evict(group.getGroupUUID());
+      groupCache.evict(group.getId());
+      groupCache.evict(group.getNameKey());
+    }
+    groupIncludeCache.evictGroupsWithMember(accountId);
+    GroupIndexer groupIndexer = indexer.get();
+    for (InternalGroup group : updatedGroups) {
+      groupIndexer.index(group.getGroupUUID());
+    }
+  }
+
+  private Optional<InternalGroup> stage(
+      Repository allUsersRepo,
+      MetaDataUpdate metaDataUpdate,
+      AccountGroup.UUID groupUuid,
+      GroupDelta.MemberModification memberModification)
+      throws IOException, ConfigInvalidException {
+    GroupConfig groupConfig = GroupConfig.loadForGroup(allUsersName, allUsersRepo, groupUuid);
+    if (!groupConfig.getLoadedGroup().isPresent()) {
+      return Optional.empty();
+    }
+    groupConfig.setGroupDelta(
+        GroupDelta.builder().setMemberModification(memberModification).build(), auditLogFormatter);
+    groupConfig.commit(metaDataUpdate);
+    return groupConfig.getLoadedGroup();
+  }
+}
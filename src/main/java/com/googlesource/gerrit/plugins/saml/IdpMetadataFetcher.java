@@ -0,0 +1,125 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.common.io.ByteStreams;
+import com.google.gerrit.common.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Downloads IdP metadata over HTTP(S), revalidating the previous download with {@code
+ * If-None-Match} and {@code If-Modified-Since}.
+ *
+ * <p>The metadata is streamed to a temporary file, as federation aggregates run into hundreds of
+ * megabytes.
+ */
+class IdpMetadataFetcher {
+  /** Validators of downloaded metadata, needed to revalidate it. */
+  static class Validators {
+    @Nullable final String etag;
+    @Nullable final String lastModified;
+
+    Validators(@Nullable String etag, @Nullable String lastModified) {
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /** Metadata downloaded to a temporary file, which the caller deletes. */
+  static class Download {
+    final Path file;
+    final Validators validators;
+
+    Download(Path file, Validators validators) {
+      this.file = file;
+      this.validators = validators;
+    }
+  }
+
+  private final int timeoutMillis;
+  private final long maxSize;
+
+  IdpMetadataFetcher(Duration timeout, long maxSize) {
+    this.timeoutMillis = (int) timeout.toMillis();
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Downloads the metadata unless it did not change since {@code previous}.
+   *
+   * @param url location of the metadata
+   * @param previous validators of the metadata downloaded before, may be {@code null}
+   * @param dir directory to download the metadata to
+   * @return the new metadata, or empty when the server reports it unchanged
+   * @throws IOException when the metadata cannot be downloaded
+   */
+  Optional<Download> fetch(URL url, @Nullable Validators previous, Path dir) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    try {
+      conn.setConnectTimeout(timeoutMillis);
+      conn.setReadTimeout(timeoutMillis);
+      conn.setUseCaches(false);
+      conn.setRequestProperty("Accept", "application/samlmetadata+xml, application/xml, text/xml");
+      if (previous != null) {
+        if (previous.etag != null) {
+          conn.setRequestProperty("If-None-Match", previous.etag);
+        }
+        if (previous.lastModified != null) {
+          conn.setRequestProperty("If-Modified-Since", previous.lastModified);
+        }
+      }
+
+      int status = conn.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+        return Optional.empty();
+      }
+      if (status != HttpURLConnection.HTTP_OK) {
+        throw new IOException(String.format("Fetching %s failed with status %d", url, status));
+      }
+      if (conn.getContentLengthLong() > maxSize) {
+        throw new IOException(String.format("Metadata at %s exceeds %d bytes", url, maxSize));
+      }
+      Path file = Files.createTempFile(dir, "idp-metadata", ".download");
+      try {
+        long size;
+        try (InputStream in = conn.getInputStream()) {
+          size =
+              Files.copy(
+                  ByteStreams.limit(in, maxSize + 1), file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (size > maxSize) {
+          throw new IOException(String.format("Metadata at %s exceeds %d bytes", url, maxSize));
+        }
+      } catch (IOException | RuntimeException e) {
+        Files.deleteIfExists(file);
+        throw e;
+      }
+      return Optional.of(
+          new Download(
+              file,
+              new Validators(conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"))));
+    } finally {
+      conn.disconnect();
+    }
+  }
+}
@@ -0,0 +1,578 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.saml.pgm.LibModuleDataDirUtil;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.XMLConstants;
+import javax.xml.crypto.MarshalException;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureException;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Keeps a last-known-good copy of remote IdP metadata in {@code $site/data/saml}.
+ *
+ * <p>When {@code saml.metadataPath} is an HTTP(S) URL, the SAML client reads the metadata from the
+ * local copy instead, so that logins keep working when the identity provider cannot be reached
+ * while Gerrit restarts. The copy is refreshed in the background every {@code
+ * saml.metadataRefreshInterval} with a conditional request, and replaced only once the new
+ * metadata was parsed and, when {@code saml.metadataSigningCertificate} is set, its signature was
+ * verified. Listeners are notified after each replacement.
+ */
+@Singleton
+class IdpMetadataManager implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(IdpMetadataManager.class);
+  private static final String FILE_PREFIX = "idp-metadata";
+  private static final String MD_NS = MetadataEntityFilter.MD_NS;
+  private static final Duration FETCH_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration MIN_REVALIDATION_RETRY = Duration.ofSeconds(10);
+  private static final Duration MAX_REVALIDATION_RETRY = Duration.ofMinutes(15);
+
+  private final String metadataPath;
+  private final Path metadataFile;
+  private final Path validatorsFile;
+  private final Path snapshotFile;
+  private final Path minimalMetadataFile;
+  private final boolean snapshotEnabled;
+  private final Duration refreshInterval;
+  private final String signingCertificate;
+  private final ScheduledExecutorService executor;
+  private final IdpMetadataFetcher fetcher;
+  private final String entityIds;
+  private final MetadataEntityFilter entityFilter;
+  private final AtomicReference<IdpMetadataFetcher.Validators> current = new AtomicReference<>();
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+  private final AtomicBoolean revalidationScheduled = new AtomicBoolean();
+  private final AtomicInteger revalidationFailures = new AtomicInteger();
+  private volatile boolean revalidated;
+  private volatile boolean stopped;
+  private volatile ScheduledFuture<?> revalidationTask;
+  private volatile PublicKey signingKey;
+  private ScheduledFuture<?> refreshTask;
+
+  @Inject
+  IdpMetadataManager(
+      SamlConfig samlConfig, @LibModuleData Path libModuleDataDir, WorkQueue workQueue) {
+    this(
+        samlConfig,
+        libModuleDataDir,
+        FILE_PREFIX,
+        workQueue != null ? workQueue.getDefaultQueue() : null);
+  }
+
+  /**
+   * Manages the metadata of a named identity provider, kept in its own files and refreshed with its
+   * own executor.
+   */
+  static IdpMetadataManager forIdentityProvider(
+      String name,
+      SamlConfig samlConfig,
+      Path libModuleDataDir,
+      ScheduledExecutorService executor) {
+    return new IdpMetadataManager(
+        samlConfig, libModuleDataDir, "idp-" + name + "-metadata", executor);
+  }
+
+  private IdpMetadataManager(
+      SamlConfig samlConfig,
+      Path libModuleDataDir,
+      String filePrefix,
+      @Nullable ScheduledExecutorService executor) {
+    this.metadataPath = samlConfig.getMetadataPath();
+    this.metadataFile = libModuleDataDir.resolve(filePrefix + ".xml");
+    this.validatorsFile = libModuleDataDir.resolve(filePrefix + ".properties");
+    this.snapshotFile = libModuleDataDir.resolve(filePrefix + ".snapshot");
+    this.minimalMetadataFile = libModuleDataDir.resolve(filePrefix + "-minimal.xml");
+    this.snapshotEnabled = samlConfig.isMetadataSnapshot();
+    this.refreshInterval = samlConfig.getMetadataRefreshInterval();
+    this.signingCertificate = samlConfig.getMetadataSigningCertificate();
+    this.executor = executor;
+    this.fetcher = new IdpMetadataFetcher(FETCH_TIMEOUT, samlConfig.getMetadataMaxSize());
+    this.entityIds = String.join(" ", samlConfig.getMetadataEntityIds());
+    this.entityFilter =
+        samlConfig.getMetadataEntityIds().isEmpty()
+            ? null
+            : new MetadataEntityFilter(samlConfig.getMetadataEntityIds());
+  }
+
+  boolean isRemote() {
+    String path = Strings.nullToEmpty(metadataPath);
+    return path.startsWith("http://") || path.startsWith("https://");
+  }
+
+  /**
+   * Location of the metadata to hand over to the SAML client.
+   *
+   * <p>For remote metadata, this is the local copy. It is downloaded first if there is none yet;
+   * when that fails, the configured URL is returned and left to the SAML client. Local metadata is
+   * used as is, unless entities are to be extracted from it.
+   *
+   * <p>With {@code saml.metadataSnapshot}, calls return minimal metadata synthesized from the
+   * snapshot after a restart, until the metadata was revalidated in the background or refreshed.
+   * A failed revalidation is retried with an exponential backoff.
+   */
+  String getMetadataPath() {
+    if (!isRemote() && entityFilter == null) {
+      return metadataPath;
+    }
+    if (snapshotEnabled && !revalidated) {
+      Optional<String> fromSnapshot = loadSnapshot();
+      if (fromSnapshot.isPresent()) {
+        return fromSnapshot.get();
+      }
+    }
+    if (!isRemote()) {
+      return getFilteredLocalMetadataPath();
+    }
+    if (current.get() == null) {
+      synchronized (this) {
+        if (current.get() == null && !loadLocalCopy()) {
+          try {
+            refresh();
+          } catch (IOException e) {
+            log.error("Cannot download IdP metadata from {}", metadataPath, e);
+            return metadataPath;
+          }
+        }
+      }
+    }
+    return metadataFile.toString();
+  }
+
+  private synchronized String getFilteredLocalMetadataPath() {
+    try {
+      extractLocalEntities();
+      return metadataFile.toString();
+    } catch (IOException e) {
+      log.error("Cannot extract entities {} from IdP metadata {}", entityIds, metadataPath, e);
+      return metadataPath;
+    }
+  }
+
+  /**
+   * Extracts the configured entities from local metadata, unless it did not change since the last
+   * time.
+   *
+   * @return true when the extracted metadata was replaced
+   */
+  private synchronized boolean extractLocalEntities() throws IOException {
+    Optional<Path> source = localSource();
+    if (!source.isPresent()) {
+      throw new IOException("Cannot read " + metadataPath);
+    }
+    String sourceModified = Long.toString(Files.getLastModifiedTime(source.get()).toMillis());
+    Properties previous = readValidators();
+    if (Files.exists(metadataFile)
+        && metadataPath.equals(previous.getProperty("url"))
+        && entityIds.equals(previous.getProperty("entities"))
+        && sourceModified.equals(previous.getProperty("sourceModified"))) {
+      return false;
+    }
+    extractEntities(source.get());
+    Properties validators = newValidators();
+    validators.setProperty("sourceModified", sourceModified);
+    LibModuleDataDirUtil.writeAtomically(validatorsFile, store(validators));
+    log.info("Extracted entities {} from IdP metadata {}", entityIds, source.get());
+    return saveSnapshot();
+  }
+
+  /** The file local metadata is read from, if any. */
+  Optional<Path> localSource() {
+    String path = Strings.nullToEmpty(metadataPath);
+    if (path.startsWith("file:")) {
+      try {
+        return Optional.of(Paths.get(URI.create(path)));
+      } catch (IllegalArgumentException e) {
+        return Optional.empty();
+      }
+    }
+    if (path.isEmpty() || path.startsWith("classpath:")) {
+      return Optional.empty();
+    }
+    return Optional.of(Paths.get(path));
+  }
+
+  void addListener(Runnable listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void start() {
+    if (!isRemote() || refreshInterval.isZero()) {
+      return;
+    }
+    long interval = refreshInterval.toMillis();
+    refreshTask =
+        executor.scheduleWithFixedDelay(
+            this::refreshQuietly, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    stopped = true;
+    if (refreshTask != null) {
+      refreshTask.cancel(false);
+      refreshTask = null;
+    }
+    ScheduledFuture<?> revalidation = revalidationTask;
+    if (revalidation != null) {
+      revalidation.cancel(false);
+    }
+  }
+
+  /**
+   * Downloads the metadata if it changed, and replaces the local copy once it is validated.
+   *
+   * <p>Refreshes are serialized, so that the scheduled refresh, the revalidation of a snapshot and
+   * the first download never race on the local copy and its validators. Listeners are notified
+   * once the lock is released. A successful refresh also revalidates the snapshot, if any.
+   *
+   * @return true when the local copy was replaced
+   * @throws IOException when the metadata cannot be downloaded, is invalid or cannot be stored
+   */
+  boolean refresh() throws IOException {
+    boolean notify;
+    synchronized (this) {
+      Optional<IdpMetadataFetcher.Download> fetched =
+          fetcher.fetch(new URL(metadataPath), current.get(), metadataFile.getParent());
+      if (!fetched.isPresent()) {
+        log.debug("IdP metadata at {} is unchanged", metadataPath);
+        revalidated = true;
+        return false;
+      }
+      IdpMetadataFetcher.Download download = fetched.get();
+      try {
+        validateAndStore(download.file);
+      } finally {
+        Files.deleteIfExists(download.file);
+      }
+      LibModuleDataDirUtil.writeAtomically(validatorsFile, validators(download.validators));
+      current.set(download.validators);
+      log.info("Updated IdP metadata from {}", metadataPath);
+      notify = saveSnapshot();
+      revalidated = true;
+    }
+    if (notify) {
+      listeners.forEach(Runnable::run);
+    }
+    return true;
+  }
+
+  private synchronized Optional<String> loadSnapshot() {
+    if (!Files.exists(snapshotFile)) {
+      return Optional.empty();
+    }
+    try {
+      IdpMetadataSnapshot snapshot =
+          IdpMetadataSnapshot.deserialize(Files.readAllBytes(snapshotFile));
+      if (!snapshotSource().equals(snapshot.source)) {
+        return Optional.empty();
+      }
+      LibModuleDataDirUtil.writeAtomically(minimalMetadataFile, snapshot.toMetadata());
+    } catch (IOException e) {
+      log.warn("Ignoring unreadable IdP metadata snapshot {}", snapshotFile, e);
+      return Optional.empty();
+    }
+    scheduleRevalidation(Duration.ZERO);
+    return Optional.of(minimalMetadataFile.toString());
+  }
+
+  /**
+   * Stores the snapshot of the local copy.
+   *
+   * @return true when the snapshot changed, or snapshots are disabled
+   */
+  private boolean saveSnapshot() {
+    if (!snapshotEnabled) {
+      return true;
+    }
+    try {
+      byte[] snapshot =
+          IdpMetadataSnapshot.fromMetadata(snapshotSource(), Files.readAllBytes(metadataFile))
+              .serialize();
+      if (Files.exists(snapshotFile) && Arrays.equals(snapshot, Files.readAllBytes(snapshotFile))) {
+        return false;
+      }
+      LibModuleDataDirUtil.writeAtomically(snapshotFile, snapshot);
+    } catch (IOException e) {
+      log.warn("Cannot write IdP metadata snapshot {}", snapshotFile, e);
+    }
+    return true;
+  }
+
+  private void revalidate() {
+    try {
+      boolean changed;
+      if (isRemote()) {
+        changed = refresh();
+      } else {
+        changed = extractLocalEntities();
+        if (changed) {
+          listeners.forEach(Runnable::run);
+        }
+      }
+      revalidated = true;
+      revalidationFailures.set(0);
+      log.info("Revalidated IdP metadata snapshot, {}", changed ? "updated" : "unchanged");
+    } catch (IOException | RuntimeException e) {
+      Duration retry = revalidationRetryDelay(revalidationFailures.incrementAndGet());
+      log.warn(
+          "Cannot revalidate IdP metadata snapshot against {}, retrying in {} s",
+          metadataPath,
+          retry.getSeconds(),
+          e);
+      revalidationScheduled.set(false);
+      scheduleRevalidation(retry);
+    }
+  }
+
+  private void scheduleRevalidation(Duration delay) {
+    if (executor != null
+        && !stopped
+        && !revalidated
+        && revalidationScheduled.compareAndSet(false, true)) {
+      revalidationTask =
+          executor.schedule(this::revalidate, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Doubles the delay after each failure, from {@link #MIN_REVALIDATION_RETRY} up to a maximum. */
+  static Duration revalidationRetryDelay(int failures) {
+    Duration delay = MIN_REVALIDATION_RETRY.multipliedBy(1L << Math.min(failures - 1, 20));
+    return delay.compareTo(MAX_REVALIDATION_RETRY) < 0 ? delay : MAX_REVALIDATION_RETRY;
+  }
+
+  private String snapshotSource() {
+    return metadataPath + " " + entityIds;
+  }
+
+  private void refreshQuietly() {
+    try {
+      refresh();
+    } catch (IOException | RuntimeException e) {
+      log.warn("Cannot refresh IdP metadata from {}, keeping the current one", metadataPath, e);
+    }
+  }
+
+  private boolean loadLocalCopy() {
+    if (!Files.exists(metadataFile)) {
+      return false;
+    }
+    try {
+      Properties validators = readValidators();
+      if (!metadataPath.equals(validators.getProperty("url"))
+          || !entityIds.equals(validators.getProperty("entities", ""))) {
+        return false;
+      }
+      current.set(
+          new IdpMetadataFetcher.Validators(
+              validators.getProperty("etag"), validators.getProperty("lastModified")));
+      return true;
+    } catch (IOException e) {
+      log.warn("Ignoring unreadable IdP metadata in {}", metadataFile, e);
+      return false;
+    }
+  }
+
+  private Properties readValidators() throws IOException {
+    Properties validators = new Properties();
+    if (Files.exists(validatorsFile)) {
+      validators.load(new StringReader(new String(Files.readAllBytes(validatorsFile), UTF_8)));
+    }
+    return validators;
+  }
+
+  private Properties newValidators() {
+    Properties validators = new Properties();
+    validators.setProperty("url", metadataPath);
+    validators.setProperty("entities", entityIds);
+    return validators;
+  }
+
+  private byte[] validators(IdpMetadataFetcher.Validators metadata) throws IOException {
+    Properties validators = newValidators();
+    if (metadata.etag != null) {
+      validators.setProperty("etag", metadata.etag);
+    }
+    if (metadata.lastModified != null) {
+      validators.setProperty("lastModified", metadata.lastModified);
+    }
+    return store(validators);
+  }
+
+  private static byte[] store(Properties validators) throws IOException {
+    StringWriter out = new StringWriter();
+    validators.store(out, null);
+    return out.toString().getBytes(UTF_8);
+  }
+
+  /**
+   * Checks that downloaded metadata is SAML metadata, and that it is signed by the configured
+   * certificate if there is one, then replaces the local copy with it.
+   *
+   * <p>When entities are to be extracted, the signature is verified on the whole document and the
+   * entities are then extracted from the file with {@link MetadataEntityFilter}, which avoids
+   * building a DOM of large aggregates when no signature is to be verified. Only the extracted
+   * entities are then held in memory.
+   */
+  private void validateAndStore(Path downloaded) throws IOException {
+    PublicKey key = getSigningKey();
+    if (key != null || entityFilter == null) {
+      Element root;
+      try (InputStream in = Files.newInputStream(downloaded)) {
+        root = parse(in).getDocumentElement();
+      }
+      if (!MD_NS.equals(root.getNamespaceURI())
+          || !("EntityDescriptor".equals(root.getLocalName())
+              || "EntitiesDescriptor".equals(root.getLocalName()))) {
+        throw new IOException("Not SAML metadata: root element is " + root.getTagName());
+      }
+      if (key != null) {
+        verifySignature(root, key);
+      }
+    }
+    if (entityFilter != null) {
+      extractEntities(downloaded);
+    } else {
+      Files.move(
+          downloaded,
+          metadataFile,
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private void extractEntities(Path source) throws IOException {
+    byte[] filtered;
+    try (InputStream in = Files.newInputStream(source)) {
+      filtered = entityFilter.filter(in);
+    }
+    LibModuleDataDirUtil.writeAtomically(metadataFile, filtered);
+  }
+
+  static Document parse(byte[] content) throws IOException {
+    return parse(new ByteArrayInputStream(content));
+  }
+
+  private static Document parse(InputStream content) throws IOException {
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+      factory.setXIncludeAware(false);
+      factory.setExpandEntityReferences(false);
+      return factory.newDocumentBuilder().parse(content);
+    } catch (ParserConfigurationException | SAXException e) {
+      throw new IOException("Cannot parse IdP metadata", e);
+    }
+  }
+
+  private static void verifySignature(Element root, PublicKey key) throws IOException {
+    Element signature = null;
+    for (Node n = root.getFirstChild(); n != null; n = n.getNextSibling()) {
+      if (n instanceof Element
+          && XMLSignature.XMLNS.equals(n.getNamespaceURI())
+          && "Signature".equals(n.getLocalName())) {
+        signature = (Element) n;
+        break;
+      }
+    }
+    if (signature == null) {
+      throw new IOException("IdP metadata is not signed");
+    }
+    if (root.hasAttribute("ID")) {
+      root.setIdAttribute("ID", true);
+    }
+    String rootReference = root.hasAttribute("ID") ? "#" + root.getAttribute("ID") : "";
+    try {
+      DOMValidateContext context = new DOMValidateContext(key, signature);
+      context.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.TRUE);
+      XMLSignature xmlSignature =
+          XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(context);
+      for (Object reference : xmlSignature.getSignedInfo().getReferences()) {
+        String uri = Strings.nullToEmpty(((Reference) reference).getURI());
+        if (!uri.isEmpty() && !uri.equals(rootReference)) {
+          throw new IOException("IdP metadata signature does not cover the whole document");
+        }
+      }
+      if (!xmlSignature.validate(context)) {
+        throw new IOException("IdP metadata signature is invalid");
+      }
+    } catch (MarshalException | XMLSignatureException e) {
+      throw new IOException("Cannot verify IdP metadata signature", e);
+    }
+  }
+
+  @Nullable
+  private PublicKey getSigningKey() throws IOException {
+    if (signingCertificate == null) {
+      return null;
+    }
+    if (signingKey == null) {
+      try (InputStream in = Files.newInputStream(Paths.get(signingCertificate))) {
+        signingKey =
+            CertificateFactory.getInstance("X.509").generateCertificate(in).getPublicKey();
+      } catch (GeneralSecurityException e) {
+        throw new IOException("Cannot read " + signingCertificate, e);
+      }
+    }
+    return signingKey;
+  }
+}
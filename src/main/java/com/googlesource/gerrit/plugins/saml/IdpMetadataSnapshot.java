@@ -0,0 +1,348 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.googlesource.gerrit.plugins.saml.MetadataEntityFilter.MD_NS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.CRC32C;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The parts of IdP metadata the SAML client uses: entity ids, keys, login and logout endpoints and
+ * name id formats of the identity providers.
+ *
+ * <p>A snapshot is stored in a small, versioned and checksummed binary form. After a restart, the
+ * SAML client is given minimal metadata synthesized from the snapshot instead of the full metadata,
+ * which spares downloading, parsing and verifying it before the first login.
+ */
+class IdpMetadataSnapshot {
+  private static final int MAGIC = 0x53414d4c;
+  private static final int VERSION = 1;
+  private static final String DS_NS = "http://www.w3.org/2000/09/xmldsig#";
+  private static final String PROTOCOL = "urn:oasis:names:tc:SAML:2.0:protocol";
+
+  static class Key {
+    @Nullable final String use;
+    final byte[] certificate;
+
+    Key(@Nullable String use, byte[] certificate) {
+      this.use = use;
+      this.certificate = certificate;
+    }
+  }
+
+  static class Endpoint {
+    final String type;
+    final String binding;
+    final String location;
+
+    Endpoint(String type, String binding, String location) {
+      this.type = type;
+      this.binding = binding;
+      this.location = location;
+    }
+  }
+
+  static class Entity {
+    final String entityId;
+    final boolean wantAuthnRequestsSigned;
+    final ImmutableList<Key> keys;
+    final ImmutableList<Endpoint> endpoints;
+    final ImmutableList<String> nameIdFormats;
+
+    Entity(
+        String entityId,
+        boolean wantAuthnRequestsSigned,
+        List<Key> keys,
+        List<Endpoint> endpoints,
+        List<String> nameIdFormats) {
+      this.entityId = entityId;
+      this.wantAuthnRequestsSigned = wantAuthnRequestsSigned;
+      this.keys = ImmutableList.copyOf(keys);
+      this.endpoints = ImmutableList.copyOf(endpoints);
+      this.nameIdFormats = ImmutableList.copyOf(nameIdFormats);
+    }
+  }
+
+  final String source;
+  final ImmutableList<Entity> entities;
+
+  IdpMetadataSnapshot(String source, List<Entity> entities) {
+    this.source = source;
+    this.entities = ImmutableList.copyOf(entities);
+  }
+
+  /**
+   * Extracts the identity providers of metadata.
+   *
+   * @param source identifies where the metadata comes from, and which entities were extracted
+   * @param metadata SAML metadata
+   * @throws IOException when the metadata cannot be parsed or holds no identity provider
+   */
+  static IdpMetadataSnapshot fromMetadata(String source, byte[] metadata) throws IOException {
+    Element root = IdpMetadataManager.parse(metadata).getDocumentElement();
+    ImmutableList.Builder<Entity> entities = ImmutableList.builder();
+    if (isMd(root, "EntityDescriptor")) {
+      addEntity(root, entities);
+    } else {
+      for (Node n : asList(root.getElementsByTagNameNS(MD_NS, "EntityDescriptor"))) {
+        addEntity((Element) n, entities);
+      }
+    }
+    IdpMetadataSnapshot snapshot = new IdpMetadataSnapshot(source, entities.build());
+    if (snapshot.entities.isEmpty()) {
+      throw new IOException("IdP metadata contains no identity provider");
+    }
+    return snapshot;
+  }
+
+  private static void addEntity(Element entity, ImmutableList.Builder<Entity> entities) {
+    Element idp = firstChild(entity, "IDPSSODescriptor");
+    if (idp == null) {
+      return;
+    }
+    ImmutableList.Builder<Key> keys = ImmutableList.builder();
+    ImmutableList.Builder<Endpoint> endpoints = ImmutableList.builder();
+    ImmutableList.Builder<String> nameIdFormats = ImmutableList.builder();
+    for (Node n = idp.getFirstChild(); n != null; n = n.getNextSibling()) {
+      if (!(n instanceof Element) || !MD_NS.equals(n.getNamespaceURI())) {
+        continue;
+      }
+      Element e = (Element) n;
+      switch (e.getLocalName()) {
+        case "KeyDescriptor":
+          String use = e.hasAttribute("use") ? e.getAttribute("use") : null;
+          for (Node c : asList(e.getElementsByTagNameNS(DS_NS, "X509Certificate"))) {
+            keys.add(new Key(use, Base64.getMimeDecoder().decode(c.getTextContent().trim())));
+          }
+          break;
+        case "SingleSignOnService":
+        case "SingleLogoutService":
+          endpoints.add(
+              new Endpoint(
+                  e.getLocalName(), e.getAttribute("Binding"), e.getAttribute("Location")));
+          break;
+        case "NameIDFormat":
+          nameIdFormats.add(e.getTextContent().trim());
+          break;
+        default:
+          break;
+      }
+    }
+    entities.add(
+        new Entity(
+            entity.getAttribute("entityID"),
+            Boolean.parseBoolean(idp.getAttribute("WantAuthnRequestsSigned")),
+            keys.build(),
+            endpoints.build(),
+            nameIdFormats.build()));
+  }
+
+  byte[] serialize() throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(body);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(source);
+    out.writeInt(entities.size());
+    for (Entity entity : entities) {
+      out.writeUTF(entity.entityId);
+      out.writeBoolean(entity.wantAuthnRequestsSigned);
+      out.writeInt(entity.keys.size());
+      for (Key key : entity.keys) {
+        out.writeUTF(key.use != null ? key.use : "");
+        out.writeInt(key.certificate.length);
+        out.write(key.certificate);
+      }
+      out.writeInt(entity.endpoints.size());
+      for (Endpoint endpoint : entity.endpoints) {
+        out.writeUTF(endpoint.type);
+        out.writeUTF(endpoint.binding);
+        out.writeUTF(endpoint.location);
+      }
+      out.writeInt(entity.nameIdFormats.size());
+      for (String format : entity.nameIdFormats) {
+        out.writeUTF(format);
+      }
+    }
+    CRC32C crc = new CRC32C();
+    crc.update(body.toByteArray());
+    out.writeLong(crc.getValue());
+    out.flush();
+    return body.toByteArray();
+  }
+
+  /**
+   * Reads a snapshot written by {@link #serialize()}.
+   *
+   * @throws IOException when the snapshot is truncated, corrupt or of another version
+   */
+  static IdpMetadataSnapshot deserialize(byte[] data) throws IOException {
+    if (data.length < Long.BYTES) {
+      throw new IOException("IdP metadata snapshot is truncated");
+    }
+    CRC32C crc = new CRC32C();
+    crc.update(data, 0, data.length - Long.BYTES);
+    if (crc.getValue() != ByteBuffer.wrap(data, data.length - Long.BYTES, Long.BYTES).getLong()) {
+      throw new IOException("IdP metadata snapshot is corrupt");
+    }
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Unsupported IdP metadata snapshot");
+    }
+    String source = in.readUTF();
+    int entityCount = in.readInt();
+    ImmutableList.Builder<Entity> entities = ImmutableList.builder();
+    for (int i = 0; i < entityCount; i++) {
+      String entityId = in.readUTF();
+      boolean wantAuthnRequestsSigned = in.readBoolean();
+      ImmutableList.Builder<Key> keys = ImmutableList.builder();
+      for (int k = in.readInt(); k > 0; k--) {
+        String use = in.readUTF();
+        byte[] certificate = new byte[in.readInt()];
+        in.readFully(certificate);
+        keys.add(new Key(use.isEmpty() ? null : use, certificate));
+      }
+      ImmutableList.Builder<Endpoint> endpoints = ImmutableList.builder();
+      for (int k = in.readInt(); k > 0; k--) {
+        endpoints.add(new Endpoint(in.readUTF(), in.readUTF(), in.readUTF()));
+      }
+      ImmutableList.Builder<String> nameIdFormats = ImmutableList.builder();
+      for (int k = in.readInt(); k > 0; k--) {
+        nameIdFormats.add(in.readUTF());
+      }
+      entities.add(
+          new Entity(
+              entityId,
+              wantAuthnRequestsSigned,
+              keys.build(),
+              endpoints.build(),
+              nameIdFormats.build()));
+    }
+    return new IdpMetadataSnapshot(source, entities.build());
+  }
+
+  /** Synthesizes minimal metadata holding only the parts of the snapshot. */
+  byte[] toMetadata() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      XMLStreamWriter w = XMLOutputFactory.newFactory().createXMLStreamWriter(out, UTF_8.name());
+      w.writeStartDocument(UTF_8.name(), "1.0");
+      boolean aggregate = entities.size() > 1;
+      if (aggregate) {
+        w.writeStartElement("md", "EntitiesDescriptor", MD_NS);
+        w.writeNamespace("md", MD_NS);
+        w.writeNamespace("ds", DS_NS);
+      }
+      for (Entity entity : entities) {
+        w.writeStartElement("md", "EntityDescriptor", MD_NS);
+        if (!aggregate) {
+          w.writeNamespace("md", MD_NS);
+          w.writeNamespace("ds", DS_NS);
+        }
+        w.writeAttribute("entityID", entity.entityId);
+        w.writeStartElement("md", "IDPSSODescriptor", MD_NS);
+        w.writeAttribute("protocolSupportEnumeration", PROTOCOL);
+        if (entity.wantAuthnRequestsSigned) {
+          w.writeAttribute("WantAuthnRequestsSigned", "true");
+        }
+        for (Key key : entity.keys) {
+          w.writeStartElement("md", "KeyDescriptor", MD_NS);
+          if (key.use != null) {
+            w.writeAttribute("use", key.use);
+          }
+          w.writeStartElement("ds", "KeyInfo", DS_NS);
+          w.writeStartElement("ds", "X509Data", DS_NS);
+          w.writeStartElement("ds", "X509Certificate", DS_NS);
+          w.writeCharacters(Base64.getEncoder().encodeToString(key.certificate));
+          w.writeEndElement();
+          w.writeEndElement();
+          w.writeEndElement();
+          w.writeEndElement();
+        }
+        // The schema requires logout endpoints before name id formats before login endpoints.
+        writeEndpoints(w, entity, "SingleLogoutService");
+        for (String format : entity.nameIdFormats) {
+          w.writeStartElement("md", "NameIDFormat", MD_NS);
+          w.writeCharacters(format);
+          w.writeEndElement();
+        }
+        writeEndpoints(w, entity, "SingleSignOnService");
+        w.writeEndElement();
+        w.writeEndElement();
+      }
+      if (aggregate) {
+        w.writeEndElement();
+      }
+      w.writeEndDocument();
+      w.close();
+    } catch (XMLStreamException e) {
+      throw new IOException("Cannot write IdP metadata", e);
+    }
+    return out.toByteArray();
+  }
+
+  private static void writeEndpoints(XMLStreamWriter w, Entity entity, String type)
+      throws XMLStreamException {
+    for (Endpoint endpoint : entity.endpoints) {
+      if (endpoint.type.equals(type)) {
+        w.writeEmptyElement("md", type, MD_NS);
+        w.writeAttribute("Binding", endpoint.binding);
+        w.writeAttribute("Location", endpoint.location);
+      }
+    }
+  }
+
+  private static boolean isMd(Node node, String localName) {
+    return node instanceof Element
+        && MD_NS.equals(node.getNamespaceURI())
+        && localName.equals(node.getLocalName());
+  }
+
+  @Nullable
+  private static Element firstChild(Element parent, String localName) {
+    for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+      if (isMd(n, localName)) {
+        return (Element) n;
+      }
+    }
+    return null;
+  }
+
+  private static List<Node> asList(NodeList nodes) {
+    ImmutableList.Builder<Node> list = ImmutableList.builder();
+    for (int i = 0; i < nodes.getLength(); i++) {
+      list.add(nodes.item(i));
+    }
+    return list.build();
+  }
+}
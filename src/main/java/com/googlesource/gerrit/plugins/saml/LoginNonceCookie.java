@@ -0,0 +1,173 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.googlesource.gerrit.plugins.saml.SamlWebFilter.SAML_CALLBACK;
+
+import com.google.common.base.CharMatcher;
+import java.time.Duration;
+import java.util.Optional;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.impl.AuthnRequestBuilder;
+import org.pac4j.core.context.J2EContext;
+import org.pac4j.core.context.WebContext;
+import org.pac4j.saml.storage.SAMLMessageStorage;
+import org.pac4j.saml.storage.SAMLMessageStorageFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binds a session-less login to the browser that started it.
+ *
+ * <p>When a login is redirected to the identity provider, a random nonce is put both in the signed
+ * RelayState and in this cookie, followed by the ID of the AuthnRequest once pac4j stored it. The
+ * SAML response is only accepted from a browser presenting the nonce of its RelayState, and pac4j
+ * only finds the AuthnRequest the response answers in the cookie. A response captured in, or
+ * obtained by an attacker for, another browser is therefore rejected.
+ *
+ * <p>The cookie is restricted to the callback path. As the response is posted from the site of the
+ * identity provider, the cookie is {@code SameSite=None}, and thus {@code Secure}: session-less
+ * logins need Gerrit to be served over HTTPS.
+ */
+class LoginNonceCookie {
+  private static final Logger log = LoggerFactory.getLogger(LoginNonceCookie.class);
+
+  static final String NAME = "GerritSamlLogin";
+
+  private static final char SEPARATOR = '.';
+  private static final String NONCE_ATTRIBUTE = LoginNonceCookie.class.getName() + ".nonce";
+  private static final CharMatcher COOKIE_SAFE =
+      CharMatcher.inRange('a', 'z')
+          .or(CharMatcher.inRange('A', 'Z'))
+          .or(CharMatcher.inRange('0', '9'))
+          .or(CharMatcher.anyOf("-_"));
+
+  private LoginNonceCookie() {}
+
+  /** Gives the nonce of a login that is redirected to the identity provider to the browser. */
+  static void set(
+      HttpServletRequest request, HttpServletResponse response, String nonce, Duration maxAge) {
+    request.setAttribute(NONCE_ATTRIBUTE, nonce);
+    write(request, response, nonce, maxAge.getSeconds());
+  }
+
+  /** Removes the cookie once the login it was set for completed. */
+  static void clear(HttpServletRequest request, HttpServletResponse response) {
+    write(request, response, "", 0);
+  }
+
+  /** The nonce presented by the browser. */
+  static Optional<String> nonce(HttpServletRequest request) {
+    return value(request)
+        .map(v -> v.indexOf(SEPARATOR) >= 0 ? v.substring(0, v.indexOf(SEPARATOR)) : v);
+  }
+
+  /** The ID of the AuthnRequest of the login started by the browser, if pac4j stored one. */
+  static Optional<String> requestId(HttpServletRequest request) {
+    return value(request)
+        .filter(v -> v.indexOf(SEPARATOR) >= 0)
+        .map(v -> v.substring(v.indexOf(SEPARATOR) + 1));
+  }
+
+  private static Optional<String> value(HttpServletRequest request) {
+    Cookie[] cookies = request.getCookies();
+    if (cookies != null) {
+      for (Cookie cookie : cookies) {
+        if (NAME.equals(cookie.getName()) && !cookie.getValue().isEmpty()) {
+          return Optional.of(cookie.getValue());
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static void write(
+      HttpServletRequest request, HttpServletResponse response, String value, long maxAgeSeconds) {
+    // Written by hand, as the servlet API cannot set SameSite.
+    response.addHeader(
+        "Set-Cookie",
+        NAME
+            + "="
+            + value
+            + "; Path="
+            + request.getContextPath()
+            + "/"
+            + SAML_CALLBACK
+            + "; Max-Age="
+            + maxAgeSeconds
+            + "; Secure; HttpOnly; SameSite=None");
+  }
+
+  /**
+   * Keeps the AuthnRequests pac4j sends, and looks them up when their response comes back, in the
+   * cookie instead of the HTTP session.
+   */
+  static class MessageStorageFactory implements SAMLMessageStorageFactory {
+    private final Duration maxAge;
+
+    MessageStorageFactory(Duration maxAge) {
+      this.maxAge = maxAge;
+    }
+
+    @Override
+    public SAMLMessageStorage getMessageStorage(WebContext context) {
+      J2EContext j2eContext = (J2EContext) context;
+      return new MessageStorage(j2eContext.getRequest(), j2eContext.getResponse(), maxAge);
+    }
+  }
+
+  private static class MessageStorage implements SAMLMessageStorage {
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+    private final Duration maxAge;
+
+    MessageStorage(HttpServletRequest request, HttpServletResponse response, Duration maxAge) {
+      this.request = request;
+      this.response = response;
+      this.maxAge = maxAge;
+    }
+
+    @Override
+    public void storeMessage(String messageId, XMLObject message) {
+      String nonce = (String) request.getAttribute(NONCE_ATTRIBUTE);
+      if (nonce == null) {
+        return;
+      }
+      if (!COOKIE_SAFE.matchesAllOf(messageId)) {
+        log.warn("Cannot keep AuthnRequest {} in a cookie", messageId);
+        return;
+      }
+      write(request, response, nonce + SEPARATOR + messageId, maxAge.getSeconds());
+    }
+
+    /**
+     * Only the ID of the AuthnRequest is kept, which is all that pac4j checks the response
+     * against.
+     */
+    @Override
+    public XMLObject retrieveMessage(String messageId) {
+      if (!requestId(request).filter(messageId::equals).isPresent()) {
+        return null;
+      }
+      AuthnRequest authnRequest = new AuthnRequestBuilder().buildObject();
+      authnRequest.setID(messageId);
+      return authnRequest;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.saml.pgm.LibModuleDataDirUtil;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fingerprint of the group claims last synchronised for each account.
+ *
+ * <p>When the identity provider sends the same {@code memberOfAttr} values as on the previous
+ * login, {@link SamlMembership} skips the synchronisation. A fingerprint older than {@code
+ * saml.membershipFingerprintMaxAge} is ignored, so that memberships are fully reconciled from time
+ * to time.
+ *
+ * <p>The fingerprints are kept in {@code $site/data/saml/membership-fingerprints}, written in the
+ * background when they changed and on shutdown, so they survive restarts.
+ */
+@Singleton
+class MembershipFingerprintStore implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(MembershipFingerprintStore.class);
+  private static final String FILE_NAME = "membership-fingerprints";
+  private static final long FLUSH_INTERVAL_SECONDS = 30;
+
+  private static class Entry {
+    final long fingerprint;
+    final long syncedAtMillis;
+
+    Entry(long fingerprint, long syncedAtMillis) {
+      this.fingerprint = fingerprint;
+      this.syncedAtMillis = syncedAtMillis;
+    }
+  }
+
+  private final Path file;
+  private final long maxAgeMillis;
+  private final WorkQueue workQueue;
+  private final Map<Account.Id, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicBoolean dirty = new AtomicBoolean();
+  private ScheduledFuture<?> flushTask;
+
+  @Inject
+  MembershipFingerprintStore(
+      SamlConfig samlConfig, @LibModuleData Path libModuleDataDir, WorkQueue workQueue) {
+    this.file = libModuleDataDir.resolve(FILE_NAME);
+    this.maxAgeMillis = samlConfig.getMembershipFingerprintMaxAge().toMillis();
+    this.workQueue = workQueue;
+  }
+
+  boolean isEnabled() {
+    return maxAgeMillis > 0;
+  }
+
+  /**
+   * Computes the fingerprint of group claims, independent of their order and of duplicates.
+   *
+   * @param claims values of the {@code memberOfAttr} attribute
+   * @return fingerprint of the claims
+   */
+  static long fingerprint(Collection<String> claims) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    for (String claim : new TreeSet<>(claims)) {
+      hasher.putString(claim, UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash().asLong();
+  }
+
+  boolean isUnchanged(Account.Id accountId, long fingerprint) {
+    if (!isEnabled()) {
+      return false;
+    }
+    Entry entry = entries.get(accountId);
+    return entry != null
+        && entry.fingerprint == fingerprint
+        && System.currentTimeMillis() - entry.syncedAtMillis < maxAgeMillis;
+  }
+
+  void record(Account.Id accountId, long fingerprint) {
+    if (isEnabled()) {
+      entries.put(accountId, new Entry(fingerprint, System.currentTimeMillis()));
+      dirty.set(true);
+    }
+  }
+
+  @Override
+  public void start() {
+    if (!isEnabled()) {
+      return;
+    }
+    load();
+    flushTask =
+        workQueue
+            .getDefaultQueue()
+            .scheduleAtFixedRate(
+                this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (flushTask != null) {
+      flushTask.cancel(false);
+      flushTask = null;
+    }
+    flush();
+  }
+
+  private void load() {
+    if (!Files.exists(file)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    try {
+      for (String line : Files.readAllLines(file, UTF_8)) {
+        String[] fields = line.split(" ");
+        if (fields.length != 3) {
+          continue;
+        }
+        long syncedAtMillis = Long.parseLong(fields[2]);
+        if (now - syncedAtMillis < maxAgeMillis) {
+          entries.put(
+              Account.id(Integer.parseInt(fields[0])),
+              new Entry(Long.parseUnsignedLong(fields[1], 16), syncedAtMillis));
+        }
+      }
+      log.info("Loaded {} SAML membership fingerprints", entries.size());
+    } catch (IOException | NumberFormatException e) {
+      log.warn("Ignoring unreadable SAML membership fingerprints in {}", file, e);
+      entries.clear();
+    }
+  }
+
+  private void flush() {
+    if (!dirty.getAndSet(false)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    entries.values().removeIf(entry -> now - entry.syncedAtMillis >= maxAgeMillis);
+    StringBuilder content = new StringBuilder();
+    entries.forEach(
+        (accountId, entry) ->
+            content
+                .append(accountId.get())
+                .append(' ')
+                .append(Long.toHexString(entry.fingerprint))
+                .append(' ')
+                .append(entry.syncedAtMillis)
+                .append('\n'));
+    try {
+      LibModuleDataDirUtil.writeAtomically(file, content.toString().getBytes(UTF_8));
+    } catch (IOException e) {
+      dirty.set(true);
+      log.warn("Cannot write SAML membership fingerprints to {}", file, e);
+    }
+  }
+}
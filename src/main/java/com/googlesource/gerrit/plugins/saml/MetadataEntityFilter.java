@@ -0,0 +1,185 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Extracts selected {@code EntityDescriptor}s from SAML metadata, typically a federation aggregate,
+ * without building a DOM of the whole document.
+ *
+ * <p>The metadata is read with StAX and only the selected entities are kept in memory. A single
+ * entity is returned as an {@code EntityDescriptor} document, several are wrapped in an {@code
+ * EntitiesDescriptor}. The namespaces in scope of a selected entity are declared on it, so that
+ * prefixes used in attribute values, e.g. {@code xsi:type}, still resolve.
+ *
+ * <p>Signatures of the aggregate do not survive filtering and have to be verified beforehand.
+ */
+class MetadataEntityFilter {
+  static final String MD_NS = "urn:oasis:names:tc:SAML:2.0:metadata";
+
+  private static final QName ENTITY_DESCRIPTOR = new QName(MD_NS, "EntityDescriptor");
+  private static final QName ENTITIES_DESCRIPTOR = new QName(MD_NS, "EntitiesDescriptor");
+  private static final QName ENTITY_ID = new QName("entityID");
+
+  private final ImmutableSet<String> entityIds;
+  private final XMLInputFactory inputFactory;
+  private final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+  private final XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+
+  MetadataEntityFilter(Iterable<String> entityIds) {
+    this.entityIds = ImmutableSet.copyOf(entityIds);
+    this.inputFactory = XMLInputFactory.newFactory();
+    inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+  }
+
+  /**
+   * Extracts the selected entities.
+   *
+   * @param metadata SAML metadata
+   * @return metadata holding only the selected entities
+   * @throws IOException when the metadata cannot be parsed or holds none of the selected entities
+   */
+  byte[] filter(InputStream metadata) throws IOException {
+    List<byte[]> entities = new ArrayList<>();
+    Deque<Map<String, String>> scopes = new ArrayDeque<>();
+    try {
+      XMLEventReader reader = inputFactory.createXMLEventReader(metadata);
+      boolean root = true;
+      while (reader.hasNext()) {
+        XMLEvent event = reader.nextEvent();
+        if (event.isStartElement()) {
+          StartElement start = event.asStartElement();
+          if (root) {
+            checkRoot(start);
+            root = false;
+          }
+          if (ENTITY_DESCRIPTOR.equals(start.getName()) && isSelected(start)) {
+            entities.add(copyEntity(reader, start, scopes));
+            continue;
+          }
+          scopes.push(declaredNamespaces(start));
+        } else if (event.isEndElement()) {
+          scopes.pop();
+        }
+      }
+      reader.close();
+    } catch (XMLStreamException e) {
+      throw new IOException("Cannot parse IdP metadata", e);
+    }
+
+    if (entities.isEmpty()) {
+      throw new IOException("IdP metadata contains none of the entities " + entityIds);
+    }
+    if (entities.size() == 1) {
+      return entities.get(0);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(("<md:EntitiesDescriptor xmlns:md=\"" + MD_NS + "\">").getBytes(UTF_8));
+    for (byte[] entity : entities) {
+      out.write(entity);
+    }
+    out.write("</md:EntitiesDescriptor>".getBytes(UTF_8));
+    return out.toByteArray();
+  }
+
+  private boolean isSelected(StartElement start) {
+    Attribute entityId = start.getAttributeByName(ENTITY_ID);
+    return entityId != null && entityIds.contains(entityId.getValue());
+  }
+
+  private static void checkRoot(StartElement start) throws IOException {
+    if (!ENTITY_DESCRIPTOR.equals(start.getName())
+        && !ENTITIES_DESCRIPTOR.equals(start.getName())) {
+      throw new IOException("Not SAML metadata: root element is " + start.getName());
+    }
+  }
+
+  private byte[] copyEntity(
+      XMLEventReader reader, StartElement start, Deque<Map<String, String>> scopes)
+      throws XMLStreamException {
+    Map<String, String> inScope = new HashMap<>();
+    Iterator<Map<String, String>> outerFirst = scopes.descendingIterator();
+    while (outerFirst.hasNext()) {
+      inScope.putAll(outerFirst.next());
+    }
+    inScope.putAll(declaredNamespaces(start));
+    List<Namespace> namespaces = new ArrayList<>();
+    inScope.forEach(
+        (prefix, uri) ->
+            namespaces.add(
+                prefix.isEmpty()
+                    ? eventFactory.createNamespace(uri)
+                    : eventFactory.createNamespace(prefix, uri)));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XMLEventWriter writer = outputFactory.createXMLEventWriter(out, UTF_8.name());
+    QName name = start.getName();
+    writer.add(
+        eventFactory.createStartElement(
+            name.getPrefix(),
+            name.getNamespaceURI(),
+            name.getLocalPart(),
+            start.getAttributes(),
+            namespaces.iterator()));
+    int depth = 1;
+    while (depth > 0) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartElement()) {
+        depth++;
+      } else if (event.isEndElement()) {
+        depth--;
+      }
+      writer.add(event);
+    }
+    writer.close();
+    return out.toByteArray();
+  }
+
+  private static Map<String, String> declaredNamespaces(StartElement start) {
+    Map<String, String> declared = new HashMap<>();
+    Iterator<Namespace> namespaces = start.getNamespaces();
+    while (namespaces.hasNext()) {
+      Namespace ns = namespaces.next();
+      declared.put(ns.getPrefix(), ns.getNamespaceURI());
+    }
+    return declared;
+  }
+}
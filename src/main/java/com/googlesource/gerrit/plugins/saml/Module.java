@@ -15,9 +15,15 @@
 package com.googlesource.gerrit.plugins.saml;
 
 import com.google.common.collect.Sets;
+import com.google.gerrit.extensions.events.AccountIndexedListener;
+import com.google.gerrit.extensions.events.GroupIndexedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.server.account.GroupBackend;
+import com.google.gerrit.server.cache.CacheRemovalListener;
 import com.google.gerrit.server.config.AuthConfig;
+import com.google.gerrit.server.config.GerritConfigListener;
 import com.google.gerrit.server.config.SitePath;
-import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.ProvisionException;
 import com.google.inject.Singleton;
@@ -27,11 +33,29 @@ import java.util.HashSet;
 import java.util.Set;
 import org.pac4j.saml.client.SAML2Client;
 
-public class Module extends AbstractModule {
+public class Module extends LifecycleModule {
   @Override
   protected void configure() {
     bind(SamlConfig.class);
-    bind(SAML2Client.class).toProvider(SamlClientProvider.class);
+    DynamicSet.bind(binder(), GerritConfigListener.class).to(SamlConfigHolder.class);
+    bind(SAML2Client.class).toProvider(SamlClientHolder.class);
+
+    install(DisplayNameCache.module());
+    install(AccountIdCache.module());
+    DynamicSet.bind(binder(), AccountIndexedListener.class).to(DisplayNameCache.class);
+    DynamicSet.bind(binder(), AccountIndexedListener.class).to(AccountIdCache.class);
+    DynamicSet.bind(binder(), CacheRemovalListener.class).to(AccountIdCache.class);
+    listener().to(AccountNameUpdater.class);
+    listener().to(MembershipFingerprintStore.class);
+    DynamicSet.bind(binder(), GroupIndexedListener.class).to(SamlGroupIndex.class);
+    listener().to(SamlGroupIndex.class);
+    listener().to(SamlMembership.class);
+    listener().to(VirtualMembershipStore.class);
+    listener().to(IdpMetadataManager.class);
+    listener().to(SamlClientWarmup.class);
+    listener().to(SamlClientHolder.class);
+    listener().to(SamlClientPool.class);
+    DynamicSet.bind(binder(), GroupBackend.class).to(SamlGroupBackend.class);
   }
 
   @Provides
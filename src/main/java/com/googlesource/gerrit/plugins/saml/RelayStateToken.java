@@ -0,0 +1,132 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gerrit.common.Nullable;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signed and expiring SAML RelayState, used instead of server-side session state in session-less
+ * login mode.
+ *
+ * <p>A token has the form {@code <expiry>.<nonce>.<redirect uri>.<mac>}, where the expiry is in
+ * epoch seconds, the redirect uri is base64url encoded and the mac is a truncated HMAC-SHA256 over
+ * everything before it. The nonce is also given to the browser in {@link LoginNonceCookie}, and a
+ * token is only accepted along with the same nonce.
+ */
+class RelayStateToken {
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int MAC_LENGTH = 16;
+  private static final int NONCE_LENGTH = 8;
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+  private final SecretKeySpec key;
+  private final Duration maxAge;
+  private final Clock clock;
+  private final SecureRandom random = new SecureRandom();
+
+  RelayStateToken(byte[] secret, Duration maxAge, Clock clock) {
+    this.key = new SecretKeySpec(secret, ALGORITHM);
+    this.maxAge = maxAge;
+    this.clock = clock;
+  }
+
+  static byte[] randomSecret() {
+    byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    return secret;
+  }
+
+  /** A new random nonce, base64url encoded. */
+  String newNonce() {
+    byte[] nonce = new byte[NONCE_LENGTH];
+    random.nextBytes(nonce);
+    return ENCODER.encodeToString(nonce);
+  }
+
+  Duration getMaxAge() {
+    return maxAge;
+  }
+
+  String sign(String nonce, String redirectUri) {
+    String payload =
+        (clock.instant().getEpochSecond() + maxAge.getSeconds())
+            + "."
+            + nonce
+            + "."
+            + ENCODER.encodeToString(redirectUri.getBytes(UTF_8));
+    return payload + "." + ENCODER.encodeToString(mac(payload));
+  }
+
+  /**
+   * Verifies a token issued by {@link #sign(String, String)}.
+   *
+   * @param token RelayState as posted back by the identity provider, may be {@code null}
+   * @param nonce nonce presented by the browser, may be {@code null}
+   * @return the redirect uri, or empty when the token is malformed, forged or expired, or was
+   *     issued with another nonce
+   */
+  Optional<String> verify(@Nullable String token, @Nullable String nonce) {
+    if (token == null || nonce == null) {
+      return Optional.empty();
+    }
+    int macStart = token.lastIndexOf('.');
+    int uriStart = token.lastIndexOf('.', macStart - 1);
+    int nonceStart = token.indexOf('.');
+    if (macStart < 0 || uriStart < 0 || nonceStart >= uriStart) {
+      return Optional.empty();
+    }
+    String payload = token.substring(0, macStart);
+    try {
+      if (!MessageDigest.isEqual(mac(payload), DECODER.decode(token.substring(macStart + 1)))) {
+        return Optional.empty();
+      }
+      long expiry = Long.parseLong(token.substring(0, nonceStart));
+      if (clock.instant().getEpochSecond() > expiry) {
+        return Optional.empty();
+      }
+      byte[] expectedNonce = token.substring(nonceStart + 1, uriStart).getBytes(UTF_8);
+      if (!MessageDigest.isEqual(expectedNonce, nonce.getBytes(UTF_8))) {
+        return Optional.empty();
+      }
+      byte[] redirectUri = DECODER.decode(token.substring(uriStart + 1, macStart));
+      return Optional.of(new String(redirectUri, UTF_8));
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  private byte[] mac(String payload) {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      return Arrays.copyOf(mac.doFinal(payload.getBytes(UTF_8)), MAC_LENGTH);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Cannot compute RelayState signature", e);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import java.util.UUID;
+import org.pac4j.core.context.J2EContext;
+import org.pac4j.core.context.session.SessionStore;
+
+/**
+ * pac4j session store that keeps its attributes in the servlet request.
+ *
+ * <p>Used in session-less login mode, so that redirecting to the identity provider and processing
+ * its response never create an {@link javax.servlet.http.HttpSession}. Anything stored here is gone
+ * once the request completes.
+ */
+class RequestSessionStore implements SessionStore<J2EContext> {
+  static final RequestSessionStore INSTANCE = new RequestSessionStore();
+
+  private static final String PREFIX = "Gerrit-Saml-Request-";
+  private static final String SESSION_ID = PREFIX + "SessionId";
+
+  private RequestSessionStore() {}
+
+  @Override
+  public String getOrCreateSessionId(J2EContext context) {
+    Object id = context.getRequest().getAttribute(SESSION_ID);
+    if (id == null) {
+      id = UUID.randomUUID().toString();
+      context.getRequest().setAttribute(SESSION_ID, id);
+    }
+    return id.toString();
+  }
+
+  @Override
+  public Object get(J2EContext context, String key) {
+    return context.getRequest().getAttribute(PREFIX + key);
+  }
+
+  @Override
+  public void set(J2EContext context, String key, Object value) {
+    if (value == null) {
+      context.getRequest().removeAttribute(PREFIX + key);
+    } else {
+      context.getRequest().setAttribute(PREFIX + key, value);
+    }
+  }
+
+  @Override
+  public boolean destroySession(J2EContext context) {
+    return false;
+  }
+
+  @Override
+  public Object getTrackableSession(J2EContext context) {
+    return null;
+  }
+
+  @Override
+  public SessionStore<J2EContext> buildFromTrackableSession(
+      J2EContext context, Object trackableSession) {
+    return null;
+  }
+
+  @Override
+  public boolean renewSession(J2EContext context) {
+    return false;
+  }
+}
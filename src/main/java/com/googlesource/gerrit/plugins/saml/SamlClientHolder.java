@@ -0,0 +1,263 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.pac4j.saml.client.SAML2Client;
+import org.pac4j.saml.crypto.CredentialProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the {@link SAML2Client} in use, and replaces it when the keystore or the IdP metadata
+ * change, without reloading the plugin.
+ *
+ * <p>The keystore and local IdP metadata files are watched, and remote metadata is followed
+ * through {@link IdpMetadataManager}. On a change, a new client is built and initialized in the
+ * background, and only swapped in when its keystore passes the same check as on start-up.
+ * Otherwise the current client is kept.
+ *
+ * <p>When the key pair of the service provider changed, the replaced client is kept for {@code
+ * saml.clientReloadGracePeriod}, so that responses encrypted for the previous key still complete.
+ * It is not kept when only the IdP metadata changed, as the IdP keys it trusts may have been
+ * revoked.
+ */
+@Singleton
+class SamlClientHolder implements Provider<SAML2Client>, LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(SamlClientHolder.class);
+  private static final long DEBOUNCE_MILLIS = 2000;
+
+  private static class Retired {
+    final SAML2Client client;
+    final long untilMillis;
+
+    Retired(SAML2Client client, long untilMillis) {
+      this.client = client;
+      this.untilMillis = untilMillis;
+    }
+  }
+
+  private final SamlClientProvider clientProvider;
+  private final SamlConfig samlConfig;
+  private final IdpMetadataManager idpMetadataManager;
+  private final WorkQueue workQueue;
+  private final long gracePeriodMillis;
+  private final AtomicReference<SAML2Client> current = new AtomicReference<>();
+  private final AtomicBoolean reloadPending = new AtomicBoolean();
+  private volatile Retired retired;
+  private WatchService watchService;
+  private Thread watcher;
+
+  @Inject
+  SamlClientHolder(
+      SamlClientProvider clientProvider,
+      SamlConfig samlConfig,
+      IdpMetadataManager idpMetadataManager,
+      WorkQueue workQueue) {
+    this.clientProvider = clientProvider;
+    this.samlConfig = samlConfig;
+    this.idpMetadataManager = idpMetadataManager;
+    this.workQueue = workQueue;
+    this.gracePeriodMillis = samlConfig.getClientReloadGracePeriod().toMillis();
+  }
+
+  /** The client new logins are started with. */
+  @Override
+  public SAML2Client get() {
+    SAML2Client client = current.get();
+    if (client == null) {
+      synchronized (this) {
+        client = current.get();
+        if (client == null) {
+          client = clientProvider.get();
+          current.set(client);
+        }
+      }
+    }
+    return client;
+  }
+
+  /**
+   * The client that was replaced last, as long as responses to its AuthnRequests are still
+   * accepted.
+   */
+  Optional<SAML2Client> getRetired() {
+    Retired r = retired;
+    if (r == null) {
+      return Optional.empty();
+    }
+    if (System.currentTimeMillis() > r.untilMillis) {
+      retired = null;
+      return Optional.empty();
+    }
+    return Optional.of(r.client);
+  }
+
+  /**
+   * Builds a new client and swaps it in when it initializes and its keystore can sign.
+   *
+   * @return true when the client was replaced
+   */
+  synchronized boolean reload() {
+    SAML2Client candidate;
+    try {
+      candidate = clientProvider.get();
+      SamlClientWarmup.check(candidate);
+    } catch (RuntimeException | GeneralSecurityException e) {
+      log.error("Cannot reload the SAML client, keeping the current one", e);
+      return false;
+    }
+    SAML2Client previous = current.getAndSet(candidate);
+    if (previous != null && gracePeriodMillis > 0 && !hasSameKeyPair(previous, candidate)) {
+      retired = new Retired(previous, System.currentTimeMillis() + gracePeriodMillis);
+    } else {
+      retired = null;
+    }
+    log.info(
+        "Reloaded the SAML client for identity provider {}",
+        candidate.getIdentityProviderResolvedEntityId());
+    return true;
+  }
+
+  /**
+   * Whether the service provider key pair of a client is the one of an initialized candidate. A
+   * client that was never initialized did not issue any AuthnRequest, and has nothing to keep.
+   */
+  private static boolean hasSameKeyPair(SAML2Client client, SAML2Client candidate) {
+    CredentialProvider credentials = client.getCredentialProvider();
+    if (credentials == null) {
+      return true;
+    }
+    return Arrays.equals(
+        credentials.getCredential().getPublicKey().getEncoded(),
+        candidate.getCredentialProvider().getCredential().getPublicKey().getEncoded());
+  }
+
+  private void reloadInBackground() {
+    if (reloadPending.compareAndSet(false, true)) {
+      @SuppressWarnings("unused")
+      Future<?> possiblyIgnoredError =
+          workQueue
+              .getDefaultQueue()
+              .schedule(
+                  () -> {
+                    reloadPending.set(false);
+                    reload();
+                  },
+                  DEBOUNCE_MILLIS,
+                  TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void start() {
+    idpMetadataManager.addListener(this::reloadInBackground);
+
+    Set<Path> watched = new HashSet<>();
+    watched.add(Paths.get(samlConfig.getKeystorePath()).toAbsolutePath());
+    if (!idpMetadataManager.isRemote()) {
+      idpMetadataManager.localSource().ifPresent(p -> watched.add(p.toAbsolutePath()));
+    }
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+      for (Path dir : directoriesOf(watched)) {
+        dir.register(
+            watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+      }
+    } catch (IOException e) {
+      log.warn("Cannot watch {}, the SAML client is not reloaded on changes", watched, e);
+      closeWatchService();
+      return;
+    }
+    WatchService service = watchService;
+    watcher = new Thread(() -> watch(service, watched), "SAML client file watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  @Override
+  public void stop() {
+    closeWatchService();
+    if (watcher != null) {
+      watcher.interrupt();
+      watcher = null;
+    }
+  }
+
+  private void watch(WatchService service, Set<Path> watched) {
+    try {
+      while (true) {
+        WatchKey key = service.take();
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          Object context = event.context();
+          if (context instanceof Path && watched.contains(dir.resolve((Path) context))) {
+            log.info("{} changed, reloading the SAML client", dir.resolve((Path) context));
+            reloadInBackground();
+          }
+        }
+        key.reset();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Stopped.
+    }
+  }
+
+  private static Set<Path> directoriesOf(Set<Path> files) {
+    Set<Path> dirs = new HashSet<>();
+    for (Path file : files) {
+      Path dir = file.getParent();
+      if (dir != null) {
+        dirs.add(dir);
+      }
+    }
+    return dirs;
+  }
+
+  private void closeWatchService() {
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        log.warn("Cannot close the SAML client file watcher", e);
+      }
+      watchService = null;
+    }
+  }
+}
@@ -0,0 +1,396 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.googlesource.gerrit.plugins.saml.SamlConfig.DEFAULT_IDENTITY_PROVIDER;
+import static com.googlesource.gerrit.plugins.saml.SamlWebFilter.SAML_CALLBACK;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The identity providers users can log in with, each with its own pre-initialized SAML client.
+ *
+ * <p>The {@code [saml]} section configures the default identity provider, and each {@code [saml
+ * "name"]} subsection an additional one. A login is routed by the {@code idp} parameter, or else
+ * by the domain of the email address in the {@code login_hint} parameter. A SAML response is routed
+ * by its callback path, {@code plugins/saml/callback/<name>}. Everything else goes to the default
+ * identity provider. Routing is a hash lookup, and costs nothing when there is only the default.
+ *
+ * <p>Each additional identity provider has its own metadata files and its own thread to refresh
+ * them and to initialize its client, so that a slow identity provider does not hold up the others.
+ */
+@Singleton
+class SamlClientPool implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(SamlClientPool.class);
+
+  static final String IDP_PARAMETER = "idp";
+  static final String LOGIN_HINT_PARAMETER = "login_hint";
+  private static final String CALLBACK_PATH = "/" + SAML_CALLBACK + "/";
+
+  /**
+   * An identity provider and the clients logging in with it.
+   *
+   * <p>The default identity provider is trusted with every identity. An additional identity
+   * provider is confined to its own: its external IDs are {@code saml/<name>/<NameID>}, its group
+   * claims become the groups {@code saml/<name>/<claim>}, and it may only log in users whose email
+   * address and user name are in one of its email domains.
+   */
+  class IdentityProvider {
+    final String name;
+    final SamlClientHolder clients;
+    /** Prefix of the external IDs and group claims of the identity provider. */
+    final String namespace;
+
+    private final Supplier<SamlConfig> samlConfig;
+    private volatile AttributeMappingPlan attributeMapping;
+    private volatile GroupClaimFilter groupClaimFilter;
+
+    private IdentityProvider(
+        String name, SamlClientHolder clients, Supplier<SamlConfig> samlConfig) {
+      this.name = name;
+      this.clients = clients;
+      this.namespace = isDefault() ? "" : name + "/";
+      this.samlConfig = samlConfig;
+    }
+
+    boolean isDefault() {
+      return DEFAULT_IDENTITY_PROVIDER.equals(name);
+    }
+
+    /** The current settings of the identity provider. */
+    SamlConfig config() {
+      return samlConfig.get();
+    }
+
+    /** How the current settings map SAML attributes to users, compiled when they change. */
+    AttributeMappingPlan attributeMapping() {
+      SamlConfig current = config();
+      AttributeMappingPlan plan = attributeMapping;
+      if (plan == null || plan.samlConfig != current) {
+        plan = AttributeMappingPlan.compile(current, namespace);
+        attributeMapping = plan;
+      }
+      return plan;
+    }
+
+    /** How the current settings filter and rename group claims, compiled when they change. */
+    GroupClaimFilter groupClaimFilter() {
+      SamlConfig current = config();
+      GroupClaimFilter filter = groupClaimFilter;
+      if (filter == null || filter.samlConfig != current) {
+        filter = GroupClaimFilter.compile(current);
+        groupClaimFilter = filter;
+      }
+      return filter;
+    }
+
+    /**
+     * Whether the identity provider may log in a user. The default identity provider may log in
+     * anyone. An additional one may only log in users whose email address and user name both end
+     * with {@code @} and one of its email domains, so that it cannot assert the identity of a user
+     * of another identity provider, or of a local account such as {@code admin}.
+     */
+    boolean mayLogIn(AuthenticatedUser user) {
+      if (isDefault()) {
+        return true;
+      }
+      List<String> domains = config().getEmailDomains();
+      return isInDomains(user.getEmail(), domains) && isInDomains(user.getUsername(), domains);
+    }
+
+    /**
+     * Whether a namespaced group claim, the name of a {@code saml/} group without the prefix,
+     * belongs to this identity provider. Those of the default identity provider are the ones not
+     * in the namespace of any additional identity provider.
+     */
+    boolean ownsGroupClaim(String claim) {
+      if (!isDefault()) {
+        return claim.startsWith(namespace);
+      }
+      for (IdentityProvider idp : byName.values()) {
+        if (claim.startsWith(idp.namespace)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void recordRedirect() {
+      redirects.increment(name);
+    }
+
+    void recordCallback(long startNanos) {
+      callbacks.increment(name);
+      callbackLatency.record(name, System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /** What an additional identity provider needs besides its clients. */
+  private static class Resources {
+    final IdentityProvider identityProvider;
+    final IdpMetadataManager metadata;
+    final ScheduledExecutorService executor;
+
+    Resources(
+        IdentityProvider identityProvider,
+        IdpMetadataManager metadata,
+        ScheduledExecutorService executor) {
+      this.identityProvider = identityProvider;
+      this.metadata = metadata;
+      this.executor = executor;
+    }
+  }
+
+  private final Counter1<String> redirects;
+  private final Counter1<String> callbacks;
+  private final Timer1<String> callbackLatency;
+  private final IdentityProvider defaultIdentityProvider;
+  private final ImmutableMap<String, IdentityProvider> byName;
+  private final ImmutableMap<String, IdentityProvider> byEmailDomain;
+  private final ImmutableMap<String, Resources> resources;
+  private final ScheduledExecutorService defaultExecutor;
+
+  @Inject
+  SamlClientPool(
+      SamlConfigHolder samlConfigs,
+      SamlClientHolder defaultClients,
+      SamlClientProvider defaultClientProvider,
+      @LibModuleData Path libModuleDataDir,
+      WorkQueue workQueue,
+      MetricMaker metricMaker) {
+    Field<String> identityProviderField =
+        Field.ofString("identity_provider", (metadataBuilder, fieldValue) -> {})
+            .description("Name of the identity provider")
+            .build();
+    this.redirects =
+        metricMaker.newCounter(
+            "saml/idp/login_redirects",
+            new Description("Logins redirected to the identity provider")
+                .setRate()
+                .setUnit("logins"),
+            identityProviderField);
+    this.callbacks =
+        metricMaker.newCounter(
+            "saml/idp/callbacks",
+            new Description("SAML responses received from the identity provider")
+                .setRate()
+                .setUnit("responses"),
+            identityProviderField);
+    this.callbackLatency =
+        metricMaker.newTimer(
+            "saml/idp/callback_latency",
+            new Description("Time to validate a SAML response")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            identityProviderField);
+
+    SamlConfig samlConfig = samlConfigs.get();
+    this.defaultIdentityProvider =
+        new IdentityProvider(DEFAULT_IDENTITY_PROVIDER, defaultClients, samlConfigs::get);
+    Map<String, IdentityProvider> domains = new HashMap<>();
+    addEmailDomains(domains, defaultIdentityProvider, samlConfig);
+
+    ImmutableMap.Builder<String, IdentityProvider> names = ImmutableMap.builder();
+    ImmutableMap.Builder<String, Resources> named = ImmutableMap.builder();
+    for (Map.Entry<String, SamlConfig> e : samlConfig.getIdentityProviders().entrySet()) {
+      String name = e.getKey();
+      SamlConfig initial = e.getValue();
+      Supplier<SamlConfig> current =
+          () -> samlConfigs.get().getIdentityProviders().getOrDefault(name, initial);
+      ScheduledExecutorService executor =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("SAML-IdP-" + name + "-%d")
+                  .setDaemon(true)
+                  .build());
+      IdpMetadataManager metadata =
+          IdpMetadataManager.forIdentityProvider(name, initial, libModuleDataDir, executor);
+      SamlClientHolder clients =
+          new SamlClientHolder(
+              defaultClientProvider.forIdentityProvider(name, current, metadata),
+              initial,
+              metadata,
+              workQueue);
+      IdentityProvider idp = new IdentityProvider(name, clients, current);
+      if (initial.getEmailDomains().isEmpty()) {
+        log.error(
+            "Identity provider {} has no emailDomain, it cannot log in any user", idp.name);
+      }
+      names.put(name, idp);
+      named.put(name, new Resources(idp, metadata, executor));
+      addEmailDomains(domains, idp, initial);
+    }
+    this.byName = names.build();
+    this.byEmailDomain = ImmutableMap.copyOf(domains);
+    this.resources = named.build();
+    this.defaultExecutor = workQueue.getDefaultQueue();
+  }
+
+  private static boolean isInDomains(@Nullable String address, List<String> domains) {
+    if (address == null) {
+      return false;
+    }
+    int at = address.lastIndexOf('@');
+    return at > 0 && domains.contains(address.substring(at + 1).toLowerCase(Locale.US));
+  }
+
+  private static void addEmailDomains(
+      Map<String, IdentityProvider> domains, IdentityProvider idp, SamlConfig samlConfig) {
+    for (String domain : samlConfig.getEmailDomains()) {
+      IdentityProvider other = domains.putIfAbsent(domain, idp);
+      if (other != null) {
+        log.warn(
+            "Email domain {} of identity provider {} is already routed to {}",
+            domain,
+            idp.name,
+            other.name);
+      }
+    }
+  }
+
+  @Override
+  public void start() {
+    for (Resources r : resources.values()) {
+      r.metadata.start();
+      r.identityProvider.clients.start();
+      @SuppressWarnings("unused")
+      Future<?> possiblyIgnoredError = r.executor.submit(() -> warmUp(r.identityProvider));
+    }
+  }
+
+  @Override
+  public void stop() {
+    for (Resources r : resources.values()) {
+      r.identityProvider.clients.stop();
+      r.metadata.stop();
+      r.executor.shutdownNow();
+    }
+  }
+
+  private static void warmUp(IdentityProvider idp) {
+    try {
+      SamlClientWarmup.check(idp.clients.get());
+      log.info("SAML client for identity provider {} initialized", idp.name);
+    } catch (RuntimeException | GeneralSecurityException e) {
+      log.error(
+          "Cannot initialize the SAML client for identity provider {}, it will be retried on the"
+              + " first login",
+          idp.name,
+          e);
+    }
+  }
+
+  IdentityProvider defaultIdentityProvider() {
+    return defaultIdentityProvider;
+  }
+
+  /** The identity provider to redirect a login to. */
+  IdentityProvider forLogin(HttpServletRequest request) {
+    if (byName.isEmpty()) {
+      return defaultIdentityProvider;
+    }
+    String name = request.getParameter(IDP_PARAMETER);
+    if (name != null) {
+      IdentityProvider idp = byName.get(name);
+      if (idp != null) {
+        return idp;
+      }
+    }
+    String hint = request.getParameter(LOGIN_HINT_PARAMETER);
+    if (hint != null) {
+      int at = hint.lastIndexOf('@');
+      if (at >= 0) {
+        IdentityProvider idp = byEmailDomain.get(hint.substring(at + 1).toLowerCase(Locale.US));
+        if (idp != null) {
+          return idp;
+        }
+      }
+    }
+    return defaultIdentityProvider;
+  }
+
+  /** The identity provider a SAML response was posted back for. */
+  IdentityProvider forCallback(HttpServletRequest request) {
+    if (byName.isEmpty()) {
+      return defaultIdentityProvider;
+    }
+    String uri = request.getRequestURI();
+    int start = uri != null ? uri.indexOf(CALLBACK_PATH) : -1;
+    if (start >= 0) {
+      IdentityProvider idp = byName.get(uri.substring(start + CALLBACK_PATH.length()));
+      if (idp != null) {
+        return idp;
+      }
+    }
+    return defaultIdentityProvider;
+  }
+
+  /**
+   * Reloads the clients of the identity providers whose protocol settings changed, in the
+   * background: building a client may download metadata, which must not hold up the thread
+   * reloading the configuration. The default identity provider is reloaded on the default work
+   * queue, and each additional one on its own thread.
+   */
+  void onConfigUpdated(SamlConfig previous, SamlConfig updated) {
+    if (!updated.hasSameProtocolSettings(previous)) {
+      reloadInBackground(defaultIdentityProvider, defaultExecutor);
+    }
+    for (IdentityProvider idp : byName.values()) {
+      SamlConfig before = previous.getIdentityProviders().get(idp.name);
+      SamlConfig after = updated.getIdentityProviders().get(idp.name);
+      if (after == null) {
+        log.warn("Identity provider {} is only removed when the plugin is reloaded", idp.name);
+      } else if (before == null || !after.hasSameProtocolSettings(before)) {
+        reloadInBackground(idp, resources.get(idp.name).executor);
+      }
+    }
+    for (String name : updated.getIdentityProviders().keySet()) {
+      if (!byName.containsKey(name)) {
+        log.warn("Identity provider {} is only added when the plugin is reloaded", name);
+      }
+    }
+  }
+
+  private static void reloadInBackground(IdentityProvider idp, ScheduledExecutorService executor) {
+    @SuppressWarnings("unused")
+    Future<?> possiblyIgnoredError = executor.submit(idp.clients::reload);
+  }
+}
@@ -24,6 +24,7 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import java.nio.file.Path;
+import java.util.function.Supplier;
 import org.pac4j.saml.client.SAML2Client;
 import org.pac4j.saml.config.SAML2Configuration;
 import org.slf4j.Logger;
@@ -33,26 +34,58 @@ import org.slf4j.LoggerFactory;
 public class SamlClientProvider implements Provider<SAML2Client> {
   private static final Logger log = LoggerFactory.getLogger(SamlClientProvider.class);
 
-  private final SamlConfig samlConfig;
+  private final Supplier<SamlConfig> samlConfigs;
   private final String canonicalUrl;
   private final Path libModuleDataDir;
+  private final IdpMetadataManager idpMetadataManager;
+  private final String identityProvider;
 
-  @Inject
   public SamlClientProvider(
       @CanonicalWebUrl @Nullable String canonicalUrl,
       SamlConfig samlConfig,
       @LibModuleData Path libModuleDataDir) {
-    this.samlConfig = samlConfig;
+    this(canonicalUrl, () -> samlConfig, libModuleDataDir, null, null);
+  }
+
+  @Inject
+  SamlClientProvider(
+      @CanonicalWebUrl @Nullable String canonicalUrl,
+      SamlConfigHolder samlConfigs,
+      @LibModuleData Path libModuleDataDir,
+      @Nullable IdpMetadataManager idpMetadataManager) {
+    this(canonicalUrl, samlConfigs::get, libModuleDataDir, idpMetadataManager, null);
+  }
+
+  private SamlClientProvider(
+      String canonicalUrl,
+      Supplier<SamlConfig> samlConfigs,
+      Path libModuleDataDir,
+      IdpMetadataManager idpMetadataManager,
+      @Nullable String identityProvider) {
+    this.samlConfigs = samlConfigs;
     this.canonicalUrl = canonicalUrl;
     this.libModuleDataDir = libModuleDataDir;
+    this.idpMetadataManager = idpMetadataManager;
+    this.identityProvider = identityProvider;
+  }
+
+  /**
+   * Provides the clients of a named identity provider. They call back to {@code
+   * plugins/saml/callback/<name>}, and keep their service provider metadata apart.
+   */
+  SamlClientProvider forIdentityProvider(
+      String name, Supplier<SamlConfig> samlConfig, IdpMetadataManager idpMetadataManager) {
+    return new SamlClientProvider(
+        canonicalUrl, samlConfig, libModuleDataDir, idpMetadataManager, name);
   }
 
   @Override
   public SAML2Client get() {
+    SamlConfig samlConfig = samlConfigs.get();
     SAML2Configuration samlClientConfig =
         new SAML2Configuration(
             samlConfig.getKeystorePath(), samlConfig.getKeystorePassword(),
-            samlConfig.getPrivateKeyPassword(), samlConfig.getMetadataPath());
+            samlConfig.getPrivateKeyPassword(), getIdpMetadataPath());
 
     if (!Strings.isNullOrEmpty(samlConfig.getIdentityProviderEntityId())) {
       if (!Strings.isNullOrEmpty(samlConfig.getServiceProviderEntityId())) {
@@ -72,15 +105,30 @@ public class SamlClientProvider implements Provider<SAML2Client> {
     samlClientConfig.setUseNameQualifier(samlConfig.useNameQualifier());
     samlClientConfig.setMaximumAuthenticationLifetime(samlConfig.getMaxAuthLifetimeAttr());
 
+    if (samlConfig.isSessionlessLogin()) {
+      // The AuthnRequest is not kept server side, but in the cookie binding the login to the
+      // browser that started it.
+      samlClientConfig.setSamlMessageStorageFactory(
+          new LoginNonceCookie.MessageStorageFactory(samlConfig.getRelayStateMaxAge()));
+    }
+
     SAML2Client saml2Client = new SAML2Client(samlClientConfig);
 
     checkNotNull(canonicalUrl, "gerrit.canonicalWebUrl must be set in gerrit.config");
-    saml2Client.setCallbackUrl(canonicalUrl + SAML_CALLBACK);
+    saml2Client.setCallbackUrl(
+        canonicalUrl + SAML_CALLBACK + (identityProvider != null ? "/" + identityProvider : ""));
 
     return saml2Client;
   }
 
+  private String getIdpMetadataPath() {
+    return idpMetadataManager != null
+        ? idpMetadataManager.getMetadataPath()
+        : samlConfigs.get().getMetadataPath();
+  }
+
   public Path getSpMetadataPath() {
-    return libModuleDataDir.resolve("sp-metadata.xml");
+    return libModuleDataDir.resolve(
+        identityProvider != null ? "sp-" + identityProvider + "-metadata.xml" : "sp-metadata.xml");
   }
 }
@@ -0,0 +1,128 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.opensaml.security.credential.Credential;
+import org.pac4j.saml.client.SAML2Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Initializes the {@link SAML2Client} in the background when the plugin starts.
+ *
+ * <p>The first initialization bootstraps OpenSAML, loads the keystore, resolves the metadata of
+ * the identity provider and generates the service provider metadata, which takes seconds. Doing it
+ * eagerly spares that to the first users logging in after a restart. The keystore is then checked
+ * by signing and verifying a random message.
+ *
+ * <p>Gerrit does not wait for the warm-up. Its outcome is reported by {@link #isReady()} and the
+ * {@code saml/client_ready} metric.
+ */
+@Singleton
+class SamlClientWarmup implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(SamlClientWarmup.class);
+
+  private final Provider<SAML2Client> saml2Client;
+  private final WorkQueue workQueue;
+  private volatile boolean ready;
+  private Future<?> warmup;
+
+  @Inject
+  SamlClientWarmup(
+      Provider<SAML2Client> saml2Client, WorkQueue workQueue, MetricMaker metricMaker) {
+    this.saml2Client = saml2Client;
+    this.workQueue = workQueue;
+    metricMaker.newCallbackMetric(
+        "saml/client_ready",
+        Boolean.class,
+        new Description("Whether the SAML client is initialized").setGauge(),
+        this::isReady);
+  }
+
+  /** Whether the SAML client was initialized and passed the self-check. */
+  boolean isReady() {
+    return ready;
+  }
+
+  @Override
+  public void start() {
+    warmup = workQueue.getDefaultQueue().submit(this::warmUp);
+  }
+
+  @Override
+  public void stop() {
+    if (warmup != null) {
+      warmup.cancel(true);
+      warmup = null;
+    }
+  }
+
+  private void warmUp() {
+    long start = System.nanoTime();
+    try {
+      SAML2Client client = saml2Client.get();
+      check(client);
+      ready = true;
+      log.info(
+          "SAML client for identity provider {} initialized in {} ms",
+          client.getIdentityProviderResolvedEntityId(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (RuntimeException | GeneralSecurityException e) {
+      log.error("Cannot initialize the SAML client, it will be retried on the first login", e);
+    }
+  }
+
+  /**
+   * Initializes a client, resolving the IdP metadata, and checks that its keystore can sign.
+   *
+   * @throws GeneralSecurityException when the key pair of the keystore does not work
+   */
+  static void check(SAML2Client client) throws GeneralSecurityException {
+    client.init();
+    client.getIdentityProviderResolvedEntityId();
+    checkSignature(client.getCredentialProvider().getCredential());
+  }
+
+  private static void checkSignature(Credential credential) throws GeneralSecurityException {
+    byte[] message = new byte[32];
+    new SecureRandom().nextBytes(message);
+
+    boolean ec = "EC".equals(credential.getPrivateKey().getAlgorithm());
+    String algorithm = ec ? "SHA256withECDSA" : "SHA256withRSA";
+    Signature signer = Signature.getInstance(algorithm);
+    signer.initSign(credential.getPrivateKey());
+    signer.update(message);
+    byte[] signature = signer.sign();
+
+    Signature verifier = Signature.getInstance(algorithm);
+    verifier.initVerify(credential.getPublicKey());
+    verifier.update(message);
+    if (!verifier.verify(signature)) {
+      throw new GeneralSecurityException("Signature of the SAML keystore does not verify");
+    }
+  }
+}
@@ -14,16 +14,55 @@
 
 package com.googlesource.gerrit.plugins.saml;
 
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /** SAML 2.0 related settings from {@code gerrit.config}. */
 @Singleton
 public class SamlConfig {
-  private static final String SAML_SECTION = "saml";
+  private static final Logger log = LoggerFactory.getLogger(SamlConfig.class);
+
+  /** Where the groups sent by the identity provider are kept. */
+  public enum MembershipMode {
+    /** As members of internal {@code saml/} groups in NoteDb. */
+    INTERNAL,
+    /** In memory, served by the group backend of the plugin. */
+    VIRTUAL
+  }
+
+  static final String SAML_SECTION = "saml";
+  public static final String DEFAULT_IDENTITY_PROVIDER = "default";
+
+  /**
+   * Settings of the {@code saml} section, in lower case, that only apply to the default identity
+   * provider, and are not inherited by the named ones. The user name transforms are not inherited
+   * as the user names of a named identity provider must keep their domain.
+   */
+  private static final ImmutableSet<String> NOT_INHERITED =
+      ImmutableSet.of(
+          "identityproviderentityid",
+          "metadatapath",
+          "metadataentityid",
+          "emaildomain",
+          "usernametransform");
+
+  private static final ImmutableList<String> DEFAULT_BYPASS_PATHS =
+      ImmutableList.of("/a/", "/static/", "/config/server/healthcheck~status");
   private final String identityProviderEntityId;
   private final String serviceProviderEntityId;
   private final String metadataPath;
@@ -41,6 +80,45 @@ public class SamlConfig {
   private final boolean forceAuth;
   private final boolean useNameQualifier;
   private final String memberOfAttr;
+  private final ImmutableList<String> bypassPaths;
+  private final boolean bypassGitHttp;
+  private final boolean sessionlessLogin;
+  private final String relayStateSecret;
+  private final Duration relayStateMaxAge;
+  private final boolean asyncNameUpdate;
+  private final int nameUpdateThreads;
+  private final int nameUpdateQueueSize;
+  private final boolean batchMembershipUpdate;
+  private final Duration membershipFingerprintMaxAge;
+  private final boolean asyncMembershipSync;
+  private final int membershipSyncThreads;
+  private final int membershipSyncQueueSize;
+  private final MembershipMode membershipMode;
+  private final Duration virtualMembershipMaxAge;
+  private final Duration metadataRefreshInterval;
+  private final long metadataMaxSize;
+  private final String metadataSigningCertificate;
+  private final ImmutableList<String> metadataEntityIds;
+  private final boolean metadataSnapshot;
+  private final Duration clientReloadGracePeriod;
+  private final ImmutableList<String> emailDomains;
+  private final int replayCacheSize;
+  private final Duration replayCacheMaxAge;
+  private final int maxConcurrentCallbacks;
+  private final Duration callbackQueueTimeout;
+  private final int callbackRate;
+  private final int callbackBurst;
+  private final String clientIpHeader;
+  private final int trustedProxyCount;
+  private final long maxResponseSize;
+  private final ImmutableList<String> userNameTransforms;
+  private final ImmutableList<String> displayNameTransforms;
+  private final ImmutableList<String> emailAddressTransforms;
+  private final ImmutableList<String> groupIncludes;
+  private final ImmutableList<String> groupExcludes;
+  private final ImmutableList<String> groupRenames;
+  private final ImmutableList<String> groupMappings;
+  private final ImmutableMap<String, SamlConfig> identityProviders;
 
   @Inject
   public SamlConfig(@GerritServerConfig Config cfg, SitePaths sitePaths) {
@@ -61,6 +139,88 @@ public class SamlConfig {
     lastNameAttr = getStringWithDefault(cfg, "lastNameAttr", "LastName");
     useNameQualifier = cfg.getBoolean(SAML_SECTION, "useNameQualifier", true);
     memberOfAttr = getString(cfg, "memberOfAttr");
+    String[] bypass = cfg.getStringList(SAML_SECTION, null, "bypassPath");
+    bypassPaths = bypass.length > 0 ? ImmutableList.copyOf(bypass) : DEFAULT_BYPASS_PATHS;
+    bypassGitHttp = cfg.getBoolean(SAML_SECTION, "bypassGitHttp", true);
+    sessionlessLogin = cfg.getBoolean(SAML_SECTION, "sessionlessLogin", false);
+    relayStateSecret = getString(cfg, "relayStateSecret");
+    relayStateMaxAge = getDuration(cfg, "relayStateMaxAge", Duration.ofMinutes(10));
+    asyncNameUpdate = cfg.getBoolean(SAML_SECTION, "asyncNameUpdate", false);
+    nameUpdateThreads = cfg.getInt(SAML_SECTION, "nameUpdateThreads", 1);
+    nameUpdateQueueSize = cfg.getInt(SAML_SECTION, "nameUpdateQueueSize", 1000);
+    batchMembershipUpdate = cfg.getBoolean(SAML_SECTION, "batchMembershipUpdate", false);
+    membershipFingerprintMaxAge = getDuration(cfg, "membershipFingerprintMaxAge", Duration.ZERO);
+    asyncMembershipSync = cfg.getBoolean(SAML_SECTION, "asyncMembershipSync", false);
+    membershipSyncThreads = cfg.getInt(SAML_SECTION, "membershipSyncThreads", 2);
+    membershipSyncQueueSize = cfg.getInt(SAML_SECTION, "membershipSyncQueueSize", 1000);
+    membershipMode = cfg.getEnum(SAML_SECTION, null, "membershipMode", MembershipMode.INTERNAL);
+    virtualMembershipMaxAge = getDuration(cfg, "virtualMembershipMaxAge", Duration.ofDays(30));
+    metadataRefreshInterval = getDuration(cfg, "metadataRefreshInterval", Duration.ofHours(1));
+    metadataMaxSize = cfg.getLong(SAML_SECTION, "metadataMaxSize", 256 * 1024 * 1024);
+    String signingCertificate = getString(cfg, "metadataSigningCertificate");
+    metadataSigningCertificate =
+        signingCertificate != null ? sitePaths.resolve(signingCertificate).toString() : null;
+    String[] additionalEntityIds = cfg.getStringList(SAML_SECTION, null, "metadataEntityId");
+    ImmutableList.Builder<String> entityIds = ImmutableList.builder();
+    if (additionalEntityIds.length > 0) {
+      if (!Strings.isNullOrEmpty(identityProviderEntityId)) {
+        entityIds.add(identityProviderEntityId);
+      }
+      entityIds.add(additionalEntityIds);
+    }
+    metadataEntityIds = entityIds.build();
+    metadataSnapshot = cfg.getBoolean(SAML_SECTION, "metadataSnapshot", false);
+    clientReloadGracePeriod = getDuration(cfg, "clientReloadGracePeriod", Duration.ofMinutes(10));
+    replayCacheSize = cfg.getInt(SAML_SECTION, "replayCacheSize", 100_000);
+    replayCacheMaxAge = getDuration(cfg, "replayCacheMaxAge", Duration.ofMinutes(10));
+    maxConcurrentCallbacks =
+        cfg.getInt(
+            SAML_SECTION, "maxConcurrentCallbacks", 2 * Runtime.getRuntime().availableProcessors());
+    callbackQueueTimeout = getDuration(cfg, "callbackQueueTimeout", Duration.ZERO);
+    callbackRate = cfg.getInt(SAML_SECTION, "callbackRate", 60);
+    callbackBurst = cfg.getInt(SAML_SECTION, "callbackBurst", 10);
+    clientIpHeader = getString(cfg, "clientIpHeader");
+    trustedProxyCount = cfg.getInt(SAML_SECTION, "trustedProxyCount", 1);
+    maxResponseSize = cfg.getLong(SAML_SECTION, "maxResponseSize", 2 * 1024 * 1024);
+    userNameTransforms = getStringList(cfg, "userNameTransform");
+    displayNameTransforms = getStringList(cfg, "displayNameTransform");
+    emailAddressTransforms = getStringList(cfg, "emailAddressTransform");
+    groupIncludes = getStringList(cfg, "groupInclude");
+    groupExcludes = getStringList(cfg, "groupExclude");
+    groupRenames = getStringList(cfg, "groupRename");
+    groupMappings = getStringList(cfg, "groupMapping");
+    emailDomains =
+        Arrays.stream(cfg.getStringList(SAML_SECTION, null, "emailDomain"))
+            .map(d -> d.toLowerCase(Locale.US))
+            .collect(ImmutableList.toImmutableList());
+    ImmutableMap.Builder<String, SamlConfig> idps = ImmutableMap.builder();
+    for (String name : cfg.getSubsections(SAML_SECTION)) {
+      if (DEFAULT_IDENTITY_PROVIDER.equals(name)) {
+        log.warn("Ignoring [saml \"{}\"]: the name is reserved", name);
+        continue;
+      }
+      idps.put(name, new SamlConfig(forIdentityProvider(cfg, name), sitePaths));
+    }
+    identityProviders = idps.build();
+  }
+
+  /**
+   * The settings of a named identity provider: those of its {@code saml} subsection, falling back
+   * to those of the {@code saml} section.
+   */
+  private static Config forIdentityProvider(Config cfg, String name) {
+    Config idp = new Config();
+    for (String key : cfg.getNames(SAML_SECTION)) {
+      if (!NOT_INHERITED.contains(key.toLowerCase(Locale.US))) {
+        idp.setStringList(
+            SAML_SECTION, null, key, Arrays.asList(cfg.getStringList(SAML_SECTION, null, key)));
+      }
+    }
+    for (String key : cfg.getNames(SAML_SECTION, name)) {
+      idp.setStringList(
+          SAML_SECTION, null, key, Arrays.asList(cfg.getStringList(SAML_SECTION, name, key)));
+    }
+    return idp;
   }
 
   public String getMetadataPath() {
@@ -103,6 +263,16 @@ public class SamlConfig {
     return cfg.getString(SAML_SECTION, null, name);
   }
 
+  private static ImmutableList<String> getStringList(Config cfg, String name) {
+    return ImmutableList.copyOf(cfg.getStringList(SAML_SECTION, null, name));
+  }
+
+  private static Duration getDuration(Config cfg, String name, Duration defaultValue) {
+    return Duration.ofMillis(
+        ConfigUtil.getTimeUnit(
+            cfg, SAML_SECTION, null, name, defaultValue.toMillis(), TimeUnit.MILLISECONDS));
+  }
+
   private static String getStringWithDefault(Config cfg, String name, String defaultValue) {
     String result = getString(cfg, name);
     if (result != null) {
@@ -138,4 +308,186 @@ public class SamlConfig {
   public String getMemberOfAttr() {
     return memberOfAttr;
   }
+
+  public ImmutableList<String> getBypassPaths() {
+    return bypassPaths;
+  }
+
+  public boolean isBypassGitHttp() {
+    return bypassGitHttp;
+  }
+
+  public boolean isSessionlessLogin() {
+    return sessionlessLogin;
+  }
+
+  public String getRelayStateSecret() {
+    return relayStateSecret;
+  }
+
+  public Duration getRelayStateMaxAge() {
+    return relayStateMaxAge;
+  }
+
+  public boolean isAsyncNameUpdate() {
+    return asyncNameUpdate;
+  }
+
+  public int getNameUpdateThreads() {
+    return nameUpdateThreads;
+  }
+
+  public int getNameUpdateQueueSize() {
+    return nameUpdateQueueSize;
+  }
+
+  public boolean isBatchMembershipUpdate() {
+    return batchMembershipUpdate;
+  }
+
+  public Duration getMembershipFingerprintMaxAge() {
+    return membershipFingerprintMaxAge;
+  }
+
+  public boolean isAsyncMembershipSync() {
+    return asyncMembershipSync;
+  }
+
+  public int getMembershipSyncThreads() {
+    return membershipSyncThreads;
+  }
+
+  public int getMembershipSyncQueueSize() {
+    return membershipSyncQueueSize;
+  }
+
+  public MembershipMode getMembershipMode() {
+    return membershipMode;
+  }
+
+  public Duration getVirtualMembershipMaxAge() {
+    return virtualMembershipMaxAge;
+  }
+
+  public Duration getMetadataRefreshInterval() {
+    return metadataRefreshInterval;
+  }
+
+  public long getMetadataMaxSize() {
+    return metadataMaxSize;
+  }
+
+  public String getMetadataSigningCertificate() {
+    return metadataSigningCertificate;
+  }
+
+  /**
+   * Entities to extract from the IdP metadata: the {@code saml.metadataEntityId} values and the
+   * identity provider. Empty, and the metadata used as is, unless {@code saml.metadataEntityId} is
+   * set.
+   */
+  public ImmutableList<String> getMetadataEntityIds() {
+    return metadataEntityIds;
+  }
+
+  public boolean isMetadataSnapshot() {
+    return metadataSnapshot;
+  }
+
+  public Duration getClientReloadGracePeriod() {
+    return clientReloadGracePeriod;
+  }
+
+  /** Email domains, in lower case, of the users logging in with this identity provider. */
+  public ImmutableList<String> getEmailDomains() {
+    return emailDomains;
+  }
+
+  /**
+   * The identity providers configured in {@code [saml "name"]} subsections, in addition to the
+   * default one of the {@code [saml]} section.
+   */
+  public ImmutableMap<String, SamlConfig> getIdentityProviders() {
+    return identityProviders;
+  }
+
+  /**
+   * Whether the SAML client built from this configuration would be the same as the one built from
+   * {@code other}.
+   */
+  boolean hasSameProtocolSettings(SamlConfig other) {
+    return Objects.equals(identityProviderEntityId, other.identityProviderEntityId)
+        && Objects.equals(serviceProviderEntityId, other.serviceProviderEntityId)
+        && Objects.equals(keystorePath, other.keystorePath)
+        && Objects.equals(keystorePassword, other.keystorePassword)
+        && Objects.equals(privateKeyPassword, other.privateKeyPassword)
+        && maxAuthLifetimeAttr == other.maxAuthLifetimeAttr
+        && forceAuth == other.forceAuth
+        && useNameQualifier == other.useNameQualifier
+        && sessionlessLogin == other.sessionlessLogin;
+  }
+
+  public int getReplayCacheSize() {
+    return replayCacheSize;
+  }
+
+  public Duration getReplayCacheMaxAge() {
+    return replayCacheMaxAge;
+  }
+
+  public int getMaxConcurrentCallbacks() {
+    return maxConcurrentCallbacks;
+  }
+
+  public Duration getCallbackQueueTimeout() {
+    return callbackQueueTimeout;
+  }
+
+  public int getCallbackRate() {
+    return callbackRate;
+  }
+
+  public int getCallbackBurst() {
+    return callbackBurst;
+  }
+
+  public String getClientIpHeader() {
+    return clientIpHeader;
+  }
+
+  public int getTrustedProxyCount() {
+    return trustedProxyCount;
+  }
+
+  public long getMaxResponseSize() {
+    return maxResponseSize;
+  }
+
+  public ImmutableList<String> getUserNameTransforms() {
+    return userNameTransforms;
+  }
+
+  public ImmutableList<String> getDisplayNameTransforms() {
+    return displayNameTransforms;
+  }
+
+  public ImmutableList<String> getEmailAddressTransforms() {
+    return emailAddressTransforms;
+  }
+
+  public ImmutableList<String> getGroupIncludes() {
+    return groupIncludes;
+  }
+
+  public ImmutableList<String> getGroupExcludes() {
+    return groupExcludes;
+  }
+
+  public ImmutableList<String> getGroupRenames() {
+    return groupRenames;
+  }
+
+  public ImmutableList<String> getGroupMappings() {
+    return groupMappings;
+  }
 }
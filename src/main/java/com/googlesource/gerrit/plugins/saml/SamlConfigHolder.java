@@ -0,0 +1,132 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.googlesource.gerrit.plugins.saml.SamlConfig.SAML_SECTION;
+
+import com.google.common.collect.Multimap;
+import com.google.gerrit.server.config.ConfigKey;
+import com.google.gerrit.server.config.ConfigUpdatedEvent;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.ConfigUpdateEntry;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.UpdateResult;
+import com.google.gerrit.server.config.GerritConfigListener;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the current {@link SamlConfig}.
+ *
+ * <p>When the {@code saml} section of {@code gerrit.config} changes and the configuration is
+ * reloaded, a new {@link SamlConfig} replaces the current one. Attribute mappings and the other
+ * settings read per request then apply to the next login. SAML clients are only rebuilt when
+ * protocol settings of their identity provider changed, in the background, and the current ones
+ * keep serving logins meanwhile.
+ *
+ * <p>A configuration with invalid group rules or attribute transforms is refused: the plugin fails
+ * to load, and a reload is rejected, keeping the current configuration.
+ */
+@Singleton
+class SamlConfigHolder implements GerritConfigListener {
+  private static final Logger log = LoggerFactory.getLogger(SamlConfigHolder.class);
+
+  private final SitePaths sitePaths;
+  private final Provider<SamlClientPool> identityProviders;
+  private final AtomicReference<SamlConfig> current;
+
+  @Inject
+  SamlConfigHolder(
+      SamlConfig samlConfig, SitePaths sitePaths, Provider<SamlClientPool> identityProviders) {
+    this.sitePaths = sitePaths;
+    this.identityProviders = identityProviders;
+    try {
+      check(samlConfig);
+    } catch (IllegalArgumentException e) {
+      throw new ProvisionException("Invalid SAML configuration: " + e.getMessage(), e);
+    }
+    this.current = new AtomicReference<>(samlConfig);
+  }
+
+  /**
+   * Compiles the rules of the configuration, and of each identity provider. An additional identity
+   * provider may not strip the domain of its user names, as it only logs in users whose user name
+   * ends with one of its email domains.
+   *
+   * @throws IllegalArgumentException if one of them is invalid
+   */
+  static void check(SamlConfig samlConfig) {
+    AttributeMappingPlan.compile(samlConfig);
+    GroupClaimFilter.compile(samlConfig);
+    for (Map.Entry<String, SamlConfig> idp : samlConfig.getIdentityProviders().entrySet()) {
+      AttributeMappingPlan.compile(idp.getValue());
+      GroupClaimFilter.compile(idp.getValue());
+      for (String transform : idp.getValue().getUserNameTransforms()) {
+        if (transform.trim().equalsIgnoreCase("stripDomain")) {
+          throw new IllegalArgumentException(
+              String.format(
+                  "Invalid saml.%s.userNameTransform %s: the user names of an additional identity"
+                      + " provider must end with @ and one of its emailDomain",
+                  idp.getKey(), transform));
+        }
+      }
+    }
+  }
+
+  SamlConfig get() {
+    return current.get();
+  }
+
+  @Override
+  public Multimap<UpdateResult, ConfigUpdateEntry> configUpdated(ConfigUpdatedEvent event) {
+    if (!event.isSectionUpdated(SAML_SECTION)) {
+      return ConfigUpdatedEvent.NO_UPDATES;
+    }
+    SamlConfig updated = new SamlConfig(event.getNewConfig(), sitePaths);
+    try {
+      check(updated);
+    } catch (IllegalArgumentException e) {
+      log.error("Keeping the current SAML configuration: {}", e.getMessage());
+      Set<ConfigKey> keys = keys(event.getOldConfig());
+      keys.addAll(keys(event.getNewConfig()));
+      return event.reject(keys);
+    }
+    SamlConfig previous = current.getAndSet(updated);
+    log.info("Reloaded the SAML configuration");
+    identityProviders.get().onConfigUpdated(previous, updated);
+    return event.accept(SAML_SECTION);
+  }
+
+  private static Set<ConfigKey> keys(Config cfg) {
+    Set<ConfigKey> keys = new HashSet<>();
+    for (String name : cfg.getNames(SAML_SECTION)) {
+      keys.add(ConfigKey.create(SAML_SECTION, name));
+    }
+    for (String subsection : cfg.getSubsections(SAML_SECTION)) {
+      for (String name : cfg.getNames(SAML_SECTION, subsection)) {
+        keys.add(ConfigKey.create(SAML_SECTION, subsection, name));
+      }
+    }
+    return keys;
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupDescription;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.account.GroupBackend;
+import com.google.gerrit.server.account.GroupMembership;
+import com.google.gerrit.server.account.ListGroupMembership;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+/**
+ * Group backend serving the groups sent by the identity provider from {@link
+ * VirtualMembershipStore}, used in {@code saml.membershipMode = virtual}.
+ *
+ * <p>A group claim {@code foo} is the group with UUID {@code saml:foo} and name {@code saml/foo}.
+ * Logins never write these groups; a user is a member of exactly the groups sent on their last
+ * login, until these expire.
+ */
+@Singleton
+class SamlGroupBackend implements GroupBackend {
+  static final String UUID_PREFIX = "saml:";
+  private static final int MAX_SUGGESTIONS = 100;
+
+  private final VirtualMembershipStore store;
+
+  @Inject
+  SamlGroupBackend(VirtualMembershipStore store) {
+    this.store = store;
+  }
+
+  static AccountGroup.UUID uuid(String claim) {
+    return AccountGroup.uuid(UUID_PREFIX + claim);
+  }
+
+  static String name(AccountGroup.UUID uuid) {
+    return SamlMembership.GROUP_PREFIX + uuid.get().substring(UUID_PREFIX.length());
+  }
+
+  @Override
+  public boolean handles(AccountGroup.UUID uuid) {
+    return store.isEnabled() && uuid != null && uuid.get().startsWith(UUID_PREFIX);
+  }
+
+  @Override
+  @Nullable
+  public GroupDescription.Basic get(AccountGroup.UUID uuid) {
+    if (!handles(uuid)) {
+      return null;
+    }
+    String name = name(uuid);
+    return new GroupDescription.Basic() {
+      @Override
+      public AccountGroup.UUID getGroupUUID() {
+        return uuid;
+      }
+
+      @Override
+      public String getName() {
+        return name;
+      }
+
+      @Override
+      @Nullable
+      public String getEmailAddress() {
+        return null;
+      }
+
+      @Override
+      @Nullable
+      public String getUrl() {
+        return null;
+      }
+    };
+  }
+
+  @Override
+  public Collection<GroupReference> suggest(String name, @Nullable ProjectState project) {
+    if (!store.isEnabled()) {
+      return Collections.emptyList();
+    }
+    return store
+        .groupsByNamePrefix(name)
+        .limit(MAX_SUGGESTIONS)
+        .map(uuid -> GroupReference.create(uuid, name(uuid)))
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public GroupMembership membershipsOf(CurrentUser user) {
+    if (!store.isEnabled() || !user.isIdentifiedUser()) {
+      return GroupMembership.EMPTY;
+    }
+    return new ListGroupMembership(store.get(user.getAccountId()));
+  }
+
+  @Override
+  public boolean isVisibleToAll(AccountGroup.UUID uuid) {
+    return false;
+  }
+}
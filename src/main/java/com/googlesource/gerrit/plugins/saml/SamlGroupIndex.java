@@ -0,0 +1,135 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.extensions.events.GroupIndexedListener;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.account.GroupCache;
+import com.google.gerrit.server.group.db.Groups;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory map of the UUIDs of all {@code saml/} groups to their names.
+ *
+ * <p>The map is built from the group name notes on startup and kept current when a group is
+ * created by the plugin and whenever a group is reindexed, which also covers renames and deletions
+ * on this server. It allows to find the SAML groups of a user, and the identity provider they
+ * belong to, with a map lookup instead of a group cache lookup per group the user is a member of.
+ */
+@Singleton
+class SamlGroupIndex implements LifecycleListener, GroupIndexedListener {
+  private static final Logger log = LoggerFactory.getLogger(SamlGroupIndex.class);
+
+  private final Groups groups;
+  private final GroupCache groupCache;
+  private final Map<AccountGroup.UUID, String> samlGroups = new ConcurrentHashMap<>();
+  private volatile boolean loaded;
+
+  @Inject
+  SamlGroupIndex(Groups groups, GroupCache groupCache) {
+    this.groups = groups;
+    this.groupCache = groupCache;
+  }
+
+  @Override
+  public void start() {
+    try {
+      groups
+          .getAllGroupReferences()
+          .filter(g -> isSamlGroupName(g.getName()))
+          .forEach(g -> samlGroups.put(g.getUUID(), g.getName()));
+      loaded = true;
+      log.info("Loaded {} SAML groups", samlGroups.size());
+    } catch (IOException | ConfigInvalidException e) {
+      log.error("Cannot load the SAML groups, looking them up in the group cache instead", e);
+    }
+  }
+
+  @Override
+  public void stop() {}
+
+  /**
+   * Updates the map for a reindexed group. The group was just loaded into the group cache by the
+   * indexer, so that looking up its name does not read NoteDb. The map is only written for
+   * {@code saml/} groups, and for groups it holds that were renamed or deleted: reindexing the
+   * other groups leaves it untouched. Nothing is done while the map could not be loaded, as the
+   * group cache is then looked up instead.
+   */
+  @Override
+  public void onGroupIndexed(String uuid) {
+    if (!loaded) {
+      return;
+    }
+    AccountGroup.UUID groupUuid = AccountGroup.uuid(uuid);
+    Optional<String> name =
+        groupCache
+            .get(groupUuid)
+            .map(InternalGroup::getName)
+            .filter(SamlGroupIndex::isSamlGroupName);
+    if (name.isPresent()) {
+      if (!name.get().equals(samlGroups.get(groupUuid))) {
+        samlGroups.put(groupUuid, name.get());
+      }
+    } else if (samlGroups.containsKey(groupUuid)) {
+      samlGroups.remove(groupUuid);
+    }
+  }
+
+  void add(InternalGroup group) {
+    samlGroups.put(group.getGroupUUID(), group.getName());
+  }
+
+  /**
+   * Filters a set of groups down to SAML groups.
+   *
+   * @param groupUuids groups to filter, typically the groups a user is a member of
+   * @param claims which groups to keep, by their name without the {@code saml/} prefix
+   * @return the {@code saml/} groups in {@code groupUuids} whose name is accepted by {@code
+   *     claims}
+   */
+  Set<AccountGroup.UUID> samlGroupsOf(
+      Set<AccountGroup.UUID> groupUuids, Predicate<String> claims) {
+    Predicate<String> names =
+        name ->
+            isSamlGroupName(name)
+                && claims.test(name.substring(SamlMembership.GROUP_PREFIX.length()));
+    if (!loaded) {
+      return groupUuids.stream()
+          .filter(
+              uuid -> groupCache.get(uuid).map(InternalGroup::getName).filter(names).isPresent())
+          .collect(Collectors.toSet());
+    }
+    return groupUuids.stream()
+        .filter(uuid -> Optional.ofNullable(samlGroups.get(uuid)).filter(names).isPresent())
+        .collect(Collectors.toSet());
+  }
+
+  private static boolean isSamlGroupName(String name) {
+    return name != null && name.startsWith(SamlMembership.GROUP_PREFIX);
+  }
+}
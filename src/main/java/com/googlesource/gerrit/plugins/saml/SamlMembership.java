@@ -14,12 +14,19 @@
 
 package com.googlesource.gerrit.plugins.saml;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.exceptions.DuplicateKeyException;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.server.GerritPersonIdent;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.Sequences;
@@ -34,7 +41,9 @@ import com.google.inject.Singleton;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.pac4j.saml.profile.SAML2Profile;
 import org.slf4j.Logger;
@@ -45,11 +54,33 @@ import org.slf4j.LoggerFactory;
  * This class maps the membership attributes in the SAML document onto Internal groups prefixed with
  * the saml group prefix.
  */
-public class SamlMembership {
+public class SamlMembership implements LifecycleListener {
   private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-  private static final String GROUP_PREFIX = "saml/";
+  public static final String GROUP_PREFIX = "saml/";
+  private static final int GROUP_CREATION_STRIPES = 64;
+  private static final long GROUP_NAME_CACHE_SIZE = 10000;
+  private static final long GROUP_NAME_CACHE_TTL_SECONDS = 60;
 
-  private final String memberAttr;
+  private static class PendingSync {
+    final AuthenticatedUser user;
+    final Account.Id accountId;
+    final List<String> claims;
+    final SamlClientPool.IdentityProvider idp;
+
+    PendingSync(
+        AuthenticatedUser user,
+        Account.Id accountId,
+        List<String> claims,
+        SamlClientPool.IdentityProvider idp) {
+      this.user = user;
+      this.accountId = accountId;
+      this.claims = claims;
+      this.idp = idp;
+    }
+  }
+
+  private final SamlConfigHolder samlConfigs;
+  private final Provider<SamlClientPool> identityProviders;
   private final PersonIdent serverIdent;
   private final AccountManager accountManager;
   private final GroupCache groupCache;
@@ -57,18 +88,44 @@ public class SamlMembership {
   private final Provider<GroupsUpdate> groupsUpdateProvider;
   private final Sequences sequences;
   private final AuthRequest.Factory authRequestFactory;
+  private final GroupMembershipBatchUpdate groupMembershipBatchUpdate;
+  private final MembershipFingerprintStore fingerprints;
+  private final SamlGroupIndex samlGroupIndex;
+  private final AccountIdCache accountIdCache;
+  private final VirtualMembershipStore virtualMemberships;
+  private final CoalescingWorkQueue<Account.Id, PendingSync> queue;
+  private final Striped<Lock> groupCreationLocks = Striped.lock(GROUP_CREATION_STRIPES);
+  private final Cache<AccountGroup.NameKey, AccountGroup.UUID> groupUuidByName =
+      CacheBuilder.newBuilder()
+          .maximumSize(GROUP_NAME_CACHE_SIZE)
+          .expireAfterWrite(GROUP_NAME_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+          .build();
+  private final Cache<AccountGroup.NameKey, Boolean> failedGroupNames =
+      CacheBuilder.newBuilder()
+          .maximumSize(GROUP_NAME_CACHE_SIZE)
+          .expireAfterWrite(GROUP_NAME_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+          .build();
 
   @Inject
   SamlMembership(
-      SamlConfig samlConfig,
+      SamlConfigHolder samlConfigs,
+      Provider<SamlClientPool> identityProviders,
       @GerritPersonIdent PersonIdent serverIdent,
       AccountManager accountManager,
       GroupCache groupCache,
       IdentifiedUser.GenericFactory userFactory,
       @ServerInitiated Provider<GroupsUpdate> groupsUpdateProvider,
       Sequences sequences,
-      AuthRequest.Factory authRequestFactory) {
-    this.memberAttr = samlConfig.getMemberOfAttr();
+      AuthRequest.Factory authRequestFactory,
+      GroupMembershipBatchUpdate groupMembershipBatchUpdate,
+      MembershipFingerprintStore fingerprints,
+      SamlGroupIndex samlGroupIndex,
+      AccountIdCache accountIdCache,
+      VirtualMembershipStore virtualMemberships,
+      MetricMaker metricMaker) {
+    this.samlConfigs = samlConfigs;
+    this.identityProviders = identityProviders;
+    SamlConfig samlConfig = samlConfigs.get();
     this.serverIdent = serverIdent;
     this.accountManager = accountManager;
     this.groupCache = groupCache;
@@ -76,32 +133,125 @@ public class SamlMembership {
     this.groupsUpdateProvider = groupsUpdateProvider;
     this.sequences = sequences;
     this.authRequestFactory = authRequestFactory;
+    this.groupMembershipBatchUpdate = groupMembershipBatchUpdate;
+    this.fingerprints = fingerprints;
+    this.samlGroupIndex = samlGroupIndex;
+    this.accountIdCache = accountIdCache;
+    this.virtualMemberships = virtualMemberships;
+    this.queue =
+        samlConfig.isAsyncMembershipSync() && !virtualMemberships.isEnabled()
+            ? new CoalescingWorkQueue<>(
+                "membership_sync",
+                samlConfig.getMembershipSyncThreads(),
+                samlConfig.getMembershipSyncQueueSize(),
+                p -> syncGroups(p.user, p.accountId, p.claims, p.idp),
+                metricMaker)
+            : null;
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    if (queue != null) {
+      queue.stop();
+    }
   }
 
   /**
    * Synchronises the groups of a user with those in LDAP.
    *
    * @param user gerrit user
-   * @param profile SAML profile
+   * @param profile SAML profile of the default identity provider
    */
   public void sync(AuthenticatedUser user, SAML2Profile profile) throws IOException {
-    Set<AccountGroup.UUID> samlMembership =
-        Optional.ofNullable((List<?>) profile.getAttribute(memberAttr, List.class))
-            .orElse(Collections.emptyList()).stream()
-            .map(m -> getOrCreateGroup(m.toString()))
-            .filter(Optional::isPresent)
-            .map(Optional::get)
-            .collect(Collectors.toSet());
-    IdentifiedUser identifiedUser = userFactory.create(getOrCreateAccountId(user));
+    SamlClientPool.IdentityProvider idp = identityProviders.get().defaultIdentityProvider();
+    syncGroups(user, getOrCreateAccountId(user), getClaims(profile, idp), idp);
+  }
+
+  /**
+   * Synchronises the groups of a user on login. When {@code saml.asyncMembershipSync} is set, only
+   * the account is resolved right away, and the groups are synchronised in the background. They are
+   * synchronised right away when the background queue is full.
+   *
+   * @param user gerrit user
+   * @param profile SAML profile
+   * @param idp identity provider the user logged in with
+   */
+  void syncOnLogin(
+      AuthenticatedUser user, SAML2Profile profile, SamlClientPool.IdentityProvider idp)
+      throws IOException {
+    Account.Id accountId = getOrCreateAccountId(user);
+    List<String> claims = getClaims(profile, idp);
+    if (queue != null && queue.offer(accountId, new PendingSync(user, accountId, claims, idp))) {
+      return;
+    }
+    syncGroups(user, accountId, claims, idp);
+  }
+
+  /**
+   * The group claims of a profile, read from the {@code memberOfAttr} of the identity provider,
+   * filtered and renamed by its {@link GroupClaimFilter}, and prefixed with its namespace before
+   * any group is looked up. Claims of the default identity provider in the namespace of another
+   * one are dropped.
+   */
+  private List<String> getClaims(SAML2Profile profile, SamlClientPool.IdentityProvider idp) {
+    List<?> claims = (List<?>) profile.getAttribute(idp.config().getMemberOfAttr(), List.class);
+    if (claims == null) {
+      return Collections.emptyList();
+    }
+    List<String> namespaced = new ArrayList<>();
+    for (String claim : idp.groupClaimFilter().apply(claims)) {
+      if (claim.isEmpty()) {
+        continue;
+      }
+      String name = idp.namespace + claim;
+      if (idp.ownsGroupClaim(name)) {
+        namespaced.add(name);
+      } else {
+        log.debug("Ignoring group claim {} of identity provider {}", claim, idp.name);
+      }
+    }
+    return namespaced;
+  }
+
+  private void syncGroups(
+      AuthenticatedUser user,
+      Account.Id accountId,
+      List<String> claims,
+      SamlClientPool.IdentityProvider idp) {
+    if (virtualMemberships.isEnabled()) {
+      virtualMemberships.put(accountId, claims);
+      return;
+    }
+
+    long fingerprint = MembershipFingerprintStore.fingerprint(claims);
+    if (fingerprints.isUnchanged(accountId, fingerprint)) {
+      log.debug("SAML groups of user {} are unchanged since last sync", user.getUsername());
+      return;
+    }
+
+    // The fingerprint is only recorded when every claim resolved to a group, so that a group that
+    // could not be created is retried on the next login instead of being skipped until then.
+    boolean resolved = true;
+    Set<AccountGroup.UUID> samlMembership = new HashSet<>();
+    for (String claim : claims) {
+      Optional<AccountGroup.NameKey> name = samlGroupToName(claim);
+      if (!name.isPresent()) {
+        continue;
+      }
+      Optional<AccountGroup.UUID> group = getOrCreateGroup(name.get(), claim);
+      if (group.isPresent()) {
+        samlMembership.add(group.get());
+      } else {
+        resolved = false;
+      }
+    }
+    IdentifiedUser identifiedUser = userFactory.create(accountId);
     Set<AccountGroup.UUID> userMembership =
-        identifiedUser.getEffectiveGroups().getKnownGroups().stream()
-            .filter(
-                uuid ->
-                    groupCache
-                        .get(uuid)
-                        .filter(g -> g.getName().startsWith(GROUP_PREFIX))
-                        .isPresent())
-            .collect(Collectors.toSet());
+        samlGroupIndex.samlGroupsOf(
+            identifiedUser.getEffectiveGroups().getKnownGroups(), idp::ownsGroupClaim);
 
     log.debug(
         "User {} is member of {} in saml and {} in gerrit",
@@ -109,18 +259,30 @@ public class SamlMembership {
         samlMembership,
         userMembership);
 
-    Set<Account.Id> accountIdSet = ImmutableSet.of(identifiedUser.getAccountId());
-    samlMembership.stream()
-        .filter(g -> !userMembership.contains(g))
-        .forEach(g -> this.updateMembers(g, members -> Sets.union(members, accountIdSet)));
-    userMembership.stream()
-        .filter(g -> !samlMembership.contains(g))
-        .forEach(
-            g ->
-                this.updateMembers(
-                    g,
-                    members ->
-                        Sets.difference(members, ImmutableSet.of(identifiedUser.getAccountId()))));
+    Set<AccountGroup.UUID> added = Sets.difference(samlMembership, userMembership).immutableCopy();
+    Set<AccountGroup.UUID> removed =
+        Sets.difference(userMembership, samlMembership).immutableCopy();
+    if (samlConfigs.get().isBatchMembershipUpdate()) {
+      try {
+        groupMembershipBatchUpdate.update(accountId, added, removed);
+        if (resolved) {
+          fingerprints.record(accountId, fingerprint);
+        }
+        return;
+      } catch (IOException | ConfigInvalidException e) {
+        log.warn(
+            "Could not update the SAML groups of {} in one batch, updating them one by one",
+            user.getUsername(),
+            e);
+      }
+    }
+
+    Set<Account.Id> accountIdSet = ImmutableSet.of(accountId);
+    added.forEach(g -> this.updateMembers(g, members -> Sets.union(members, accountIdSet)));
+    removed.forEach(g -> this.updateMembers(g, members -> Sets.difference(members, accountIdSet)));
+    if (resolved) {
+      fingerprints.record(accountId, fingerprint);
+    }
   }
 
   /**
@@ -129,7 +291,16 @@ public class SamlMembership {
    * @return true when it is enabled.
    */
   public boolean isEnabled() {
-    return !Strings.isNullOrEmpty(memberAttr);
+    return !Strings.isNullOrEmpty(samlConfigs.get().getMemberOfAttr());
+  }
+
+  /**
+   * test if membership syncing is enabled for an identity provider.
+   *
+   * @return true when it is enabled.
+   */
+  boolean isEnabled(SamlClientPool.IdentityProvider idp) {
+    return !Strings.isNullOrEmpty(idp.config().getMemberOfAttr());
   }
 
   private void updateMembers(
@@ -142,13 +313,49 @@ public class SamlMembership {
     }
   }
 
-  private Optional<AccountGroup.UUID> getOrCreateGroup(String samlGroup) {
-    return samlGroupToName(samlGroup)
-        .map(name -> groupCache.get(name).orElseGet(() -> createGroup(name, samlGroup)))
-        .map(InternalGroup::getGroupUUID);
+  /**
+   * Looks up the group with the given name, creating it when it does not exist yet.
+   *
+   * <p>Concurrent logins of users of a new group would all miss the group cache at the same time.
+   * Creation is therefore serialised per group name, and the group is looked up again once the
+   * lock is held, so that only the first caller creates it. Names are remembered for a short time
+   * in front of the group cache, including the names of groups that could not be created, which
+   * are skipped instead of failing the login.
+   */
+  @VisibleForTesting
+  Optional<AccountGroup.UUID> getOrCreateGroup(AccountGroup.NameKey name, String samlGroup) {
+    AccountGroup.UUID cached = groupUuidByName.getIfPresent(name);
+    if (cached != null) {
+      return Optional.of(cached);
+    }
+    if (failedGroupNames.getIfPresent(name) != null) {
+      return Optional.empty();
+    }
+
+    Optional<InternalGroup> group = groupCache.get(name);
+    if (!group.isPresent()) {
+      Lock lock = groupCreationLocks.get(name);
+      lock.lock();
+      try {
+        group = groupCache.get(name);
+        if (!group.isPresent()) {
+          group = createGroup(name, samlGroup);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    if (group.isPresent()) {
+      groupUuidByName.put(name, group.get().getGroupUUID());
+      samlGroupIndex.add(group.get());
+    } else {
+      failedGroupNames.put(name, true);
+    }
+    return group.map(InternalGroup::getGroupUUID);
   }
 
-  private InternalGroup createGroup(AccountGroup.NameKey name, String samlGroup) {
+  private Optional<InternalGroup> createGroup(AccountGroup.NameKey name, String samlGroup) {
     try {
       AccountGroup.Id groupId = AccountGroup.id(sequences.nextGroupId());
       AccountGroup.UUID uuid = GroupUuid.make(name.get(), serverIdent);
@@ -162,9 +369,15 @@ public class SamlMembership {
           GroupDelta.builder()
               .setVisibleToAll(false)
               .setDescription(samlGroup + " (imported by the SAML plugin)");
-      return groupsUpdateProvider.get().createGroup(groupCreation, groupUpdateBuilder.build());
+      return Optional.of(
+          groupsUpdateProvider.get().createGroup(groupCreation, groupUpdateBuilder.build()));
+    } catch (DuplicateKeyException e) {
+      // Created by another server in the meantime.
+      groupCache.evict(name);
+      return groupCache.get(name);
     } catch (Exception e) {
-      throw new RuntimeException(e);
+      log.error("Cannot create group {}", name.get(), e);
+      return Optional.empty();
     }
   }
 
@@ -176,12 +389,18 @@ public class SamlMembership {
   }
 
   private Account.Id getOrCreateAccountId(AuthenticatedUser user) throws IOException {
+    Optional<Account.Id> cached = accountIdCache.get(user);
+    if (cached.isPresent()) {
+      return cached.get();
+    }
     AuthRequest authRequest = authRequestFactory.createForUser(user.getUsername());
     authRequest.setUserName(user.getUsername());
     authRequest.setEmailAddress(user.getEmail());
     authRequest.setDisplayName(user.getDisplayName());
     try {
-      return accountManager.authenticate(authRequest).getAccountId();
+      Account.Id accountId = accountManager.authenticate(authRequest).getAccountId();
+      accountIdCache.put(user, accountId);
+      return accountId;
     } catch (AccountException e) {
       throw new RuntimeException(e);
     }
@@ -0,0 +1,108 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.common.collect.ImmutableList;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Classifies incoming requests for {@link SamlWebFilter}.
+ *
+ * <p>The routes are matched as prefixes of the request path below the servlet context, so that
+ * paths like {@code /changes/123/login-fix} are not mistaken for a login. The router is built once
+ * from the configuration and does not allocate while classifying a request.
+ */
+class SamlRequestRouter {
+  enum Route {
+    /** SAML response posted back by the identity provider. */
+    POSTBACK,
+    /** Gerrit login, possibly followed by the page to return to. */
+    LOGIN,
+    /** Gerrit logout. */
+    LOGOUT,
+    /** Traffic that never needs the SAML filter, e.g. REST API and git over HTTP. */
+    BYPASS,
+    /** Everything else. */
+    PASSTHROUGH
+  }
+
+  private static final String POSTBACK_PATH = "/" + SamlWebFilter.SAML_CALLBACK;
+  private static final ImmutableList<String> GIT_HTTP_SUFFIXES =
+      ImmutableList.of("/info/refs", "/git-upload-pack", "/git-receive-pack");
+
+  private final String[] bypassPrefixes;
+  private final String[] bypassSuffixes;
+
+  SamlRequestRouter(SamlConfig samlConfig) {
+    this.bypassPrefixes = samlConfig.getBypassPaths().toArray(new String[0]);
+    this.bypassSuffixes =
+        samlConfig.isBypassGitHttp() ? GIT_HTTP_SUFFIXES.toArray(new String[0]) : new String[0];
+  }
+
+  Route route(HttpServletRequest request) {
+    String uri = request.getRequestURI();
+    if (uri == null) {
+      return Route.PASSTHROUGH;
+    }
+    String contextPath = request.getContextPath();
+    int offset =
+        contextPath != null && !contextPath.isEmpty() && uri.startsWith(contextPath)
+            ? contextPath.length()
+            : 0;
+    if (uri.length() > offset + 1) {
+      switch (uri.charAt(offset + 1)) {
+        case 'l':
+          if (isPath(uri, offset, SamlWebFilter.GERRIT_LOGIN)) {
+            return Route.LOGIN;
+          }
+          if (isPath(uri, offset, SamlWebFilter.GERRIT_LOGOUT)) {
+            return Route.LOGOUT;
+          }
+          break;
+        case 'p':
+          if (isPath(uri, offset, POSTBACK_PATH) && "POST".equals(request.getMethod())) {
+            return Route.POSTBACK;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    return isBypassed(uri, offset) ? Route.BYPASS : Route.PASSTHROUGH;
+  }
+
+  private boolean isBypassed(String uri, int offset) {
+    for (String prefix : bypassPrefixes) {
+      if (uri.startsWith(prefix, offset)) {
+        return true;
+      }
+    }
+    for (String suffix : bypassSuffixes) {
+      if (uri.endsWith(suffix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Whether {@code uri} at {@code offset} is {@code path} itself or a sub-path of it. */
+  private static boolean isPath(String uri, int offset, String path) {
+    if (!uri.startsWith(path, offset)) {
+      return false;
+    }
+    int end = offset + path.length();
+    return uri.length() == end || uri.charAt(end) == '/';
+  }
+}
@@ -0,0 +1,225 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.gerrit.common.Nullable;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Optional;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.pac4j.saml.credentials.SAML2Credentials;
+
+/**
+ * Reads the identifiers of a posted SAML response, without validating it.
+ *
+ * <p>This is only used to recognize responses that were already accepted, before spending a
+ * signature verification on them. The response is read with StAX up to the end of its first
+ * assertion, and nothing read here is trusted otherwise.
+ *
+ * <p>The response is base64 decoded while it is parsed, so that no copy of it is made.
+ *
+ * <p>An encrypted assertion cannot be read before pac4j decrypted it, and nothing else in the
+ * response identifies it: such a response is only identified by {@link #ofDecrypted} once it was
+ * validated.
+ */
+class SamlResponsePeek {
+  private static final String PROTOCOL_NS = "urn:oasis:names:tc:SAML:2.0:protocol";
+  private static final String ASSERTION_NS = "urn:oasis:names:tc:SAML:2.0:assertion";
+  private static final QName RESPONSE = new QName(PROTOCOL_NS, "Response");
+  private static final QName ASSERTION = new QName(ASSERTION_NS, "Assertion");
+  private static final QName ENCRYPTED_ASSERTION = new QName(ASSERTION_NS, "EncryptedAssertion");
+  private static final QName CONDITIONS = new QName(ASSERTION_NS, "Conditions");
+  private static final QName SUBJECT_CONFIRMATION_DATA =
+      new QName(ASSERTION_NS, "SubjectConfirmationData");
+
+  private static final XMLInputFactory INPUT_FACTORY = newInputFactory();
+
+  private static XMLInputFactory newInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    return factory;
+  }
+
+  private static final SamlResponsePeek ENCRYPTED = new SamlResponsePeek(null, null);
+
+  /** Identifies the response by the ID of its assertion, null when the assertion is encrypted. */
+  @Nullable final String id;
+
+  /** The earliest {@code NotOnOrAfter} of the assertion, if any. */
+  @Nullable final Instant notOnOrAfter;
+
+  private SamlResponsePeek(@Nullable String id, @Nullable Instant notOnOrAfter) {
+    this.id = id;
+    this.notOnOrAfter = notOnOrAfter;
+  }
+
+  /** Whether the assertion is encrypted, and the response thus has no key before validation. */
+  boolean isEncrypted() {
+    return id == null;
+  }
+
+  /**
+   * Key of the response in {@link AssertionReplayCache}: the ID of the assertion, qualified by the
+   * identity provider that issued it. Nothing outside the assertion is part of the key, as it is
+   * not covered by the signature when only the assertion is signed, and could be changed to replay
+   * the assertion under a new key.
+   *
+   * @param identityProvider name of the identity provider the response was posted back for
+   */
+  String replayKey(String identityProvider) {
+    checkState(!isEncrypted(), "encrypted assertion has no key before it is decrypted");
+    return identityProvider + ' ' + id;
+  }
+
+  /**
+   * Identifies a response with an encrypted assertion, from the assertion pac4j decrypted and
+   * validated. The assertion is found as the parent of its {@code Conditions}, which the Web
+   * Browser SSO profile requires for the audience restriction. The entry is kept for {@code
+   * saml.replayCacheMaxAge}, as {@code NotOnOrAfter} is not read from the decrypted assertion.
+   *
+   * @return empty when the credentials carry no conditions
+   */
+  static Optional<SamlResponsePeek> ofDecrypted(SAML2Credentials credentials) {
+    Conditions conditions = credentials.getConditions();
+    XMLObject assertion = conditions != null ? conditions.getParent() : null;
+    if (!(assertion instanceof Assertion) || ((Assertion) assertion).getID() == null) {
+      return Optional.empty();
+    }
+    return Optional.of(new SamlResponsePeek(((Assertion) assertion).getID(), null));
+  }
+
+  /**
+   * Reads the identifiers of a response.
+   *
+   * @param samlResponse the base64 encoded {@code SAMLResponse} parameter
+   * @return empty when the response is not a well-formed SAML response with an assertion, either
+   *     plain or encrypted
+   */
+  static Optional<SamlResponsePeek> of(@Nullable String samlResponse) {
+    if (samlResponse == null) {
+      return Optional.empty();
+    }
+    InputStream xml = Base64.getMimeDecoder().wrap(new AsciiInputStream(samlResponse));
+    try {
+      XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(xml);
+      try {
+        return read(reader);
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException | IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static Optional<SamlResponsePeek> read(XMLStreamReader reader)
+      throws XMLStreamException {
+    String assertionId = null;
+    Instant notOnOrAfter = null;
+    int depth = 0;
+    int assertionDepth = -1;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        if (depth-- == assertionDepth) {
+          break;
+        }
+        continue;
+      }
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      depth++;
+      QName name = reader.getName();
+      if (depth == 1) {
+        if (!RESPONSE.equals(name)) {
+          return Optional.empty();
+        }
+      } else if (ENCRYPTED_ASSERTION.equals(name) && assertionDepth < 0) {
+        return Optional.of(ENCRYPTED);
+      } else if (ASSERTION.equals(name) && assertionDepth < 0) {
+        assertionId = reader.getAttributeValue(null, "ID");
+        assertionDepth = depth;
+      } else if (assertionDepth > 0
+          && (CONDITIONS.equals(name) || SUBJECT_CONFIRMATION_DATA.equals(name))) {
+        notOnOrAfter = earliest(notOnOrAfter, reader.getAttributeValue(null, "NotOnOrAfter"));
+      }
+    }
+    if (assertionId == null) {
+      return Optional.empty();
+    }
+    return Optional.of(new SamlResponsePeek(assertionId, notOnOrAfter));
+  }
+
+  private static Instant earliest(@Nullable Instant current, @Nullable String value) {
+    if (value == null) {
+      return current;
+    }
+    try {
+      Instant parsed = Instant.parse(value);
+      return current == null || parsed.isBefore(current) ? parsed : current;
+    } catch (DateTimeParseException e) {
+      return current;
+    }
+  }
+
+  /** Reads the characters of a base64 string as bytes, without copying them. */
+  private static class AsciiInputStream extends InputStream {
+    private final String chars;
+    private int pos;
+
+    AsciiInputStream(String chars) {
+      this.chars = chars;
+    }
+
+    @Override
+    public int read() {
+      return pos < chars.length() ? ascii(chars.charAt(pos++)) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      int n = Math.min(len, chars.length() - pos);
+      if (n <= 0) {
+        return -1;
+      }
+      for (int i = 0; i < n; i++) {
+        b[off + i] = (byte) ascii(chars.charAt(pos++));
+      }
+      return n;
+    }
+
+    /** Maps other characters to a byte that is not base64, and is thus skipped. */
+    private static int ascii(char c) {
+      return c < 0x80 ? c : 0;
+    }
+  }
+}
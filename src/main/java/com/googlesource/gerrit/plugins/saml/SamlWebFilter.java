@@ -15,28 +15,22 @@
 package com.googlesource.gerrit.plugins.saml;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.Iterators;
-import com.google.gerrit.entities.Account;
-import com.google.gerrit.extensions.api.GerritApi;
-import com.google.gerrit.extensions.api.accounts.Accounts;
+import com.google.common.base.Throwables;
 import com.google.gerrit.extensions.client.AccountFieldName;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.Url;
 import com.google.gerrit.server.account.Realm;
 import com.google.gerrit.server.config.AuthConfig;
-import com.google.gerrit.server.util.ManualRequestContext;
-import com.google.gerrit.server.util.OneOffRequestContext;
 import com.google.inject.Inject;
 import com.google.inject.ProvisionException;
 import com.google.inject.Singleton;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Locale;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -54,6 +48,7 @@ import org.pac4j.core.exception.HttpAction;
 import org.pac4j.core.exception.TechnicalException;
 import org.pac4j.saml.client.SAML2Client;
 import org.pac4j.saml.credentials.SAML2Credentials;
+import org.pac4j.saml.exceptions.SAMLInResponseToMismatchException;
 import org.pac4j.saml.profile.SAML2Profile;
 import org.pac4j.saml.state.SAML2StateGenerator;
 import org.slf4j.Logger;
@@ -63,48 +58,101 @@ import org.slf4j.LoggerFactory;
 class SamlWebFilter implements Filter {
   private static final Logger log = LoggerFactory.getLogger(SamlWebFilter.class);
 
-  private static final String GERRIT_LOGOUT = "/logout";
+  @VisibleForTesting static final String GERRIT_LOGOUT = "/logout";
   @VisibleForTesting static final String GERRIT_LOGIN = "/login";
   public static final String SAML = "saml";
   public static final String SAML_CALLBACK = "plugins/" + SAML + "/callback";
   @VisibleForTesting static final String SESSION_ATTR_USER = "Gerrit-Saml-User";
 
-  private final SAML2Client saml2Client;
-  private final SamlConfig samlConfig;
+  private final SamlClientPool identityProviders;
+  private final AssertionReplayCache replayCache;
+  private final CallbackAdmissionControl admissionControl;
+  private final SamlConfigHolder samlConfigs;
   private final AuthConfig auth;
-  private final Set<String> authHeaders;
+  private final AuthHeaderMatcher authHeaders;
+  private final String loginHttpHeader;
+  private final String httpEmailHeader;
+  private final String httpExternalIdHeader;
   private final SamlMembership samlMembership;
-  private final GerritApi gApi;
-  private final Accounts accounts;
-  private final OneOffRequestContext oneOffRequestContext;
+  private final AccountNameUpdater accountNameUpdater;
   private final boolean realmAllowsFullNameEditing;
+  private final byte[] randomRelayStateSecret;
+  private volatile Settings settings;
+
+  /** What the filter derives from a {@link SamlConfig}, rebuilt when the configuration changes. */
+  private static class Settings {
+    final SamlConfig samlConfig;
+    final SamlRequestRouter router;
+    final boolean sessionlessLogin;
+    final RelayStateToken relayStateToken;
+    final long maxResponseSize;
+
+    Settings(SamlConfig samlConfig, byte[] randomRelayStateSecret) {
+      this.samlConfig = samlConfig;
+      this.router = new SamlRequestRouter(samlConfig);
+      this.sessionlessLogin = samlConfig.isSessionlessLogin();
+      this.relayStateToken =
+          sessionlessLogin ? newRelayStateToken(samlConfig, randomRelayStateSecret) : null;
+      this.maxResponseSize = samlConfig.getMaxResponseSize();
+    }
+  }
 
   @Inject
   SamlWebFilter(
       AuthConfig auth,
       Realm realm,
-      SamlConfig samlConfig,
+      SamlConfigHolder samlConfigs,
       SamlMembership samlMembership,
       @AuthHeaders Set<String> authHeaders,
-      GerritApi gApi,
-      Accounts accounts,
-      SAML2Client saml2Client,
-      OneOffRequestContext oneOffRequestContext) {
+      AccountNameUpdater accountNameUpdater,
+      SamlClientPool identityProviders,
+      AssertionReplayCache replayCache,
+      CallbackAdmissionControl admissionControl) {
     this.auth = auth;
     if (auth.getHttpDisplaynameHeader() != null) {
       throw new ProvisionException(
           "auth.httpdisplaynameheader is not compatible with SAML: remove the config and restart");
     }
 
-    this.samlConfig = samlConfig;
+    this.samlConfigs = samlConfigs;
     this.realmAllowsFullNameEditing = realm.allowsEdit(AccountFieldName.FULL_NAME);
     this.samlMembership = samlMembership;
-    log.debug("Max Authentication Lifetime: " + samlConfig.getMaxAuthLifetimeAttr());
-    this.saml2Client = saml2Client;
-    this.authHeaders = authHeaders;
-    this.gApi = gApi;
-    this.accounts = accounts;
-    this.oneOffRequestContext = oneOffRequestContext;
+    log.debug("Max Authentication Lifetime: " + samlConfigs.get().getMaxAuthLifetimeAttr());
+    this.identityProviders = identityProviders;
+    this.replayCache = replayCache;
+    this.admissionControl = admissionControl;
+    this.authHeaders = new AuthHeaderMatcher(authHeaders);
+    this.loginHttpHeader = auth.getLoginHttpHeader();
+    this.httpEmailHeader = auth.getHttpEmailHeader();
+    this.httpExternalIdHeader = auth.getHttpExternalIdHeader();
+    this.accountNameUpdater = accountNameUpdater;
+    this.randomRelayStateSecret = RelayStateToken.randomSecret();
+    this.settings = new Settings(samlConfigs.get(), randomRelayStateSecret);
+  }
+
+  private static RelayStateToken newRelayStateToken(
+      SamlConfig samlConfig, byte[] randomRelayStateSecret) {
+    byte[] secret;
+    if (samlConfig.getRelayStateSecret() != null) {
+      secret = samlConfig.getRelayStateSecret().getBytes(StandardCharsets.UTF_8);
+    } else {
+      log.warn(
+          "saml.relayStateSecret is not set: session-less logins can only complete on the"
+              + " server that started them");
+      secret = randomRelayStateSecret;
+    }
+    return new RelayStateToken(secret, samlConfig.getRelayStateMaxAge(), Clock.systemUTC());
+  }
+
+  /** The settings of the current configuration. */
+  private Settings settings() {
+    SamlConfig samlConfig = samlConfigs.get();
+    Settings current = settings;
+    if (current.samlConfig != samlConfig) {
+      current = new Settings(samlConfig, randomRelayStateSecret);
+      settings = current;
+    }
+    return current;
   }
 
   @Override
@@ -114,7 +162,8 @@ class SamlWebFilter implements Filter {
   public void destroy() {}
 
   private AuthenticatedUser userFromRequest(HttpServletRequest request) {
-    HttpSession s = request.getSession();
+    HttpSession s = request.getSession(false);
+    if (s == null) return null;
     AuthenticatedUser user = (AuthenticatedUser) s.getAttribute(SESSION_ATTR_USER);
     if (user == null || user.getUsername() == null) return null;
     return user;
@@ -123,46 +172,85 @@ class SamlWebFilter implements Filter {
   @Override
   public void doFilter(ServletRequest incomingRequest, ServletResponse response, FilterChain chain)
       throws IOException, ServletException {
+    HttpServletRequest incomingHttpRequest = (HttpServletRequest) incomingRequest;
+    HttpServletResponse httpResponse = (HttpServletResponse) response;
+    Settings settings = settings();
+    SamlRequestRouter.Route route = settings.router.route(incomingHttpRequest);
+
+    /* Bypassed requests are handed over untouched, unless a client tries to set the
+      authentication headers itself: those still get wrapped so the headers are discarded.
+    */
+    if (route == SamlRequestRouter.Route.BYPASS && !authHeaders.isPresentIn(incomingHttpRequest)) {
+      chain.doFilter(incomingHttpRequest, httpResponse);
+      return;
+    }
+
     /* The first thing we do is to wrap the request in an anonymous request, so in case
       a malicious user is trying to set the headers manually, they'll be discarded.
     */
-    HttpServletRequest httpRequest = new AnonymousHttpRequest((HttpServletRequest) incomingRequest);
-    HttpServletResponse httpResponse = (HttpServletResponse) response;
+    HttpServletRequest httpRequest = new AnonymousHttpRequest(incomingHttpRequest);
 
     try {
-      if (isSamlPostback(httpRequest)) {
-        J2EContext context = new J2EContext(httpRequest, httpResponse);
-        signin(context);
-      } else if (isGerritLogin(httpRequest)) {
-        AuthenticatedUser user = userFromRequest(httpRequest);
-        if (user == null) {
-          J2EContext context = new J2EContext(httpRequest, httpResponse);
-          redirectToIdentityProvider(context);
-        } else {
-          HttpServletRequest req = new AuthenticatedHttpRequest(httpRequest, user);
-
-          if (realmAllowsFullNameEditing) {
-            HttpServletBufferedStatusResponse respWrapper =
-                new HttpServletBufferedStatusResponse(httpResponse);
-            chain.doFilter(req, respWrapper);
-            try (ManualRequestContext ignored =
-                oneOffRequestContext.openAs(
-                    Account.id(accounts.id(user.getUsername()).get()._accountId))) {
-              gApi.accounts().id(user.getUsername()).setName(user.getDisplayName());
-              respWrapper.commit();
-            } catch (RestApiException e) {
-              log.error("Saml plugin could not set account name", e);
-              httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN);
-            }
+      switch (route) {
+        case POSTBACK:
+          if (exceedsMaxResponseSize(settings.maxResponseSize, httpRequest)) {
+            log.warn("Rejecting SAML response larger than {} bytes", settings.maxResponseSize);
+            httpResponse.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            break;
+          }
+          if (!admit(httpRequest)) {
+            httpResponse.setHeader("Retry-After", "1");
+            httpResponse.sendError(CallbackAdmissionControl.SC_TOO_MANY_REQUESTS);
+            break;
+          }
+          try {
+            signin(
+                settings,
+                identityProviders.forCallback(httpRequest),
+                newContext(settings, httpRequest, httpResponse));
+          } finally {
+            admissionControl.release();
+          }
+          break;
+        case LOGIN:
+          AuthenticatedUser user = userFromRequest(httpRequest);
+          if (user == null) {
+            redirectToIdentityProvider(
+                settings,
+                identityProviders.forLogin(httpRequest),
+                newContext(settings, httpRequest, httpResponse));
           } else {
-            chain.doFilter(req, httpResponse);
+            HttpServletRequest req = new AuthenticatedHttpRequest(httpRequest, user);
+
+            if (realmAllowsFullNameEditing && settings.samlConfig.isAsyncNameUpdate()) {
+              chain.doFilter(req, httpResponse);
+              accountNameUpdater.updateInBackground(user);
+            } else if (realmAllowsFullNameEditing) {
+              HttpServletBufferedStatusResponse respWrapper =
+                  new HttpServletBufferedStatusResponse(httpResponse);
+              chain.doFilter(req, respWrapper);
+              try {
+                accountNameUpdater.update(user);
+                respWrapper.commit();
+              } catch (RestApiException e) {
+                log.error("Saml plugin could not set account name", e);
+                httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN);
+              }
+            } else {
+              chain.doFilter(req, httpResponse);
+            }
           }
-        }
-      } else if (isGerritLogout(httpRequest)) {
-        httpRequest.getSession().removeAttribute(SESSION_ATTR_USER);
-        chain.doFilter(httpRequest, httpResponse);
-      } else {
-        chain.doFilter(httpRequest, httpResponse);
+          break;
+        case LOGOUT:
+          HttpSession session = httpRequest.getSession(false);
+          if (session != null) {
+            session.removeAttribute(SESSION_ATTR_USER);
+          }
+          chain.doFilter(httpRequest, httpResponse);
+          break;
+        default:
+          chain.doFilter(httpRequest, httpResponse);
+          break;
       }
     } catch (HttpAction httpAction) {
       // In pac4j v3.4.0 SLO (Single Log Out) throws HttpAction with code 200.
@@ -175,27 +263,120 @@ class SamlWebFilter implements Filter {
     }
   }
 
-  private void signin(J2EContext context) throws HttpAction, IOException {
-    SAML2Credentials credentials = saml2Client.getCredentials(context);
-    SAML2Profile user = saml2Client.getUserProfile(credentials, context);
+  /**
+   * Whether a posted SAML response is too large to be decoded. The declared length of the request
+   * is checked before its form parameters are read, and the response itself when the length is not
+   * declared.
+   */
+  /**
+   * Whether a posted SAML response is larger than allowed. The declared length of the request is
+   * checked when there is one. A chunked request has none: its {@code SAMLResponse} parameter,
+   * which the container then reads whole, is checked instead.
+   */
+  static boolean exceedsMaxResponseSize(long maxResponseSize, HttpServletRequest request) {
+    if (maxResponseSize <= 0) {
+      return false;
+    }
+    long length = request.getContentLengthLong();
+    if (length >= 0) {
+      return length > maxResponseSize;
+    }
+    String samlResponse = request.getParameter("SAMLResponse");
+    return samlResponse != null && samlResponse.length() > maxResponseSize;
+  }
+
+  private boolean admit(HttpServletRequest request) {
+    try {
+      return admissionControl.admit(request);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Creates the pac4j context for a request. In session-less login mode, pac4j keeps its state in
+   * the request, so that no {@link HttpSession} is created before the user is authenticated.
+   */
+  private static J2EContext newContext(
+      Settings settings, HttpServletRequest request, HttpServletResponse response) {
+    if (settings.sessionlessLogin) {
+      return new J2EContext(request, response, RequestSessionStore.INSTANCE);
+    }
+    return new J2EContext(request, response);
+  }
+
+  private void signin(
+      Settings settings, SamlClientPool.IdentityProvider idp, J2EContext context)
+      throws HttpAction, IOException {
+    long start = System.nanoTime();
+    String redirectUri = context.getRequest().getParameter("RelayState");
+    if (settings.sessionlessLogin) {
+      Optional<String> verified =
+          settings.relayStateToken.verify(
+              redirectUri, LoginNonceCookie.nonce(context.getRequest()).orElse(null));
+      if (!verified.isPresent()) {
+        log.warn(
+            "Rejecting SAML response with an invalid or expired RelayState, or posted by another"
+                + " browser than the one that started the login");
+        context.getResponse().sendError(HttpServletResponse.SC_FORBIDDEN);
+        return;
+      }
+      redirectUri = verified.get();
+    }
+
+    Optional<SamlResponsePeek> response =
+        replayCache.isEnabled()
+            ? SamlResponsePeek.of(context.getRequest().getParameter("SAMLResponse"))
+            : Optional.empty();
+    if (response.isPresent()
+        && !response.get().isEncrypted()
+        && replayCache.isReplay(response.get().replayKey(idp.name))) {
+      log.warn("Rejecting replayed SAML response {}", response.get().id);
+      context.getResponse().sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    ValidatedResponse validated = authenticate(idp.clients, context);
+    idp.recordCallback(start);
+    SAML2Profile user = validated.user;
     if (user != null) {
+      if (response.isPresent() && response.get().isEncrypted()) {
+        response = SamlResponsePeek.ofDecrypted(validated.credentials);
+        if (!response.isPresent()) {
+          log.debug("Cannot identify the decrypted assertion, it is not checked for replays");
+        }
+      }
+      if (response.isPresent()
+          && !replayCache.add(response.get().replayKey(idp.name), response.get().notOnOrAfter)) {
+        log.warn("Rejecting replayed SAML response {}", response.get().id);
+        context.getResponse().sendError(HttpServletResponse.SC_FORBIDDEN);
+        return;
+      }
+      AuthenticatedUser authenticatedUser =
+          idp.attributeMapping().map(user, auth.isUserNameToLowerCase());
+      if (!idp.mayLogIn(authenticatedUser)) {
+        log.warn(
+            "Rejecting user {} with email {}: not in an email domain of identity provider {}",
+            authenticatedUser.getUsername(),
+            authenticatedUser.getEmail(),
+            idp.name);
+        context.getResponse().sendError(HttpServletResponse.SC_FORBIDDEN);
+        return;
+      }
       log.debug(
           "Received SAML callback for userId={} with attributes: {}",
-          getUserName(user),
+          authenticatedUser.getUsername(),
           user.getAttributes());
+      if (settings.sessionlessLogin) {
+        LoginNonceCookie.clear(context.getRequest(), context.getResponse());
+      }
       HttpSession s = context.getRequest().getSession();
-      AuthenticatedUser authenticatedUser =
-          new AuthenticatedUser(
-              getUserName(user),
-              getDisplayName(user),
-              getEmailAddress(user),
-              String.format("%s/%s", SAML, user.getId()));
       s.setAttribute(SESSION_ATTR_USER, authenticatedUser);
-      if (samlMembership.isEnabled()) {
-        samlMembership.sync(authenticatedUser, user);
+      if (samlMembership.isEnabled(idp)) {
+        samlMembership.syncOnLogin(authenticatedUser, user, idp);
       }
 
-      String redirectUri = context.getRequest().getParameter("RelayState");
       if (null == redirectUri || redirectUri.isEmpty()) {
         redirectUri = "/";
       }
@@ -203,91 +384,82 @@ class SamlWebFilter implements Filter {
     }
   }
 
-  private void redirectToIdentityProvider(J2EContext context) throws HttpAction {
-    String redirectUri =
-        Url.decode(
-            context
-                .getRequest()
-                .getRequestURI()
-                .substring(context.getRequest().getContextPath().length()));
-    @SuppressWarnings("unchecked")
-    SessionStore<J2EContext> store = context.getSessionStore();
-    store.set(context, SAML2StateGenerator.SAML_RELAY_STATE_ATTRIBUTE, redirectUri);
-    log.debug("Setting redirectUri: {}", redirectUri);
-    saml2Client.redirect(context);
-  }
-
-  private static boolean isGerritLogin(HttpServletRequest request) {
-    return request.getRequestURI().indexOf(GERRIT_LOGIN) >= 0;
-  }
-
-  private static boolean isGerritLogout(HttpServletRequest request) {
-    return request.getRequestURI().indexOf(GERRIT_LOGOUT) >= 0;
-  }
-
-  private static boolean isSamlPostback(HttpServletRequest request) {
-    return "POST".equals(request.getMethod())
-        && request.getRequestURI().indexOf(SAML_CALLBACK) >= 0;
-  }
-
-  private static String getAttribute(SAML2Profile user, String attrName) {
-    // TODO(davido): Replace with the invocation from upstream method.
-    List<String> names = extractAttributeValues(user, attrName);
-    if (names != null && !names.isEmpty()) {
-      return names.get(0);
+  /**
+   * Validates the SAML response with the current client. When the client was replaced recently
+   * for a new key pair, a response it rejects may have been meant for the previous client, which
+   * is tried next.
+   */
+  private static ValidatedResponse authenticate(
+      SamlClientHolder saml2Clients, J2EContext context) throws HttpAction {
+    try {
+      return authenticate(saml2Clients.get(), context);
+    } catch (TechnicalException e) {
+      Optional<SAML2Client> retired = saml2Clients.getRetired();
+      if (!retired.isPresent() || !mayAnswerRetiredClient(e, context)) {
+        throw e;
+      }
+      log.debug("SAML response rejected by the current client, trying the previous one", e);
+      return authenticate(retired.get(), context);
     }
-    return null;
   }
 
-  // TODO(davido): Remove if getAttribute() uses the upstream method.
-  private static List<String> extractAttributeValues(SAML2Profile user, String attrName) {
-    final Object value = user.getAttribute(attrName);
-    if (value instanceof String) {
-      return Collections.singletonList((String) value);
-    } else if (value instanceof String[]) {
-      return Arrays.asList((String[]) value);
-    } else if (value instanceof List) {
-      return (List<String>) value;
-    } else {
-      return null;
+  /**
+   * Whether a response rejected by the current client may be meant for the previous one: it
+   * answers an AuthnRequest the current client does not know, or its assertion is encrypted,
+   * possibly for the previous key. Any other rejection would be repeated by the previous client.
+   */
+  private static boolean mayAnswerRetiredClient(TechnicalException e, J2EContext context) {
+    if (Throwables.getCausalChain(e).stream()
+        .anyMatch(SAMLInResponseToMismatchException.class::isInstance)) {
+      return true;
     }
+    return SamlResponsePeek.of(context.getRequest().getParameter("SAMLResponse"))
+        .map(SamlResponsePeek::isEncrypted)
+        .orElse(false);
   }
 
-  private static String getAttributeOrElseId(SAML2Profile user, String attrName) {
-    String value = getAttribute(user, attrName);
-    if (value != null) {
-      return value;
-    }
-    return user.getId();
+  private static ValidatedResponse authenticate(SAML2Client client, J2EContext context)
+      throws HttpAction {
+    SAML2Credentials credentials = client.getCredentials(context);
+    return new ValidatedResponse(credentials, client.getUserProfile(credentials, context));
   }
 
-  private String getDisplayName(SAML2Profile user) {
-    if (samlConfig.isComputedDisplayName()) {
-      return String.format(
-          "%s %s",
-          getAttributeOrElseId(user, samlConfig.getFirstNameAttr()),
-          getAttributeOrElseId(user, samlConfig.getLastNameAttr()));
-    }
-    return getAttributeOrElseId(user, samlConfig.getDisplayNameAttr());
-  }
+  /** A SAML response validated by pac4j, with the user it authenticates, if any. */
+  private static class ValidatedResponse {
+    final SAML2Credentials credentials;
+    final SAML2Profile user;
 
-  private String getEmailAddress(SAML2Profile user) {
-    String emailAddress = getAttribute(user, samlConfig.getEmailAddressAttr());
-    if (emailAddress != null) {
-      return emailAddress;
-    }
-    String nameId = user.getId();
-    if (!nameId.contains("@")) {
-      log.debug(
-          "Email address attribute not found, NameId {} does not look like an email.", nameId);
-      return null;
+    ValidatedResponse(SAML2Credentials credentials, SAML2Profile user) {
+      this.credentials = credentials;
+      this.user = user;
     }
-    return nameId;
   }
 
-  private String getUserName(SAML2Profile user) {
-    String username = getAttributeOrElseId(user, samlConfig.getUserNameAttr());
-    return auth.isUserNameToLowerCase() ? username.toLowerCase(Locale.US) : username;
+  private void redirectToIdentityProvider(
+      Settings settings, SamlClientPool.IdentityProvider idp, J2EContext context)
+      throws HttpAction {
+    String redirectUri =
+        Url.decode(
+            context
+                .getRequest()
+                .getRequestURI()
+                .substring(context.getRequest().getContextPath().length()));
+    @SuppressWarnings("unchecked")
+    SessionStore<J2EContext> store = context.getSessionStore();
+    log.debug("Setting redirectUri: {}", redirectUri);
+    String relayState = redirectUri;
+    if (settings.sessionlessLogin) {
+      String nonce = settings.relayStateToken.newNonce();
+      LoginNonceCookie.set(
+          context.getRequest(),
+          context.getResponse(),
+          nonce,
+          settings.relayStateToken.getMaxAge());
+      relayState = settings.relayStateToken.sign(nonce, redirectUri);
+    }
+    store.set(context, SAML2StateGenerator.SAML_RELAY_STATE_ATTRIBUTE, relayState);
+    idp.recordRedirect();
+    idp.clients.get().redirect(context);
   }
 
   private class AuthenticatedHttpRequest extends HttpServletRequestWrapper {
@@ -300,27 +472,32 @@ class SamlWebFilter implements Filter {
 
     @Override
     public Enumeration<String> getHeaderNames() {
-      Enumeration<String> wrappedHeaderNames = super.getHeaderNames();
-      HashSet<String> headerNames = new HashSet<>(authHeaders);
-      while (wrappedHeaderNames.hasMoreElements()) {
-        headerNames.add(wrappedHeaderNames.nextElement());
-      }
-      return Iterators.asEnumeration(headerNames.iterator());
+      return authHeaders.withAuthHeaders(super.getHeaderNames());
     }
 
     @Override
     public String getHeader(String name) {
-      String nameUpperCase = name.toUpperCase();
-      if (auth.getLoginHttpHeader().toUpperCase().equals(nameUpperCase)) {
+      if (loginHttpHeader.equalsIgnoreCase(name)) {
         return user.getUsername();
-      } else if (auth.getHttpEmailHeader().toUpperCase().equals(nameUpperCase)) {
+      } else if (httpEmailHeader.equalsIgnoreCase(name)) {
         return user.getEmail();
-      } else if (auth.getHttpExternalIdHeader().toUpperCase().equals(nameUpperCase)) {
+      } else if (httpExternalIdHeader.equalsIgnoreCase(name)) {
         return user.getExternalId();
       } else {
         return super.getHeader(name);
       }
     }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+      if (authHeaders.matches(name)) {
+        String value = getHeader(name);
+        return value != null
+            ? Collections.enumeration(Collections.singletonList(value))
+            : Collections.emptyEnumeration();
+      }
+      return super.getHeaders(name);
+    }
   }
 
   private class AnonymousHttpRequest extends HttpServletRequestWrapper {
@@ -330,25 +507,23 @@ class SamlWebFilter implements Filter {
 
     @Override
     public Enumeration<String> getHeaderNames() {
-      Enumeration<String> wrappedHeaderNames = super.getHeaderNames();
-
-      HashSet<String> headerNames = new HashSet<>();
-      while (wrappedHeaderNames.hasMoreElements()) {
-        String header = wrappedHeaderNames.nextElement();
-        if (!authHeaders.contains(header.toUpperCase())) {
-          headerNames.add(header);
-        }
-      }
-      return Iterators.asEnumeration(headerNames.iterator());
+      return authHeaders.withoutAuthHeaders(super.getHeaderNames());
     }
 
     @Override
     public String getHeader(String name) {
-      String nameUpperCase = name.toUpperCase();
-      if (authHeaders.contains(nameUpperCase)) {
+      if (authHeaders.matches(name)) {
         return null;
       }
       return super.getHeader(name);
     }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+      if (authHeaders.matches(name)) {
+        return Collections.emptyEnumeration();
+      }
+      return super.getHeaders(name);
+    }
   }
 }
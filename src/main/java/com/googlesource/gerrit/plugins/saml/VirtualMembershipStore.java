@@ -0,0 +1,263 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.saml.SamlConfig.MembershipMode;
+import com.googlesource.gerrit.plugins.saml.pgm.LibModuleDataDirUtil;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Groups of each account as sent by the identity provider on the last login, used in {@code
+ * saml.membershipMode = virtual}.
+ *
+ * <p>The group UUIDs are interned, so accounts in the same groups share them. Memberships expire
+ * {@code saml.virtualMembershipMaxAge} after the login that recorded them. The groups are also
+ * indexed by name, so that suggesting groups does not go through the groups of every account.
+ *
+ * <p>The memberships are kept in {@code $site/data/saml/virtual-memberships}, written in the
+ * background when they changed and on shutdown, so they survive restarts.
+ */
+@Singleton
+class VirtualMembershipStore implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(VirtualMembershipStore.class);
+  private static final String FILE_NAME = "virtual-memberships";
+  private static final long FLUSH_INTERVAL_SECONDS = 30;
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+  private static class Entry {
+    final ImmutableSet<AccountGroup.UUID> groups;
+    final long expiresAtMillis;
+
+    Entry(ImmutableSet<AccountGroup.UUID> groups, long expiresAtMillis) {
+      this.groups = groups;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  private final boolean enabled;
+  private final Path file;
+  private final long maxAgeMillis;
+  private final WorkQueue workQueue;
+  private final Map<Account.Id, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Groups of all accounts, keyed by their lower case name followed by their UUID. Groups no
+   * account is in any more are dropped when the memberships are flushed.
+   */
+  private final ConcurrentNavigableMap<String, AccountGroup.UUID> groupsByName =
+      new ConcurrentSkipListMap<>();
+  private final Interner<AccountGroup.UUID> interner = Interners.newWeakInterner();
+  private final AtomicBoolean dirty = new AtomicBoolean();
+  private ScheduledFuture<?> flushTask;
+
+  @Inject
+  VirtualMembershipStore(
+      SamlConfig samlConfig, @LibModuleData Path libModuleDataDir, WorkQueue workQueue) {
+    this.enabled = samlConfig.getMembershipMode() == MembershipMode.VIRTUAL;
+    this.file = libModuleDataDir.resolve(FILE_NAME);
+    this.maxAgeMillis = samlConfig.getVirtualMembershipMaxAge().toMillis();
+    this.workQueue = workQueue;
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Replaces the groups of an account.
+   *
+   * @param accountId account that logged in
+   * @param claims values of the {@code memberOfAttr} attribute
+   */
+  void put(Account.Id accountId, Collection<String> claims) {
+    ImmutableSet<AccountGroup.UUID> groups =
+        claims.stream()
+            .filter(claim -> !claim.isEmpty())
+            .map(SamlGroupBackend::uuid)
+            .map(interner::intern)
+            .collect(ImmutableSet.toImmutableSet());
+    entries.put(accountId, new Entry(groups, System.currentTimeMillis() + maxAgeMillis));
+    index(groups);
+    dirty.set(true);
+  }
+
+  /**
+   * Groups of an account.
+   *
+   * @param accountId account to look up
+   * @return the groups recorded on the last login, or none when they expired
+   */
+  ImmutableSet<AccountGroup.UUID> get(Account.Id accountId) {
+    Entry entry = entries.get(accountId);
+    if (entry == null || entry.expiresAtMillis <= System.currentTimeMillis()) {
+      return ImmutableSet.of();
+    }
+    return entry.groups;
+  }
+
+  /**
+   * Groups of all accounts whose name starts with a prefix, ignoring case.
+   *
+   * @param prefix beginning of the group names
+   * @return the groups, in the order of their names
+   */
+  Stream<AccountGroup.UUID> groupsByNamePrefix(String prefix) {
+    String from = prefix.toLowerCase(Locale.ROOT);
+    return groupsByName.subMap(from, from + Character.MAX_VALUE).values().stream();
+  }
+
+  private void index(Collection<AccountGroup.UUID> groups) {
+    for (AccountGroup.UUID group : groups) {
+      groupsByName.putIfAbsent(indexKey(group), group);
+    }
+  }
+
+  /**
+   * Drops the groups no account is in any more. A login recording one of them meanwhile either
+   * indexes it again after it was dropped, or is seen when the dropped groups are checked again.
+   */
+  private void pruneIndex() {
+    Set<AccountGroup.UUID> live = groupsOfAllAccounts();
+    Set<AccountGroup.UUID> dropped =
+        groupsByName.values().stream()
+            .filter(group -> !live.contains(group))
+            .collect(Collectors.toSet());
+    if (dropped.isEmpty()) {
+      return;
+    }
+    groupsByName.values().removeAll(dropped);
+    Set<AccountGroup.UUID> stillLive = groupsOfAllAccounts();
+    index(dropped.stream().filter(stillLive::contains).collect(Collectors.toList()));
+  }
+
+  private Set<AccountGroup.UUID> groupsOfAllAccounts() {
+    return entries.values().stream()
+        .flatMap(entry -> entry.groups.stream())
+        .collect(Collectors.toSet());
+  }
+
+  private static String indexKey(AccountGroup.UUID group) {
+    return SamlGroupBackend.name(group).toLowerCase(Locale.ROOT) + '\0' + group.get();
+  }
+
+  @Override
+  public void start() {
+    if (!isEnabled()) {
+      return;
+    }
+    load();
+    flushTask =
+        workQueue
+            .getDefaultQueue()
+            .scheduleAtFixedRate(
+                this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (flushTask != null) {
+      flushTask.cancel(false);
+      flushTask = null;
+    }
+    if (isEnabled()) {
+      flush();
+    }
+  }
+
+  private void load() {
+    if (!Files.exists(file)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    try {
+      for (String line : Files.readAllLines(file, UTF_8)) {
+        String[] fields = line.split(" ");
+        if (fields.length < 2) {
+          continue;
+        }
+        long expiresAtMillis = Long.parseLong(fields[1]);
+        if (expiresAtMillis <= now) {
+          continue;
+        }
+        ImmutableSet.Builder<AccountGroup.UUID> groups = ImmutableSet.builder();
+        for (int i = 2; i < fields.length; i++) {
+          String uuid = new String(DECODER.decode(fields[i]), UTF_8);
+          groups.add(interner.intern(AccountGroup.uuid(uuid)));
+        }
+        Entry entry = new Entry(groups.build(), expiresAtMillis);
+        entries.put(Account.id(Integer.parseInt(fields[0])), entry);
+        index(entry.groups);
+      }
+      log.info("Loaded SAML groups of {} accounts", entries.size());
+    } catch (IOException | IllegalArgumentException e) {
+      log.warn("Ignoring unreadable SAML groups in {}", file, e);
+      entries.clear();
+      groupsByName.clear();
+    }
+  }
+
+  private void flush() {
+    if (!dirty.getAndSet(false)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    entries.values().removeIf(entry -> entry.expiresAtMillis <= now);
+    pruneIndex();
+    StringBuilder content = new StringBuilder();
+    entries.forEach(
+        (accountId, entry) -> {
+          content.append(accountId.get()).append(' ').append(entry.expiresAtMillis);
+          for (AccountGroup.UUID group : entry.groups) {
+            content.append(' ').append(ENCODER.encodeToString(group.get().getBytes(UTF_8)));
+          }
+          content.append('\n');
+        });
+    try {
+      LibModuleDataDirUtil.writeAtomically(file, content.toString().getBytes(UTF_8));
+    } catch (IOException e) {
+      dirty.set(true);
+      log.warn("Cannot write SAML groups to {}", file, e);
+    }
+  }
+}
@@ -0,0 +1,237 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml.pgm;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Reads the groups of an identity provider, and the user names of their members, from an export.
+ *
+ * <p>Three formats are supported:
+ *
+ * <ul>
+ *   <li>{@code csv}: one {@code <group>,<user name>} line per membership. The group may be quoted
+ *       with {@code "}, e.g. when it is a distinguished name. Empty lines and lines starting with
+ *       {@code #} are skipped.
+ *   <li>{@code json}: an object with the user names of the members of each group, e.g. {@code
+ *       {"admins": ["jdoe", "asmith"]}}.
+ *   <li>{@code ldif}: one entry per group, named by its {@code cn} attribute or else its {@code
+ *       dn}, with {@code memberUid} values, or {@code member} and {@code uniqueMember} values
+ *       whose first attribute value is the user name.
+ * </ul>
+ */
+class GroupExportReader {
+  private static final ImmutableSet<String> GROUP_OBJECT_CLASSES =
+      ImmutableSet.of("group", "groupofnames", "groupofuniquenames", "posixgroup");
+
+  enum Format {
+    CSV,
+    JSON,
+    LDIF;
+
+    static Format of(String name) {
+      return valueOf(name.toUpperCase(Locale.US));
+    }
+
+    static Format forFile(String fileName) {
+      int dot = fileName.lastIndexOf('.');
+      return of(dot >= 0 ? fileName.substring(dot + 1) : fileName);
+    }
+  }
+
+  /**
+   * Reads an export.
+   *
+   * @return the user names of the members of each group, by group
+   * @throws IOException when the export cannot be read or is malformed
+   */
+  static Map<String, Set<String>> read(Reader in, Format format) throws IOException {
+    BufferedReader reader = new BufferedReader(in);
+    Map<String, Set<String>> groups = new TreeMap<>();
+    switch (format) {
+      case CSV:
+        readCsv(reader, groups);
+        break;
+      case JSON:
+        readJson(reader, groups);
+        break;
+      case LDIF:
+        readLdif(reader, groups);
+        break;
+    }
+    return groups;
+  }
+
+  private static void readCsv(BufferedReader reader, Map<String, Set<String>> groups)
+      throws IOException {
+    String line;
+    int lineNumber = 0;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      int separator;
+      String group;
+      if (line.startsWith("\"")) {
+        int end = line.indexOf('"', 1);
+        separator = end >= 0 ? line.indexOf(',', end) : -1;
+        group = end >= 0 ? line.substring(1, end) : null;
+      } else {
+        separator = line.lastIndexOf(',');
+        group = separator >= 0 ? line.substring(0, separator).trim() : null;
+      }
+      if (separator < 0 || group == null) {
+        throw new IOException(String.format("Line %d: expected <group>,<user name>", lineNumber));
+      }
+      add(groups, group, line.substring(separator + 1).trim());
+    }
+  }
+
+  private static void readJson(BufferedReader reader, Map<String, Set<String>> groups)
+      throws IOException {
+    try {
+      JsonObject root = JsonParser.parseReader(reader).getAsJsonObject();
+      for (Map.Entry<String, JsonElement> group : root.entrySet()) {
+        groups.computeIfAbsent(group.getKey(), g -> new LinkedHashSet<>());
+        for (JsonElement member : group.getValue().getAsJsonArray()) {
+          add(groups, group.getKey(), member.getAsString());
+        }
+      }
+    } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+      throw new IOException("Expected an object with an array of user names per group", e);
+    }
+  }
+
+  private static void readLdif(BufferedReader reader, Map<String, Set<String>> groups)
+      throws IOException {
+    List<String[]> entry = new ArrayList<>();
+    StringBuilder line = null;
+    String next;
+    while ((next = reader.readLine()) != null) {
+      if (next.startsWith(" ") && line != null) {
+        line.append(next, 1, next.length());
+        continue;
+      }
+      if (line != null) {
+        addLdifAttribute(entry, line.toString());
+        line = null;
+      }
+      if (next.isEmpty()) {
+        addLdifEntry(groups, entry);
+        entry.clear();
+      } else if (!next.startsWith("#")) {
+        line = new StringBuilder(next);
+      }
+    }
+    if (line != null) {
+      addLdifAttribute(entry, line.toString());
+    }
+    addLdifEntry(groups, entry);
+  }
+
+  private static void addLdifAttribute(List<String[]> entry, String line) throws IOException {
+    int colon = line.indexOf(':');
+    if (colon < 0) {
+      throw new IOException("Expected <attribute>: <value>, got " + line);
+    }
+    String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+    String value;
+    if (line.startsWith("::", colon)) {
+      try {
+        value = new String(Base64.getMimeDecoder().decode(line.substring(colon + 2).trim()), UTF_8);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid base64 value of " + name, e);
+      }
+    } else {
+      value = line.substring(colon + 1).trim();
+    }
+    entry.add(new String[] {name, value});
+  }
+
+  private static void addLdifEntry(Map<String, Set<String>> groups, List<String[]> entry) {
+    String dn = null;
+    String cn = null;
+    boolean isGroup = false;
+    List<String> members = new ArrayList<>();
+    for (String[] attribute : entry) {
+      switch (attribute[0]) {
+        case "dn":
+          dn = attribute[1];
+          break;
+        case "cn":
+          cn = cn == null ? attribute[1] : cn;
+          break;
+        case "objectclass":
+          isGroup |= GROUP_OBJECT_CLASSES.contains(attribute[1].toLowerCase(Locale.US));
+          break;
+        case "memberuid":
+          members.add(attribute[1]);
+          break;
+        case "member":
+        case "uniquemember":
+          members.add(firstValue(attribute[1]));
+          break;
+        default:
+          break;
+      }
+    }
+    String group = cn != null ? cn : dn;
+    if (group == null || (!isGroup && members.isEmpty())) {
+      return;
+    }
+    groups.computeIfAbsent(group, g -> new LinkedHashSet<>());
+    for (String member : members) {
+      add(groups, group, member);
+    }
+  }
+
+  /** The first attribute value of a distinguished name, e.g. {@code jdoe} of {@code uid=jdoe}. */
+  private static String firstValue(String dn) {
+    int equals = dn.indexOf('=');
+    int comma = dn.indexOf(',');
+    if (equals < 0 || (comma >= 0 && comma < equals)) {
+      return dn;
+    }
+    return dn.substring(equals + 1, comma >= 0 ? comma : dn.length()).trim();
+  }
+
+  private static void add(Map<String, Set<String>> groups, String group, String member) {
+    Set<String> members = groups.computeIfAbsent(group, g -> new LinkedHashSet<>());
+    if (!member.isEmpty()) {
+      members.add(member);
+    }
+  }
+
+  private GroupExportReader() {}
+}
@@ -17,6 +17,7 @@ package com.googlesource.gerrit.plugins.saml.pgm;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 public class LibModuleDataDirUtil {
 
@@ -31,4 +32,18 @@ public class LibModuleDataDirUtil {
     }
     return dataDir;
   }
+
+  /**
+   * Replaces {@code file} with {@code content}, so that readers either see the old or the new
+   * content but never a partially written file.
+   */
+  public static void writeAtomically(Path file, byte[] content) throws IOException {
+    Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      Files.write(tmp, content);
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
 }
@@ -0,0 +1,509 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml.pgm;
+
+import static com.googlesource.gerrit.plugins.saml.SamlMembership.GROUP_PREFIX;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.git.RefUpdateUtil;
+import com.google.gerrit.server.Sequences;
+import com.google.gerrit.server.account.GroupUuid;
+import com.google.gerrit.server.account.externalids.ExternalId;
+import com.google.gerrit.server.account.externalids.ExternalIdKeyFactory;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
+import com.google.gerrit.server.git.meta.MetaDataUpdate;
+import com.google.gerrit.server.group.db.AuditLogFormatter;
+import com.google.gerrit.server.group.db.GroupConfig;
+import com.google.gerrit.server.group.db.GroupDelta;
+import com.google.gerrit.server.group.db.GroupNameNotes;
+import com.google.gerrit.server.group.db.InternalGroupCreation;
+import com.google.gerrit.server.notedb.IntBlob;
+import com.googlesource.gerrit.plugins.saml.GroupClaims;
+import com.googlesource.gerrit.plugins.saml.SamlConfig;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.notes.NoteMap;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.SystemReader;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.ParserProperties;
+
+/**
+ * Creates the {@code saml/} groups of an identity provider export, and adds their members, while
+ * Gerrit is stopped.
+ *
+ * <p>Group names go through the same {@code saml.groupInclude}, {@code saml.groupExclude}, {@code
+ * saml.groupRename} and {@code saml.groupMapping} rules as on login. Members are looked up by user
+ * name, and users that have no account yet are skipped: they are added on their first login.
+ *
+ * <p>Groups are written to {@code All-Users} in batches, each batch being a single atomic ref
+ * update of the group refs and the group names. The IDs of the groups a batch creates are taken
+ * from the group sequence beforehand, and its groups are prepared in parallel. The group index is
+ * not updated: Gerrit's {@code reindex} program must be run once at the end.
+ *
+ * <p>The groups of an additional identity provider, given by {@code --identity-provider}, go
+ * through its own rules and are created in its {@code saml/<name>/} namespace.
+ */
+public class SamlGroupImporter {
+  private static final String GROUP_SEQUENCE_REF = RefNames.REFS_SEQUENCES + Sequences.NAME_GROUPS;
+  private static final int FIRST_GROUP_ID = 1;
+
+  @Option(
+      name = "--site-path",
+      aliases = {"-d"},
+      usage = "Local directory containing site data")
+  void setSitePath(String path) {
+    sitePath = Paths.get(path).normalize();
+  }
+
+  @Option(name = "--format", usage = "csv, json or ldif. By default, the extension of the file.")
+  private String format;
+
+  @Option(name = "--threads", usage = "Number of groups prepared in parallel.")
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  @Option(name = "--batch-size", usage = "Number of groups written in a single ref update.")
+  int batchSize = 1000;
+
+  @Option(
+      name = "--identity-provider",
+      usage = "Identity provider of the groups, imported in its saml/<name>/ namespace.")
+  String identityProvider = SamlConfig.DEFAULT_IDENTITY_PROVIDER;
+
+  @Argument(index = 0, required = true, metaVar = "FILE", usage = "Export of the groups")
+  private String file;
+
+  /** Changes to one group, ready to be written. */
+  private static class StagedGroup {
+    final InternalGroup group;
+    final List<ReceiveCommand> commands;
+    final boolean created;
+    final int added;
+
+    StagedGroup(InternalGroup group, List<ReceiveCommand> commands, boolean created, int added) {
+      this.group = group;
+      this.commands = commands;
+      this.created = created;
+      this.added = added;
+    }
+  }
+
+  private Path sitePath = Paths.get(".").toAbsolutePath();
+  private SitePaths sitePaths;
+  private Project.NameKey allUsersName;
+  private PersonIdent serverIdent;
+  private AuditLogFormatter auditLogFormatter;
+  private int createdGroups;
+  private int addedMemberships;
+  private int failedGroups;
+
+  private Config parseGerritConfig() throws ConfigInvalidException, IOException {
+    Config baseConfig = new Config();
+    baseConfig.fromText(Files.readString(sitePaths.gerrit_config));
+
+    Config cfg = new Config(baseConfig);
+
+    if (sitePaths.secure_config.toFile().exists()) {
+      cfg.fromText(Files.readString(sitePaths.secure_config));
+    }
+
+    return cfg;
+  }
+
+  public void run(String[] args) throws Exception {
+    CmdLineParser parser = new CmdLineParser(this, ParserProperties.defaults().withAtSyntax(false));
+    GroupExportReader.Format exportFormat;
+    try {
+      parser.parseArgument(args);
+      exportFormat =
+          format != null
+              ? GroupExportReader.Format.of(format)
+              : GroupExportReader.Format.forFile(Paths.get(file).getFileName().toString());
+    } catch (CmdLineException | IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      parser.printUsage(System.err);
+      System.exit(1);
+      return;
+    }
+
+    sitePaths = new SitePaths(sitePath);
+    Config cfg;
+    try {
+      cfg = parseGerritConfig();
+    } catch (ConfigInvalidException | IOException e) {
+      throw new ConfigInvalidException("Unable to parse Gerrit's configuration.", e);
+    }
+    Map<String, Set<String>> export;
+    try (Reader in = Files.newBufferedReader(Paths.get(file), UTF_8)) {
+      export = GroupExportReader.read(in, exportFormat);
+    }
+    try (Repository allUsers = openAllUsers(cfg)) {
+      importExport(sitePaths, cfg, allUsers, export);
+    }
+
+    System.out.printf(
+        "Created %d groups and added %d memberships, %d groups failed%n",
+        createdGroups, addedMemberships, failedGroups);
+    System.out.printf(
+        "Reindex the groups before starting Gerrit:%n  java -jar gerrit.war reindex -d %s"
+            + " --index groups%n",
+        sitePath);
+  }
+
+  /** Creates the groups of an export in {@code All-Users}, and adds their members. */
+  void importExport(
+      SitePaths sitePaths, Config cfg, Repository allUsers, Map<String, Set<String>> export)
+      throws IOException, ConfigInvalidException, InterruptedException {
+    allUsersName = Project.nameKey(getString(cfg, "gerrit", "allUsers", "All-Users"));
+    serverIdent =
+        new PersonIdent(
+            getString(cfg, "user", "name", "Gerrit Code Review"),
+            getString(cfg, "user", "email", "gerrit@" + SystemReader.getInstance().getHostname()));
+    auditLogFormatter = AuditLogFormatter.createPartiallyWorkingFallBack();
+
+    Function<String, List<String>> groupNames;
+    try {
+      groupNames = GroupClaims.mapper(new SamlConfig(cfg, sitePaths), identityProvider);
+    } catch (IllegalArgumentException e) {
+      throw new ConfigInvalidException(e.getMessage(), e);
+    }
+    Map<String, Set<String>> groups = toGroupNames(export, groupNames);
+    if (cfg.getBoolean("auth", "userNameToLowerCase", false)) {
+      groups.replaceAll((name, members) -> toLowerCase(members));
+    }
+    System.out.printf("Read %d groups, %d after filtering%n", export.size(), groups.size());
+
+    Map<String, Account.Id> accounts =
+        resolveAccounts(
+            allUsers, groups.values(), cfg.getBoolean("auth", "userNameCaseInsensitive", false));
+    importGroups(allUsers, groups, accounts);
+  }
+
+  /**
+   * Maps the groups of the export to the names of the {@code saml/} groups of the identity
+   * provider, as on login.
+   */
+  private static Map<String, Set<String>> toGroupNames(
+      Map<String, Set<String>> export, Function<String, List<String>> groupNames) {
+    Map<String, Set<String>> groups = new TreeMap<>();
+    for (Map.Entry<String, Set<String>> e : export.entrySet()) {
+      for (String name : groupNames.apply(e.getKey())) {
+        groups.computeIfAbsent(name, n -> new LinkedHashSet<>()).addAll(e.getValue());
+      }
+    }
+    return groups;
+  }
+
+  private static Set<String> toLowerCase(Set<String> userNames) {
+    Set<String> lowerCase = new LinkedHashSet<>();
+    for (String userName : userNames) {
+      lowerCase.add(userName.toLowerCase(Locale.US));
+    }
+    return lowerCase;
+  }
+
+  private Repository openAllUsers(Config cfg) throws IOException {
+    Path basePath = sitePaths.resolve(getString(cfg, "gerrit", "basePath", "git"));
+    return RepositoryCache.open(
+        RepositoryCache.FileKey.lenient(basePath.resolve(allUsersName.get()).toFile(), FS.DETECTED),
+        true);
+  }
+
+  /** Looks up the accounts of the members in the {@code username:} external IDs. */
+  private static Map<String, Account.Id> resolveAccounts(
+      Repository allUsers, Iterable<Set<String>> members, boolean caseInsensitive)
+      throws IOException, ConfigInvalidException {
+    Map<String, Account.Id> accounts = new HashMap<>();
+    Ref ref = allUsers.exactRef(RefNames.REFS_EXTERNAL_IDS);
+    if (ref == null) {
+      return accounts;
+    }
+    ExternalIdKeyFactory keys = new ExternalIdKeyFactory(() -> caseInsensitive);
+    int missing = 0;
+    try (RevWalk rw = new RevWalk(allUsers)) {
+      NoteMap notes = NoteMap.read(rw.getObjectReader(), rw.parseCommit(ref.getObjectId()));
+      for (Set<String> userNames : members) {
+        for (String userName : userNames) {
+          if (accounts.containsKey(userName)) {
+            continue;
+          }
+          ExternalId.Key key = keys.create(ExternalId.SCHEME_USERNAME, userName);
+          ObjectId blob = notes.get(key.sha1());
+          Account.Id accountId = blob != null ? accountId(rw, blob) : null;
+          if (accountId != null) {
+            accounts.put(userName, accountId);
+          } else {
+            missing++;
+          }
+        }
+      }
+    }
+    System.out.printf(
+        "Found %d accounts, %d user names have no account yet%n", accounts.size(), missing);
+    return accounts;
+  }
+
+  /**
+   * The account of an external ID note. Only its {@code accountId} is read, as parsing the whole
+   * external ID needs the injected server configuration.
+   */
+  private static Account.Id accountId(RevWalk rw, ObjectId blob)
+      throws IOException, ConfigInvalidException {
+    Config note = new Config();
+    note.fromText(new String(rw.getObjectReader().open(blob).getCachedBytes(), UTF_8));
+    for (String key : note.getSubsections("externalId")) {
+      int id = note.getInt("externalId", key, "accountId", -1);
+      if (id > 0) {
+        return Account.id(id);
+      }
+    }
+    return null;
+  }
+
+  private void importGroups(
+      Repository allUsers, Map<String, Set<String>> groups, Map<String, Account.Id> accounts)
+      throws IOException, ConfigInvalidException, InterruptedException {
+    List<GroupReference> allGroups = new ArrayList<>(GroupNameNotes.loadAllGroups(allUsers));
+    Map<String, AccountGroup.UUID> existing = new HashMap<>();
+    for (GroupReference group : allGroups) {
+      existing.put(group.getName(), group.getUUID());
+    }
+
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.max(threads, 1),
+            new ThreadFactoryBuilder().setNameFormat("SAML-Import-%d").setDaemon(true).build());
+    try {
+      for (List<String> batch : Lists.partition(new ArrayList<>(groups.keySet()), batchSize)) {
+        importBatch(allUsers, executor, batch, groups, accounts, existing, allGroups);
+        System.out.printf("Imported %d groups%n", createdGroups);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void importBatch(
+      Repository allUsers,
+      ExecutorService executor,
+      List<String> batch,
+      Map<String, Set<String>> groups,
+      Map<String, Account.Id> accounts,
+      Map<String, AccountGroup.UUID> existing,
+      List<GroupReference> allGroups)
+      throws IOException, InterruptedException {
+    int newGroups = 0;
+    for (String claim : batch) {
+      if (!existing.containsKey(GROUP_PREFIX + claim)) {
+        newGroups++;
+      }
+    }
+    int nextId = newGroups > 0 ? reserveGroupIds(allUsers, newGroups) : -1;
+
+    Map<String, Future<StagedGroup>> staging = new TreeMap<>();
+    for (String claim : batch) {
+      String name = GROUP_PREFIX + claim;
+      AccountGroup.UUID uuid = existing.get(name);
+      int id = uuid == null ? nextId++ : -1;
+      ImmutableSet<Account.Id> members =
+          groups.get(claim).stream()
+              .map(accounts::get)
+              .filter(Objects::nonNull)
+              .collect(ImmutableSet.toImmutableSet());
+      staging.put(name, executor.submit(() -> stage(allUsers, claim, name, uuid, id, members)));
+    }
+
+    BatchRefUpdate update = allUsers.getRefDatabase().newBatchUpdate();
+    update.setAtomic(true);
+    List<StagedGroup> staged = new ArrayList<>();
+    for (Map.Entry<String, Future<StagedGroup>> e : staging.entrySet()) {
+      try {
+        StagedGroup group = e.getValue().get();
+        if (group != null) {
+          update.addCommand(group.commands);
+          staged.add(group);
+        }
+      } catch (ExecutionException ex) {
+        failedGroups++;
+        System.err.printf("Cannot import group %s: %s%n", e.getKey(), ex.getCause());
+      }
+    }
+
+    List<GroupReference> created = new ArrayList<>();
+    for (StagedGroup group : staged) {
+      if (group.created) {
+        created.add(GroupReference.create(group.group.getGroupUUID(), group.group.getName()));
+      }
+    }
+    if (!created.isEmpty()) {
+      List<GroupReference> updatedGroups = new ArrayList<>(allGroups);
+      updatedGroups.addAll(created);
+      try (ObjectInserter inserter = allUsers.newObjectInserter()) {
+        GroupNameNotes.updateAllGroups(allUsers, inserter, update, updatedGroups, serverIdent);
+        inserter.flush();
+      }
+    }
+    if (update.getCommands().isEmpty()) {
+      return;
+    }
+    RefUpdateUtil.executeChecked(update, allUsers);
+
+    for (GroupReference group : created) {
+      allGroups.add(group);
+      existing.put(group.getName(), group.getUUID());
+    }
+    createdGroups += created.size();
+    for (StagedGroup group : staged) {
+      addedMemberships += group.added;
+    }
+  }
+
+  /**
+   * Takes IDs for the groups a batch creates from the group sequence, as Gerrit does before
+   * creating groups: the IDs of groups that then fail to be written are skipped.
+   *
+   * @return the first of the IDs
+   */
+  private int reserveGroupIds(Repository allUsers, int count) throws IOException {
+    Optional<IntBlob> sequence = IntBlob.parse(allUsers, GROUP_SEQUENCE_REF);
+    int next = sequence.map(IntBlob::value).orElse(FIRST_GROUP_ID);
+    try (RevWalk rw = new RevWalk(allUsers)) {
+      RefUpdate.Result result =
+          IntBlob.tryStore(
+                  allUsers,
+                  rw,
+                  allUsersName,
+                  GROUP_SEQUENCE_REF,
+                  sequence.map(IntBlob::id).orElse(null),
+                  next + count,
+                  GitReferenceUpdated.DISABLED)
+              .getResult();
+      if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED) {
+        throw new IOException(String.format("Cannot update %s: %s", GROUP_SEQUENCE_REF, result));
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Prepares the commit adding the members to a group, creating the group if needed.
+   *
+   * @return null when the group already has all the members
+   */
+  private StagedGroup stage(
+      Repository allUsers,
+      String claim,
+      String name,
+      AccountGroup.UUID uuid,
+      int id,
+      ImmutableSet<Account.Id> members)
+      throws Exception {
+    BatchRefUpdate commands = allUsers.getRefDatabase().newBatchUpdate();
+    MetaDataUpdate update =
+        new MetaDataUpdate(GitReferenceUpdated.DISABLED, allUsersName, allUsers, commands);
+    update.getCommitBuilder().setAuthor(serverIdent);
+    update.getCommitBuilder().setCommitter(serverIdent);
+    update.setMessage("Import SAML group\n");
+
+    GroupConfig groupConfig;
+    GroupDelta.Builder delta =
+        GroupDelta.builder().setMemberModification(m -> Sets.union(m, members));
+    int added;
+    if (uuid != null) {
+      groupConfig = GroupConfig.loadForGroup(allUsersName, allUsers, uuid);
+      Optional<InternalGroup> group = groupConfig.getLoadedGroup();
+      if (!group.isPresent()) {
+        throw new ConfigInvalidException("Group " + uuid + " of " + name + " not found");
+      }
+      added = Sets.difference(members, group.get().getMembers()).size();
+      if (added == 0) {
+        return null;
+      }
+    } else {
+      AccountGroup.NameKey nameKey = AccountGroup.nameKey(name);
+      groupConfig =
+          GroupConfig.createForNewGroup(
+              allUsersName,
+              allUsers,
+              InternalGroupCreation.builder()
+                  .setGroupUUID(GroupUuid.make(name, serverIdent))
+                  .setNameKey(nameKey)
+                  .setId(AccountGroup.id(id))
+                  .build());
+      delta.setVisibleToAll(false).setDescription(claim + " (imported by the SAML plugin)");
+      added = members.size();
+    }
+    groupConfig.setGroupDelta(delta.build(), auditLogFormatter);
+    groupConfig.commit(update);
+    return new StagedGroup(
+        groupConfig.getLoadedGroup().get(),
+        ImmutableList.copyOf(commands.getCommands()),
+        uuid == null,
+        added);
+  }
+
+  private static String getString(Config cfg, String section, String name, String defaultValue) {
+    return Optional.ofNullable(cfg.getString(section, null, name)).orElse(defaultValue);
+  }
+
+  public static void main(String[] args) throws Exception {
+    new SamlGroupImporter().run(args);
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.Account;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AccountIdCacheTest {
+  private static final Account.Id JDOE = Account.id(1000001);
+  private static final Account.Id ASMITH = Account.id(1000002);
+
+  private AccountIdCache accountIds;
+
+  @Before
+  public void setUp() {
+    // Two entries, the keys of one user, as Gerrit forwards the removals of its caches.
+    Cache<String, Account.Id> cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(2)
+            .<String, Account.Id>removalListener(
+                n -> accountIds.onRemoval("saml", AccountIdCache.CACHE_NAME, n))
+            .build();
+    accountIds = new AccountIdCache(cache);
+  }
+
+  @Test
+  public void dropsAllKeysOfReindexedAccount() {
+    AuthenticatedUser jdoe = user("jdoe", "saml/jdoe");
+    accountIds.put(jdoe, JDOE);
+
+    accountIds.onAccountIndexed(JDOE.get());
+
+    assertThat(accountIds.get(jdoe)).isEmpty();
+    assertThat(accountIds.get(user("other", "saml/jdoe"))).isEmpty();
+    assertThat(accountIds.trackedAccounts()).isEqualTo(0);
+  }
+
+  @Test
+  public void forgetsKeysEvictedFromCache() {
+    accountIds.put(user("jdoe", "saml/jdoe"), JDOE);
+    AuthenticatedUser asmith = user("asmith", "saml/asmith");
+    accountIds.put(asmith, ASMITH);
+
+    assertThat(accountIds.trackedAccounts()).isEqualTo(1);
+    assertThat(accountIds.get(asmith)).hasValue(ASMITH);
+  }
+
+  @Test
+  public void keepsKeyCachedForAnotherAccount() {
+    AuthenticatedUser jdoe = user("jdoe", null);
+    accountIds.put(jdoe, JDOE);
+    accountIds.put(jdoe, ASMITH);
+
+    accountIds.onAccountIndexed(JDOE.get());
+    assertThat(accountIds.get(jdoe)).hasValue(ASMITH);
+
+    accountIds.onAccountIndexed(ASMITH.get());
+    assertThat(accountIds.get(jdoe)).isEmpty();
+  }
+
+  @Test
+  public void keepsKeyCachedAgainForSameAccount() {
+    AuthenticatedUser jdoe = user("jdoe", null);
+    accountIds.put(jdoe, JDOE);
+    accountIds.put(jdoe, JDOE);
+
+    accountIds.onAccountIndexed(JDOE.get());
+    assertThat(accountIds.get(jdoe)).isEmpty();
+  }
+
+  private static AuthenticatedUser user(String username, String externalId) {
+    return new AuthenticatedUser(username, username, null, externalId);
+  }
+}
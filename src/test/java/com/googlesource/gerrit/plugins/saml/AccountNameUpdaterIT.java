@@ -0,0 +1,130 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.api.accounts.AccountApi;
+import com.google.gerrit.extensions.api.accounts.Accounts;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.account.AccountCache;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.gerrit.testing.ConfigSuite;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class AccountNameUpdaterIT extends AbstractDaemonTest {
+
+  @ConfigSuite.Default
+  public static Config setupSaml() throws ConfigInvalidException {
+    Config cfg = new Config();
+    cfg.fromText(
+        ""
+            + "[httpd]\n"
+            + "    filterClass = com.googlesource.gerrit.plugins.saml.SamlWebFilter\n"
+            + "[saml]\n"
+            + "    keystorePath = etc/samlKeystore.jks\n"
+            + "    metadataPath = http://localhost:8080/auth/realms/master/protocol/saml/descriptor\n"
+            + "[auth]\n"
+            + "    type = HTTP\n"
+            + "    httpHeader = X-SAML-UserName\n"
+            + "    httpEmailHeader = X-SAML-EmailHeader\n"
+            + "    httpExternalIdHeader = X-SAML-ExternalId");
+    return cfg;
+  }
+
+  @Override
+  public Module createModule() {
+    return new com.googlesource.gerrit.plugins.saml.Module();
+  }
+
+  @Test
+  public void backgroundUpdatesOfOneUserDoNotOverlapAndKeepTheLatestName() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<String> names = new CopyOnWriteArrayList<>();
+
+    AccountApi accountApi = mock(AccountApi.class);
+    doAnswer(
+            invocation -> {
+              maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+              try {
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                names.add(invocation.getArgument(0));
+              } finally {
+                running.decrementAndGet();
+              }
+              return null;
+            })
+        .when(accountApi)
+        .setName(anyString());
+    Accounts accounts = mock(Accounts.class);
+    doReturn(accountApi).when(accounts).id(any(String.class));
+    GerritApi api = mock(GerritApi.class);
+    doReturn(accounts).when(api).accounts();
+
+    Config cfg = new Config(setupSaml());
+    cfg.setBoolean("saml", null, "asyncNameUpdate", true);
+    cfg.setInt("saml", null, "nameUpdateThreads", 2);
+    AccountNameUpdater updater = newAccountNameUpdater(api, cfg);
+    try {
+      updater.updateInBackground(newUser("First Name"));
+      assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+      updater.updateInBackground(newUser("Second Name"));
+      updater.updateInBackground(newUser("Latest Name"));
+    } finally {
+      release.countDown();
+      updater.stop();
+    }
+
+    assertThat(names).containsExactly("First Name", "Latest Name").inOrder();
+    assertThat(maxRunning.get()).isEqualTo(1);
+  }
+
+  private AuthenticatedUser newUser(String displayName) {
+    return new AuthenticatedUser(user.username(), displayName, user.email(), "externalId");
+  }
+
+  private AccountNameUpdater newAccountNameUpdater(GerritApi api, Config cfg) {
+    Injector testInjector = server.getTestInjector();
+    return new AccountNameUpdater(
+        api,
+        testInjector.getInstance(AccountCache.class),
+        testInjector.getInstance(AccountIdCache.class),
+        testInjector.getInstance(OneOffRequestContext.class),
+        testInjector.getInstance(DisplayNameCache.class),
+        new SamlConfig(cfg, testInjector.getInstance(SitePaths.class)),
+        testInjector.getInstance(MetricMaker.class));
+  }
+}
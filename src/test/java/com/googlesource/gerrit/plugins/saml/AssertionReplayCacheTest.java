@@ -0,0 +1,83 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.junit.Test;
+
+public class AssertionReplayCacheTest {
+  private static final Instant NOW = Instant.parse("2026-01-01T10:00:00Z");
+
+  private final MutableClock clock = new MutableClock();
+
+  @Test
+  public void rejectsReplayUntilNotOnOrAfter() {
+    AssertionReplayCache cache = new AssertionReplayCache(100, Duration.ofMinutes(10), clock);
+    assertThat(cache.isReplay("a")).isFalse();
+    assertThat(cache.add("a", NOW.plus(Duration.ofMinutes(5)))).isTrue();
+    assertThat(cache.isReplay("a")).isTrue();
+    assertThat(cache.add("a", NOW.plus(Duration.ofMinutes(5)))).isFalse();
+
+    clock.now = NOW.plus(Duration.ofMinutes(6));
+    assertThat(cache.isReplay("a")).isFalse();
+    assertThat(cache.add("a", null)).isTrue();
+  }
+
+  @Test
+  public void keepsEntriesAtMostMaxAge() {
+    AssertionReplayCache cache = new AssertionReplayCache(100, Duration.ofMinutes(10), clock);
+    cache.add("a", NOW.plus(Duration.ofDays(1)));
+
+    clock.now = NOW.plus(Duration.ofMinutes(11));
+    assertThat(cache.isReplay("a")).isFalse();
+  }
+
+  @Test
+  public void dropsFirstExpiringEntriesWhenFull() {
+    AssertionReplayCache cache = new AssertionReplayCache(2, Duration.ofMinutes(10), clock);
+    cache.add("a", NOW.plus(Duration.ofMinutes(1)));
+    cache.add("b", NOW.plus(Duration.ofMinutes(5)));
+    cache.add("c", NOW.plus(Duration.ofMinutes(3)));
+
+    assertThat(cache.isReplay("a")).isFalse();
+    assertThat(cache.isReplay("b")).isTrue();
+    assertThat(cache.isReplay("c")).isTrue();
+  }
+
+  private static class MutableClock extends Clock {
+    Instant now = NOW;
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
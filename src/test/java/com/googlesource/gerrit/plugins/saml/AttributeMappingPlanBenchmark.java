@@ -0,0 +1,79 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.server.config.SitePaths;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.lib.Config;
+import org.pac4j.saml.profile.SAML2Profile;
+
+/**
+ * Measures the time and the memory it takes to map a SAML profile to a user, with the attributes
+ * and transforms of a typical login.
+ *
+ * <p>Run with {@code bazel run plugins/saml:AttributeMappingPlanBenchmark}.
+ */
+public class AttributeMappingPlanBenchmark {
+  private static final int WARMUP_ITERATIONS = 200_000;
+  private static final int ITERATIONS = 1_000_000;
+
+  public static void main(String[] args) throws Exception {
+    Config cfg = new Config();
+    cfg.setStringList(
+        "saml", null, "userNameTransform", ImmutableList.of("stripDomain", "lowercase"));
+    cfg.setString("saml", null, "displayNameTransform", "regex:^([^(]+?)\\s*(\\(.*\\))?$");
+    cfg.setString("saml", null, "emailAddressTransform", "lowercase");
+    AttributeMappingPlan plan =
+        AttributeMappingPlan.compile(
+            new SamlConfig(cfg, new SitePaths(Files.createTempDirectory("saml-benchmark"))));
+
+    SAML2Profile profile = new SAML2Profile();
+    profile.setId("John.Doe@Example.com");
+    profile.addAttribute("UserName", ImmutableList.of("John.Doe@Example.com"));
+    profile.addAttribute("DisplayName", ImmutableList.of("John Doe (Engineering)"));
+    profile.addAttribute("EmailAddress", ImmutableList.of("John.Doe@Example.com"));
+    List<String> groups = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      groups.add("CN=group-" + i + ",OU=Groups,DC=example,DC=com");
+    }
+    profile.addAttribute("memberOf", groups);
+
+    run(plan, profile, WARMUP_ITERATIONS);
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    int hash = run(plan, profile, ITERATIONS);
+    long elapsed = System.nanoTime() - start;
+    long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+    System.out.printf(
+        "%d logins mapped: %.1f ns/login, %d bytes/login (%d)%n",
+        ITERATIONS, (double) elapsed / ITERATIONS, allocated / ITERATIONS, hash);
+  }
+
+  private static int run(AttributeMappingPlan plan, SAML2Profile profile, int iterations) {
+    int hash = 0;
+    for (int i = 0; i < iterations; i++) {
+      hash += plan.map(profile, true).getUsername().hashCode();
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.server.config.SitePaths;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pac4j.saml.profile.SAML2Profile;
+
+public class AttributeMappingPlanTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void mapsAttributes() throws Exception {
+    SAML2Profile profile = profile("nameid");
+    profile.addAttribute("UserName", "JDoe");
+    profile.addAttribute("DisplayName", ImmutableList.of("John Doe", "Johnny"));
+    profile.addAttribute("EmailAddress", new String[] {"John.Doe@Example.com"});
+
+    AuthenticatedUser user = plan(new Config()).map(profile, false);
+    assertThat(user.getUsername()).isEqualTo("JDoe");
+    assertThat(user.getDisplayName()).isEqualTo("John Doe");
+    assertThat(user.getEmail()).isEqualTo("John.Doe@Example.com");
+    assertThat(user.getExternalId()).isEqualTo("saml/nameid");
+  }
+
+  @Test
+  public void prefixesExternalIdWithNamespace() throws Exception {
+    SamlConfig samlConfig = new SamlConfig(new Config(), new SitePaths(tmp.getRoot().toPath()));
+    AuthenticatedUser user =
+        AttributeMappingPlan.compile(samlConfig, "acquired/").map(profile("nameid"), false);
+    assertThat(user.getExternalId()).isEqualTo("saml/acquired/nameid");
+  }
+
+  @Test
+  public void fallsBackToNameId() throws Exception {
+    AuthenticatedUser user = plan(new Config()).map(profile("JDoe@example.com"), true);
+    assertThat(user.getUsername()).isEqualTo("jdoe@example.com");
+    assertThat(user.getDisplayName()).isEqualTo("JDoe@example.com");
+    assertThat(user.getEmail()).isEqualTo("JDoe@example.com");
+
+    assertThat(plan(new Config()).map(profile("jdoe"), false).getEmail()).isNull();
+  }
+
+  @Test
+  public void appliesTransformsInOrder() throws Exception {
+    Config cfg = new Config();
+    cfg.setStringList(
+        "saml", null, "userNameTransform", ImmutableList.of("stripDomain", "lowercase"));
+    cfg.setString("saml", null, "displayNameTransform", "regex:^(\\S+)");
+    cfg.setString("saml", null, "emailAddressTransform", "lowercase");
+    cfg.setBoolean("saml", null, "computedDisplayName", true);
+    SAML2Profile profile = profile("JDoe@Example.com");
+    profile.addAttribute("FirstName", "John");
+    profile.addAttribute("LastName", "Doe");
+
+    AuthenticatedUser user = plan(cfg).map(profile, false);
+    assertThat(user.getUsername()).isEqualTo("jdoe");
+    assertThat(user.getDisplayName()).isEqualTo("John");
+    assertThat(user.getEmail()).isEqualTo("jdoe@example.com");
+  }
+
+  @Test
+  public void rejectsInvalidTransforms() throws Exception {
+    assertInvalid("userNameTransform", "regex:(");
+    assertInvalid("displayNameTransform", "unknown");
+    assertInvalid("emailAddressTransform", "lowercase", "regex:[");
+  }
+
+  private void assertInvalid(String key, String... transforms) {
+    Config cfg = new Config();
+    cfg.setStringList("saml", null, key, ImmutableList.copyOf(transforms));
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> plan(cfg));
+    assertThat(e).hasMessageThat().contains("saml." + key);
+  }
+
+  private AttributeMappingPlan plan(Config cfg) {
+    return AttributeMappingPlan.compile(new SamlConfig(cfg, new SitePaths(tmp.getRoot().toPath())));
+  }
+
+  private static SAML2Profile profile(String nameId) {
+    SAML2Profile profile = new SAML2Profile();
+    profile.setId(nameId);
+    return profile;
+  }
+}
@@ -0,0 +1,55 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collections;
+import org.junit.Test;
+
+public class AuthHeaderMatcherTest {
+  private final AuthHeaderMatcher matcher =
+      new AuthHeaderMatcher(
+          ImmutableSet.of("X-SAML-USERNAME", "X-SAML-EMAILHEADER", "X-SAML-EXTERNALID"));
+
+  @Test
+  public void matchesIgnoringCase() {
+    assertThat(matcher.matches("X-SAML-UserName")).isTrue();
+    assertThat(matcher.matches("x-saml-externalid")).isTrue();
+    assertThat(matcher.matches("X-SAML-Other")).isFalse();
+    assertThat(matcher.matches(null)).isFalse();
+  }
+
+  @Test
+  public void hidesAuthHeaders() {
+    assertThat(
+            Collections.list(
+                matcher.withoutAuthHeaders(
+                    Collections.enumeration(
+                        ImmutableList.of("Accept", "x-saml-username", "Cookie")))))
+        .containsExactly("Accept", "Cookie")
+        .inOrder();
+  }
+
+  @Test
+  public void addsAuthHeaders() {
+    assertThat(
+            Collections.list(
+                matcher.withAuthHeaders(Collections.enumeration(ImmutableList.of("Accept")))))
+        .containsExactly("X-SAML-USERNAME", "X-SAML-EMAILHEADER", "X-SAML-EXTERNALID", "Accept");
+  }
+}
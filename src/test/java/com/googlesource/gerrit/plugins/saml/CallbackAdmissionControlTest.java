@@ -0,0 +1,95 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Ticker;
+import com.google.gerrit.util.http.testutil.FakeHttpServletRequest;
+import java.time.Duration;
+import org.junit.Test;
+
+public class CallbackAdmissionControlTest {
+  private static final String CLIENT_IP_HEADER = "X-Forwarded-For";
+
+  private final MutableTicker ticker = new MutableTicker();
+
+  @Test
+  public void limitsEachClientToItsBurstThenItsRate() throws Exception {
+    CallbackAdmissionControl control =
+        new CallbackAdmissionControl(0, Duration.ZERO, 60, 3, CLIENT_IP_HEADER, 1, ticker);
+    for (int i = 0; i < 3; i++) {
+      assertThat(control.admit(request("10.0.0.1"))).isTrue();
+    }
+    assertThat(control.admit(request("10.0.0.1"))).isFalse();
+    assertThat(control.admit(request("10.0.0.2"))).isTrue();
+
+    ticker.nanos += Duration.ofSeconds(1).toNanos();
+    assertThat(control.admit(request("10.0.0.1"))).isTrue();
+    assertThat(control.admit(request("10.0.0.1"))).isFalse();
+  }
+
+  @Test
+  public void usesAddressAppendedByTrustedProxies() throws Exception {
+    CallbackAdmissionControl control =
+        new CallbackAdmissionControl(0, Duration.ZERO, 60, 1, CLIENT_IP_HEADER, 1, ticker);
+    assertThat(control.admit(request("10.0.0.1"))).isTrue();
+    assertThat(control.admit(request("192.168.0.9, 10.0.0.1"))).isFalse();
+    assertThat(control.admit(request("10.0.0.1, 10.0.0.2"))).isTrue();
+
+    control = new CallbackAdmissionControl(0, Duration.ZERO, 60, 1, CLIENT_IP_HEADER, 2, ticker);
+    assertThat(control.admit(request("10.0.0.1, 172.16.0.1"))).isTrue();
+    assertThat(control.admit(request("192.168.0.9, 10.0.0.1, 172.16.0.2"))).isFalse();
+    assertThat(control.admit(request("10.0.0.2"))).isTrue();
+  }
+
+  @Test
+  public void returnsTokenOfResponseRejectedForConcurrency() throws Exception {
+    CallbackAdmissionControl control =
+        new CallbackAdmissionControl(1, Duration.ZERO, 60, 1, CLIENT_IP_HEADER, 1, ticker);
+    assertThat(control.admit(request("10.0.0.1"))).isTrue();
+    assertThat(control.admit(request("10.0.0.2"))).isFalse();
+
+    control.release();
+    assertThat(control.admit(request("10.0.0.2"))).isTrue();
+  }
+
+  @Test
+  public void limitsConcurrentCallbacks() throws Exception {
+    CallbackAdmissionControl control =
+        new CallbackAdmissionControl(2, Duration.ZERO, 0, 0, CLIENT_IP_HEADER, 1, ticker);
+    assertThat(control.admit(request("10.0.0.1"))).isTrue();
+    assertThat(control.admit(request("10.0.0.2"))).isTrue();
+    assertThat(control.admit(request("10.0.0.3"))).isFalse();
+
+    control.release();
+    assertThat(control.admit(request("10.0.0.3"))).isTrue();
+  }
+
+  private static FakeHttpServletRequest request(String forwardedFor) {
+    FakeHttpServletRequest req = new FakeHttpServletRequest("gerrit.example.com", 80, "", "");
+    req.addHeader(CLIENT_IP_HEADER, forwardedFor);
+    return req;
+  }
+
+  private static class MutableTicker extends Ticker {
+    long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+}
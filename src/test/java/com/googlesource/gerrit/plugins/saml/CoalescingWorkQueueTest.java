@@ -0,0 +1,87 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class CoalescingWorkQueueTest {
+  private final CountDownLatch started = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final CountDownLatch done = new CountDownLatch(2);
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicInteger maxRunning = new AtomicInteger();
+  private final List<String> handled = new CopyOnWriteArrayList<>();
+
+  private CoalescingWorkQueue<String, String> queue;
+
+  @After
+  public void stopQueue() {
+    release.countDown();
+    if (queue != null) {
+      queue.stop();
+    }
+  }
+
+  @Test
+  public void valueOfKeyBeingProcessedWaitsAndIsCoalesced() throws Exception {
+    queue = new CoalescingWorkQueue<>("test", 2, 10, this::handle, new DisabledMetricMaker());
+
+    assertThat(queue.offer("jdoe", "first")).isTrue();
+    assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(queue.offer("jdoe", "second")).isTrue();
+    assertThat(queue.offer("jdoe", "latest")).isTrue();
+    assertThat(queue.size()).isEqualTo(1);
+
+    release.countDown();
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(handled).containsExactly("first", "latest").inOrder();
+    assertThat(maxRunning.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void keysBeingProcessedCountTowardsTheCapacity() throws Exception {
+    queue = new CoalescingWorkQueue<>("test", 2, 1, this::handle, new DisabledMetricMaker());
+
+    assertThat(queue.offer("jdoe", "first")).isTrue();
+    assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(queue.offer("asmith", "other")).isFalse();
+    assertThat(queue.offer("jdoe", "latest")).isTrue();
+
+    release.countDown();
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(handled).containsExactly("first", "latest").inOrder();
+  }
+
+  private void handle(String value) throws InterruptedException {
+    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+    try {
+      started.countDown();
+      release.await(10, TimeUnit.SECONDS);
+      handled.add(value);
+    } finally {
+      running.decrementAndGet();
+      done.countDown();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.server.config.SitePaths;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GroupClaimFilterTest {
+  private static final ImmutableList<String> CLAIMS =
+      ImmutableList.of(
+          "CN=gerrit-admins,OU=Groups,DC=example,DC=com",
+          "CN=gerrit-users,OU=Groups,DC=example,DC=com",
+          "CN=gerrit-legacy,OU=Groups,DC=example,DC=com",
+          "CN=payroll,OU=Groups,DC=example,DC=com",
+          "Domain Users");
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void keepsAllClaimsByDefault() throws Exception {
+    GroupClaimFilter filter = filter(new Config());
+    assertThat(filter.isEmpty()).isTrue();
+    assertThat(filter.apply(CLAIMS)).isEqualTo(CLAIMS);
+  }
+
+  @Test
+  public void includesExcludesAndRenames() throws Exception {
+    Config cfg = new Config();
+    cfg.setStringList(
+        "saml", null, "groupInclude", ImmutableList.of("CN=gerrit-.*", "Domain Users"));
+    cfg.setString("saml", null, "groupExclude", ".*legacy.*");
+    cfg.setString("saml", null, "groupRename", "CN=([^,]+),.* => $1");
+
+    assertThat(filter(cfg).apply(CLAIMS))
+        .containsExactly("gerrit-admins", "gerrit-users", "Domain Users")
+        .inOrder();
+  }
+
+  @Test
+  public void mappingsBypassPatternsAndMergeClaims() throws Exception {
+    Config cfg = new Config();
+    cfg.setString("saml", null, "groupInclude", "CN=gerrit-admins,.*");
+    cfg.setStringList(
+        "saml",
+        null,
+        "groupMapping",
+        ImmutableList.of(
+            "CN=payroll,OU=Groups,DC=example,DC=com => finance",
+            "CN=gerrit-users,OU=Groups,DC=example,DC=com => finance"));
+
+    assertThat(filter(cfg).apply(CLAIMS))
+        .containsExactly("CN=gerrit-admins,OU=Groups,DC=example,DC=com", "finance")
+        .inOrder();
+  }
+
+  @Test
+  public void rejectsInvalidRules() throws Exception {
+    assertInvalid("groupInclude", "CN=(");
+    assertInvalid("groupExclude", "CN=(");
+    assertInvalid("groupRename", "CN=( => $1");
+    assertInvalid("groupRename", "CN=gerrit-.*");
+    assertInvalid("groupMapping", "Domain Users");
+  }
+
+  private void assertInvalid(String key, String rule) {
+    Config cfg = new Config();
+    cfg.setString("saml", null, key, rule);
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> filter(cfg));
+    assertThat(e).hasMessageThat().contains("saml." + key);
+  }
+
+  private GroupClaimFilter filter(Config cfg) {
+    return GroupClaimFilter.compile(new SamlConfig(cfg, new SitePaths(tmp.getRoot().toPath())));
+  }
+}
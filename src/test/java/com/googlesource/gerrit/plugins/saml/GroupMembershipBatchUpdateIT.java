@@ -0,0 +1,105 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.testing.ConfigSuite;
+import com.google.inject.Module;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Test;
+
+public class GroupMembershipBatchUpdateIT extends AbstractDaemonTest {
+
+  @ConfigSuite.Default
+  public static Config setupSaml() throws ConfigInvalidException {
+    Config cfg = new Config();
+    cfg.fromText(
+        ""
+            + "[httpd]\n"
+            + "    filterClass = com.googlesource.gerrit.plugins.saml.SamlWebFilter\n"
+            + "[saml]\n"
+            + "    keystorePath = etc/samlKeystore.jks\n"
+            + "    metadataPath = http://localhost:8080/auth/realms/master/protocol/saml/descriptor\n"
+            + "    memberOfAttr = memberOf\n"
+            + "    batchMembershipUpdate = true\n"
+            + "[auth]\n"
+            + "    type = HTTP\n"
+            + "    httpHeader = X-SAML-UserName\n"
+            + "    httpEmailHeader = X-SAML-EmailHeader\n"
+            + "    httpExternalIdHeader = X-SAML-ExternalId");
+    return cfg;
+  }
+
+  @Override
+  public Module createModule() {
+    return new com.googlesource.gerrit.plugins.saml.Module();
+  }
+
+  @Test
+  public void addsAndRemovesMembershipsWithOneCommitPerGroupInOneBatch() throws Exception {
+    AccountGroup.UUID developers = groupOperations.newGroup().name("saml/developers").create();
+    AccountGroup.UUID reviewers = groupOperations.newGroup().name("saml/reviewers").create();
+    AccountGroup.UUID contractors =
+        groupOperations.newGroup().name("saml/contractors").addMember(user.id()).create();
+    ImmutableList<AccountGroup.UUID> groups = ImmutableList.of(developers, reviewers, contractors);
+    Map<AccountGroup.UUID, ObjectId> before = new HashMap<>();
+    for (AccountGroup.UUID group : groups) {
+      before.put(group, tip(group));
+    }
+
+    server
+        .getTestInjector()
+        .getInstance(GroupMembershipBatchUpdate.class)
+        .update(user.id(), ImmutableSet.of(developers, reviewers), ImmutableSet.of(contractors));
+
+    assertThat(groupOperations.group(developers).get().members()).containsExactly(user.id());
+    assertThat(groupOperations.group(reviewers).get().members()).containsExactly(user.id());
+    assertThat(groupOperations.group(contractors).get().members()).isEmpty();
+
+    try (Repository repo = repoManager.openRepository(allUsers);
+        RevWalk rw = new RevWalk(repo)) {
+      RevCommit first = null;
+      for (AccountGroup.UUID group : groups) {
+        RevCommit commit = rw.parseCommit(tip(group));
+        assertThat(commit.getParentCount()).isEqualTo(1);
+        assertThat(commit.getParent(0).getId()).isEqualTo(before.get(group));
+        if (first == null) {
+          first = commit;
+        } else {
+          assertThat(commit.getCommitterIdent()).isEqualTo(first.getCommitterIdent());
+        }
+      }
+    }
+  }
+
+  private ObjectId tip(AccountGroup.UUID group) throws Exception {
+    try (Repository repo = repoManager.openRepository(allUsers)) {
+      return repo.exactRef(RefNames.refsGroups(group)).getObjectId();
+    }
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.gerrit.server.config.SitePaths;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IdpMetadataManagerTest {
+  private static final String METADATA_V1 =
+      "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+          + " entityID=\"https://idp.example.com/v1\"/>";
+  private static final String METADATA_V2 =
+      "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+          + " entityID=\"https://idp.example.com/v2\"/>";
+  private static final String IDP_METADATA =
+      "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+          + " entityID=\"https://idp.example.com\">"
+          + "<md:IDPSSODescriptor"
+          + " protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+          + "<md:SingleSignOnService"
+          + " Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\""
+          + " Location=\"https://idp.example.com/sso\"/>"
+          + "</md:IDPSSODescriptor>"
+          + "</md:EntityDescriptor>";
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private HttpServer server;
+  private volatile String body = METADATA_V1;
+  private volatile String etag = "\"v1\"";
+  private volatile boolean available = true;
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger notModified = new AtomicInteger();
+  private Path dataDir;
+
+  @Before
+  public void setUp() throws Exception {
+    dataDir = tmp.newFolder("data", "saml").toPath();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/metadata", this::serveMetadata);
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void downloadsMetadataToLocalCopy() throws Exception {
+    IdpMetadataManager manager = newManager();
+    assertThat(manager.getMetadataPath()).isEqualTo(dataDir.resolve("idp-metadata.xml").toString());
+    assertThat(localCopy()).isEqualTo(METADATA_V1);
+  }
+
+  @Test
+  public void revalidatesWithEtag() throws Exception {
+    IdpMetadataManager manager = newManager();
+    assertThat(manager.refresh()).isTrue();
+    assertThat(manager.refresh()).isFalse();
+    assertThat(notModified.get()).isEqualTo(1);
+
+    body = METADATA_V2;
+    etag = "\"v2\"";
+    assertThat(manager.refresh()).isTrue();
+    assertThat(localCopy()).isEqualTo(METADATA_V2);
+  }
+
+  @Test
+  public void keepsLastKnownGoodCopyWhenNewMetadataIsInvalid() throws Exception {
+    IdpMetadataManager manager = newManager();
+    AtomicInteger changes = new AtomicInteger();
+    manager.addListener(changes::incrementAndGet);
+    manager.refresh();
+
+    body = "<html><body>Maintenance</body></html>";
+    etag = "\"maintenance\"";
+    assertThrows(IOException.class, manager::refresh);
+    assertThat(localCopy()).isEqualTo(METADATA_V1);
+    assertThat(changes.get()).isEqualTo(1);
+    try (Stream<Path> files = Files.list(dataDir)) {
+      assertThat(files.map(f -> f.getFileName().toString()).collect(Collectors.toList()))
+          .containsExactly("idp-metadata.xml", "idp-metadata.properties");
+    }
+  }
+
+  @Test
+  public void usesLocalCopyWhenIdpIsDownOnRestart() throws Exception {
+    newManager().refresh();
+    available = false;
+
+    IdpMetadataManager restarted = newManager();
+    assertThat(restarted.getMetadataPath())
+        .isEqualTo(dataDir.resolve("idp-metadata.xml").toString());
+    assertThat(requests.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void servesSnapshotUntilMetadataIsRefreshed() throws Exception {
+    body = IDP_METADATA;
+    newManager(true).refresh();
+    available = false;
+
+    IdpMetadataManager restarted = newManager(true);
+    String minimal = dataDir.resolve("idp-metadata-minimal.xml").toString();
+    assertThat(restarted.getMetadataPath()).isEqualTo(minimal);
+    assertThrows(IOException.class, restarted::refresh);
+    assertThat(restarted.getMetadataPath()).isEqualTo(minimal);
+
+    available = true;
+    restarted.refresh();
+    assertThat(restarted.getMetadataPath())
+        .isEqualTo(dataDir.resolve("idp-metadata.xml").toString());
+  }
+
+  @Test
+  public void backsOffFailedRevalidations() {
+    assertThat(IdpMetadataManager.revalidationRetryDelay(1)).isEqualTo(Duration.ofSeconds(10));
+    assertThat(IdpMetadataManager.revalidationRetryDelay(2)).isEqualTo(Duration.ofSeconds(20));
+    assertThat(IdpMetadataManager.revalidationRetryDelay(100)).isEqualTo(Duration.ofMinutes(15));
+  }
+
+  private IdpMetadataManager newManager() throws IOException {
+    return newManager(false);
+  }
+
+  private IdpMetadataManager newManager(boolean snapshot) throws IOException {
+    Config cfg = new Config();
+    cfg.setBoolean("saml", null, "metadataSnapshot", snapshot);
+    cfg.setString(
+        "saml",
+        null,
+        "metadataPath",
+        "http://localhost:" + server.getAddress().getPort() + "/metadata");
+    SamlConfig samlConfig = new SamlConfig(cfg, new SitePaths(tmp.getRoot().toPath()));
+    return new IdpMetadataManager(samlConfig, dataDir, null);
+  }
+
+  private String localCopy() throws IOException {
+    return new String(Files.readAllBytes(dataDir.resolve("idp-metadata.xml")), UTF_8);
+  }
+
+  private void serveMetadata(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    if (!available) {
+      exchange.sendResponseHeaders(503, -1);
+      exchange.close();
+      return;
+    }
+    String currentEtag = etag;
+    if (currentEtag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      notModified.incrementAndGet();
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    byte[] content = body.getBytes(UTF_8);
+    exchange.getResponseHeaders().set("ETag", currentEtag);
+    exchange.getResponseHeaders().set("Content-Type", "application/samlmetadata+xml");
+    exchange.sendResponseHeaders(200, content.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(content);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.googlesource.gerrit.plugins.saml.MetadataEntityFilter.MD_NS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+public class IdpMetadataSnapshotTest {
+  private static final String METADATA =
+      "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+          + " xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\""
+          + " entityID=\"https://idp.example.com\">"
+          + "<md:IDPSSODescriptor WantAuthnRequestsSigned=\"true\""
+          + " protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+          + "<md:KeyDescriptor use=\"signing\"><ds:KeyInfo><ds:X509Data>"
+          + "<ds:X509Certificate>AQIDBA==</ds:X509Certificate>"
+          + "</ds:X509Data></ds:KeyInfo></md:KeyDescriptor>"
+          + "<md:NameIDFormat>urn:oasis:names:tc:SAML:2.0:nameid-format:persistent"
+          + "</md:NameIDFormat>"
+          + "<md:SingleSignOnService"
+          + " Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\""
+          + " Location=\"https://idp.example.com/sso\"/>"
+          + "</md:IDPSSODescriptor>"
+          + "</md:EntityDescriptor>";
+
+  @Test
+  public void roundTrips() throws Exception {
+    IdpMetadataSnapshot snapshot = IdpMetadataSnapshot.fromMetadata("source", bytes(METADATA));
+    IdpMetadataSnapshot copy = IdpMetadataSnapshot.deserialize(snapshot.serialize());
+
+    assertThat(copy.source).isEqualTo("source");
+    assertThat(copy.entities).hasSize(1);
+    IdpMetadataSnapshot.Entity entity = copy.entities.get(0);
+    assertThat(entity.entityId).isEqualTo("https://idp.example.com");
+    assertThat(entity.wantAuthnRequestsSigned).isTrue();
+    assertThat(entity.keys).hasSize(1);
+    assertThat(entity.keys.get(0).use).isEqualTo("signing");
+    assertThat(entity.keys.get(0).certificate).isEqualTo(new byte[] {1, 2, 3, 4});
+    assertThat(entity.endpoints).hasSize(1);
+    assertThat(entity.endpoints.get(0).location).isEqualTo("https://idp.example.com/sso");
+    assertThat(entity.nameIdFormats)
+        .containsExactly("urn:oasis:names:tc:SAML:2.0:nameid-format:persistent");
+  }
+
+  @Test
+  public void detectsCorruption() throws Exception {
+    byte[] data = IdpMetadataSnapshot.fromMetadata("source", bytes(METADATA)).serialize();
+    data[data.length / 2] ^= 1;
+    assertThrows(IOException.class, () -> IdpMetadataSnapshot.deserialize(data));
+  }
+
+  @Test
+  public void rejectsMetadataWithoutIdentityProvider() {
+    assertThrows(
+        IOException.class,
+        () ->
+            IdpMetadataSnapshot.fromMetadata(
+                "source",
+                bytes("<md:EntityDescriptor xmlns:md=\"" + MD_NS + "\" entityID=\"sp\"/>")));
+  }
+
+  @Test
+  public void synthesizesMetadata() throws Exception {
+    byte[] metadata = IdpMetadataSnapshot.fromMetadata("source", bytes(METADATA)).toMetadata();
+
+    Element root = IdpMetadataManager.parse(metadata).getDocumentElement();
+    assertThat(root.getAttribute("entityID")).isEqualTo("https://idp.example.com");
+    Element sso = (Element) root.getElementsByTagNameNS(MD_NS, "SingleSignOnService").item(0);
+    assertThat(sso.getAttribute("Location")).isEqualTo("https://idp.example.com/sso");
+    assertThat(
+            root.getElementsByTagNameNS("http://www.w3.org/2000/09/xmldsig#", "X509Certificate")
+                .item(0)
+                .getTextContent())
+        .isEqualTo("AQIDBA==");
+    assertThat(IdpMetadataSnapshot.fromMetadata("source", metadata).serialize())
+        .isEqualTo(IdpMetadataSnapshot.fromMetadata("source", bytes(METADATA)).serialize());
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(UTF_8);
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+public class MembershipFingerprintStoreTest {
+  private static final Account.Id JDOE = Account.id(1000);
+  private static final Account.Id JROE = Account.id(1001);
+  private static final long DEVELOPERS =
+      MembershipFingerprintStore.fingerprint(ImmutableList.of("developers"));
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path dataDir;
+  private final WorkQueue workQueue = mock(WorkQueue.class);
+  private final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+
+  @Before
+  public void setUp() throws Exception {
+    dataDir = tmp.newFolder("data").toPath();
+    doReturn(executor).when(workQueue).getDefaultQueue();
+  }
+
+  @Test
+  public void fingerprintIgnoresOrderAndDuplicates() {
+    assertThat(MembershipFingerprintStore.fingerprint(ImmutableList.of("a", "b", "a")))
+        .isEqualTo(MembershipFingerprintStore.fingerprint(ImmutableList.of("b", "a")));
+    assertThat(MembershipFingerprintStore.fingerprint(ImmutableList.of("ab")))
+        .isNotEqualTo(MembershipFingerprintStore.fingerprint(ImmutableList.of("a", "b")));
+  }
+
+  @Test
+  public void keepsFingerprintsAcrossRestarts() throws Exception {
+    MembershipFingerprintStore store = newStore("1 d");
+    store.start();
+    store.record(JDOE, DEVELOPERS);
+    assertThat(store.isUnchanged(JDOE, DEVELOPERS)).isTrue();
+    store.stop();
+
+    MembershipFingerprintStore restarted = newStore("1 d");
+    restarted.start();
+    assertThat(restarted.isUnchanged(JDOE, DEVELOPERS)).isTrue();
+    assertThat(restarted.isUnchanged(JDOE, DEVELOPERS + 1)).isFalse();
+    assertThat(restarted.isUnchanged(JROE, DEVELOPERS)).isFalse();
+  }
+
+  @Test
+  public void flushesChangedFingerprintsInBackground() throws Exception {
+    MembershipFingerprintStore store = newStore("1 d");
+    store.start();
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor).scheduleAtFixedRate(flush.capture(), anyLong(), anyLong(), any());
+
+    flush.getValue().run();
+    assertThat(Files.exists(file())).isFalse();
+
+    long before = System.currentTimeMillis();
+    store.record(JDOE, DEVELOPERS);
+    long after = System.currentTimeMillis();
+    flush.getValue().run();
+    List<String> lines = Files.readAllLines(file(), UTF_8);
+    assertThat(lines).hasSize(1);
+    String[] fields = lines.get(0).split(" ");
+    assertThat(fields[0]).isEqualTo("1000");
+    assertThat(fields[1]).isEqualTo(Long.toHexString(DEVELOPERS));
+    assertThat(Long.parseLong(fields[2])).isIn(Range.closed(before, after));
+  }
+
+  @Test
+  public void ignoresFingerprintsOlderThanMaxAge() throws Exception {
+    long now = System.currentTimeMillis();
+    Files.write(
+        file(),
+        String.format(
+                "1000 %x %d\n1001 %x %d\n",
+                DEVELOPERS,
+                now - TimeUnit.HOURS.toMillis(1),
+                DEVELOPERS,
+                now - TimeUnit.DAYS.toMillis(2))
+            .getBytes(UTF_8));
+
+    MembershipFingerprintStore store = newStore("1 d");
+    store.start();
+    assertThat(store.isUnchanged(JDOE, DEVELOPERS)).isTrue();
+    assertThat(store.isUnchanged(JROE, DEVELOPERS)).isFalse();
+  }
+
+  @Test
+  public void ignoresUnreadableFile() throws Exception {
+    Files.write(file(), String.format("1000 %x %s\n", DEVELOPERS, "yesterday").getBytes(UTF_8));
+
+    MembershipFingerprintStore store = newStore("1 d");
+    store.start();
+    assertThat(store.isUnchanged(JDOE, DEVELOPERS)).isFalse();
+  }
+
+  @Test
+  public void isDisabledByDefault() throws Exception {
+    MembershipFingerprintStore store = newStore(null);
+    store.start();
+    store.record(JDOE, DEVELOPERS);
+
+    assertThat(store.isEnabled()).isFalse();
+    assertThat(store.isUnchanged(JDOE, DEVELOPERS)).isFalse();
+    store.stop();
+    assertThat(Files.exists(file())).isFalse();
+    verifyNoInteractions(workQueue);
+  }
+
+  private MembershipFingerprintStore newStore(String maxAge) {
+    Config cfg = new Config();
+    if (maxAge != null) {
+      cfg.setString("saml", null, "membershipFingerprintMaxAge", maxAge);
+    }
+    return new MembershipFingerprintStore(
+        new SamlConfig(cfg, new SitePaths(tmp.getRoot().toPath())), dataDir, workQueue);
+  }
+
+  private Path file() {
+    return dataDir.resolve("membership-fingerprints");
+  }
+}
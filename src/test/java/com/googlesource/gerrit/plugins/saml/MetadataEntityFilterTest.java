@@ -0,0 +1,88 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.googlesource.gerrit.plugins.saml.MetadataEntityFilter.MD_NS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+public class MetadataEntityFilterTest {
+  private static final String AGGREGATE =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+          + "<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+          + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
+          + "<md:EntityDescriptor entityID=\"https://a.example.com\">"
+          + "<md:IDPSSODescriptor"
+          + " protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\"/>"
+          + "</md:EntityDescriptor>"
+          + "<md:EntitiesDescriptor Name=\"nested\">"
+          + "<md:EntityDescriptor entityID=\"https://b.example.com\">"
+          + "<md:RoleDescriptor xsi:type=\"md:Custom\"/>"
+          + "</md:EntityDescriptor>"
+          + "</md:EntitiesDescriptor>"
+          + "<md:EntityDescriptor entityID=\"https://c.example.com\"/>"
+          + "</md:EntitiesDescriptor>";
+
+  @Test
+  public void extractsSingleEntity() throws Exception {
+    Element root = filter("https://a.example.com");
+    assertThat(root.getLocalName()).isEqualTo("EntityDescriptor");
+    assertThat(root.getAttribute("entityID")).isEqualTo("https://a.example.com");
+    assertThat(root.getElementsByTagNameNS(MD_NS, "IDPSSODescriptor").getLength()).isEqualTo(1);
+  }
+
+  @Test
+  public void keepsNamespacesDeclaredOnAncestors() throws Exception {
+    Element root = filter("https://b.example.com");
+    assertThat(root.getAttribute("entityID")).isEqualTo("https://b.example.com");
+    assertThat(root.lookupNamespaceURI("xsi"))
+        .isEqualTo("http://www.w3.org/2001/XMLSchema-instance");
+    assertThat(root.lookupNamespaceURI("md")).isEqualTo(MD_NS);
+  }
+
+  @Test
+  public void wrapsSeveralEntities() throws Exception {
+    Element root = filter("https://a.example.com", "https://c.example.com");
+    assertThat(root.getLocalName()).isEqualTo("EntitiesDescriptor");
+    assertThat(root.getElementsByTagNameNS(MD_NS, "EntityDescriptor").getLength()).isEqualTo(2);
+  }
+
+  @Test
+  public void failsWhenEntityIsMissing() {
+    assertThrows(IOException.class, () -> filter("https://missing.example.com"));
+  }
+
+  @Test
+  public void rejectsOtherDocuments() {
+    MetadataEntityFilter filter = new MetadataEntityFilter(ImmutableList.of("x"));
+    assertThrows(
+        IOException.class,
+        () -> filter.filter(new ByteArrayInputStream("<html/>".getBytes(UTF_8))));
+  }
+
+  private static Element filter(String... entityIds) throws IOException {
+    byte[] filtered =
+        new MetadataEntityFilter(ImmutableList.copyOf(entityIds))
+            .filter(new ByteArrayInputStream(AGGREGATE.getBytes(UTF_8)));
+    return IdpMetadataManager.parse(filtered).getDocumentElement();
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import org.junit.Test;
+
+public class RelayStateTokenTest {
+  private static final byte[] SECRET = "secret".getBytes(UTF_8);
+  private static final Instant NOW = Instant.parse("2026-01-01T10:00:00Z");
+
+  private static final String NONCE = "bm9uY2U";
+
+  @Test
+  public void roundTrip() {
+    RelayStateToken token = newToken(NOW);
+    assertThat(token.verify(token.sign(NONCE, "/q/status:open"), NONCE))
+        .hasValue("/q/status:open");
+  }
+
+  @Test
+  public void rejectsTokenWithOtherNonce() {
+    RelayStateToken token = newToken(NOW);
+    String signed = token.sign(NONCE, "/");
+    assertThat(token.verify(signed, token.newNonce())).isEmpty();
+    assertThat(token.verify(signed, null)).isEmpty();
+  }
+
+  @Test
+  public void rejectsExpiredToken() {
+    String signed = newToken(NOW).sign(NONCE, "/");
+    assertThat(newToken(NOW.plus(Duration.ofMinutes(11))).verify(signed, NONCE)).isEmpty();
+  }
+
+  @Test
+  public void rejectsTamperedToken() {
+    RelayStateToken token = newToken(NOW);
+    String signed = token.sign(NONCE, "/");
+    String tampered = "9" + signed;
+    assertThat(token.verify(tampered, NONCE)).isEmpty();
+    assertThat(token.verify("/", NONCE)).isEmpty();
+    assertThat(token.verify(null, NONCE)).isEmpty();
+  }
+
+  @Test
+  public void rejectsTokenSignedWithOtherSecret() {
+    String signed =
+        new RelayStateToken("other".getBytes(UTF_8), Duration.ofMinutes(10), clock(NOW))
+            .sign(NONCE, "/");
+    assertThat(newToken(NOW).verify(signed, NONCE)).isEmpty();
+  }
+
+  private static RelayStateToken newToken(Instant now) {
+    return new RelayStateToken(SECRET, Duration.ofMinutes(10), clock(now));
+  }
+
+  private static Clock clock(Instant now) {
+    return Clock.fixed(now, ZoneOffset.UTC);
+  }
+}
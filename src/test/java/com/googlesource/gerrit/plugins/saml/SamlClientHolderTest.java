@@ -0,0 +1,106 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opensaml.security.credential.BasicCredential;
+import org.pac4j.saml.client.SAML2Client;
+import org.pac4j.saml.crypto.CredentialProvider;
+
+public class SamlClientHolderTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final SamlClientProvider clientProvider = mock(SamlClientProvider.class);
+  private KeyPair keyPair;
+  private SamlClientHolder holder;
+  private SAML2Client initial;
+
+  @Before
+  public void setUp() throws Exception {
+    keyPair = newKeyPair();
+    holder =
+        new SamlClientHolder(
+            clientProvider,
+            new SamlConfig(new Config(), new SitePaths(tmp.getRoot().toPath())),
+            mock(IdpMetadataManager.class),
+            mock(WorkQueue.class));
+    initial = newClient(keyPair);
+    doReturn(initial).when(clientProvider).get();
+    assertThat(holder.get()).isSameInstanceAs(initial);
+  }
+
+  @Test
+  public void keepsPreviousClientWhenKeyPairChanged() throws Exception {
+    SAML2Client rotated = newClient(newKeyPair());
+    doReturn(rotated).when(clientProvider).get();
+
+    assertThat(holder.reload()).isTrue();
+    assertThat(holder.get()).isSameInstanceAs(rotated);
+    assertThat(holder.getRetired()).hasValue(initial);
+  }
+
+  @Test
+  public void dropsPreviousClientWhenOnlyMetadataChanged() throws Exception {
+    KeyPair rotatedKeyPair = newKeyPair();
+    doReturn(newClient(rotatedKeyPair)).when(clientProvider).get();
+    assertThat(holder.reload()).isTrue();
+    assertThat(holder.getRetired()).hasValue(initial);
+
+    SAML2Client refreshed = newClient(rotatedKeyPair);
+    doReturn(refreshed).when(clientProvider).get();
+
+    assertThat(holder.reload()).isTrue();
+    assertThat(holder.get()).isSameInstanceAs(refreshed);
+    assertThat(holder.getRetired()).isEmpty();
+  }
+
+  @Test
+  public void keepsCurrentClientWhenKeystoreCannotSign() throws Exception {
+    KeyPair broken = new KeyPair(newKeyPair().getPublic(), keyPair.getPrivate());
+    doReturn(newClient(broken)).when(clientProvider).get();
+
+    assertThat(holder.reload()).isFalse();
+    assertThat(holder.get()).isSameInstanceAs(initial);
+    assertThat(holder.getRetired()).isEmpty();
+  }
+
+  private static SAML2Client newClient(KeyPair keyPair) {
+    CredentialProvider credentials = mock(CredentialProvider.class);
+    doReturn(new BasicCredential(keyPair.getPublic(), keyPair.getPrivate()))
+        .when(credentials)
+        .getCredential();
+    SAML2Client client = mock(SAML2Client.class);
+    doReturn(credentials).when(client).getCredentialProvider();
+    return client;
+  }
+
+  private static KeyPair newKeyPair() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    return generator.generateKeyPair();
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.git.WorkQueue;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opensaml.security.credential.BasicCredential;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.saml.client.SAML2Client;
+import org.pac4j.saml.crypto.CredentialProvider;
+
+public class SamlClientWarmupTest {
+  private final WorkQueue workQueue = mock(WorkQueue.class);
+  private final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+  private final Future<?> future = mock(Future.class);
+
+  @Before
+  public void setUp() {
+    doReturn(executor).when(workQueue).getDefaultQueue();
+    doReturn(future).when(executor).submit(any(Runnable.class));
+  }
+
+  @Test
+  public void isReadyOnceClientIsInitialized() throws Exception {
+    SAML2Client client = newClient(newKeyPair());
+    SamlClientWarmup warmup = warmUp(client);
+
+    assertThat(warmup.isReady()).isTrue();
+    verify(client).init();
+  }
+
+  @Test
+  public void isNotReadyWhenKeystoreCannotSign() throws Exception {
+    KeyPair broken = new KeyPair(newKeyPair().getPublic(), newKeyPair().getPrivate());
+    SAML2Client client = newClient(broken);
+
+    assertThat(warmUp(client).isReady()).isFalse();
+  }
+
+  @Test
+  public void isNotReadyWhenMetadataCannotBeResolved() throws Exception {
+    SAML2Client client = newClient(newKeyPair());
+    doThrow(new TechnicalException("metadata unavailable")).when(client).init();
+
+    assertThat(warmUp(client).isReady()).isFalse();
+  }
+
+  @Test
+  public void stopCancelsWarmup() throws Exception {
+    SamlClientWarmup warmup =
+        new SamlClientWarmup(() -> mock(SAML2Client.class), workQueue, new DisabledMetricMaker());
+    warmup.start();
+    warmup.stop();
+
+    verify(future).cancel(true);
+    assertThat(warmup.isReady()).isFalse();
+  }
+
+  /** Starts a warm-up of the client and runs it. */
+  private SamlClientWarmup warmUp(SAML2Client client) {
+    SamlClientWarmup warmup =
+        new SamlClientWarmup(() -> client, workQueue, new DisabledMetricMaker());
+    warmup.start();
+    ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor).submit(task.capture());
+    assertThat(warmup.isReady()).isFalse();
+    task.getValue().run();
+    return warmup;
+  }
+
+  private static SAML2Client newClient(KeyPair keyPair) {
+    CredentialProvider credentials = mock(CredentialProvider.class);
+    doReturn(new BasicCredential(keyPair.getPublic(), keyPair.getPrivate()))
+        .when(credentials)
+        .getCredential();
+    SAML2Client client = mock(SAML2Client.class);
+    doReturn(credentials).when(client).getCredentialProvider();
+    return client;
+  }
+
+  private static KeyPair newKeyPair() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    return generator.generateKeyPair();
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import com.google.gerrit.server.config.ConfigUpdatedEvent;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.UpdateResult;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SamlConfigHolderTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final SamlClientPool identityProviders = mock(SamlClientPool.class);
+  private final Provider<SamlClientPool> identityProvidersProvider = () -> identityProviders;
+  private SitePaths sitePaths;
+
+  @Before
+  public void setUp() throws Exception {
+    sitePaths = new SitePaths(tmp.getRoot().toPath());
+  }
+
+  @Test
+  public void reloadsValidConfig() throws Exception {
+    Config oldConfig = config("CN=gerrit-.*");
+    SamlConfigHolder holder = holder(oldConfig);
+    SamlConfig previous = holder.get();
+
+    Config newConfig = config("CN=gerrit-admins,.*");
+    assertThat(holder.configUpdated(new ConfigUpdatedEvent(oldConfig, newConfig)))
+        .containsKey(UpdateResult.APPLIED);
+    assertThat(holder.get().getGroupIncludes()).containsExactly("CN=gerrit-admins,.*");
+    verify(identityProviders).onConfigUpdated(previous, holder.get());
+  }
+
+  @Test
+  public void keepsCurrentConfigWhenReloadedOneIsInvalid() throws Exception {
+    Config oldConfig = config("CN=gerrit-.*");
+    SamlConfigHolder holder = holder(oldConfig);
+    SamlConfig previous = holder.get();
+
+    Config newConfig = config("CN=(");
+    newConfig.setString("saml", "acquired", "groupInclude", "CN=(");
+    assertThat(holder.configUpdated(new ConfigUpdatedEvent(oldConfig, newConfig)))
+        .containsKey(UpdateResult.REJECTED);
+    assertThat(holder.get()).isSameInstanceAs(previous);
+    verifyNoInteractions(identityProviders);
+  }
+
+  @Test
+  public void keepsCurrentConfigWhenReloadedTransformIsInvalid() throws Exception {
+    Config oldConfig = config("CN=gerrit-.*");
+    SamlConfigHolder holder = holder(oldConfig);
+    SamlConfig previous = holder.get();
+
+    Config newConfig = config("CN=gerrit-.*");
+    newConfig.setString("saml", null, "userNameTransform", "regex:(");
+    assertThat(holder.configUpdated(new ConfigUpdatedEvent(oldConfig, newConfig)))
+        .containsKey(UpdateResult.REJECTED);
+    assertThat(holder.get()).isSameInstanceAs(previous);
+  }
+
+  @Test
+  public void rejectsInvalidIdentityProviderRulesOnLoad() throws Exception {
+    Config cfg = config("CN=gerrit-.*");
+    cfg.setString("saml", "acquired", "groupRename", "CN=gerrit-.*");
+
+    assertThrows(ProvisionException.class, () -> holder(cfg));
+  }
+
+  @Test
+  public void rejectsIdentityProviderStrippingDomainOfUserNames() throws Exception {
+    Config cfg = config("CN=gerrit-.*");
+    cfg.setString("saml", "acquired", "userNameTransform", "stripDomain");
+
+    ProvisionException e = assertThrows(ProvisionException.class, () -> holder(cfg));
+    assertThat(e).hasMessageThat().contains("saml.acquired.userNameTransform");
+  }
+
+  private SamlConfigHolder holder(Config cfg) {
+    return new SamlConfigHolder(
+        new SamlConfig(cfg, sitePaths), sitePaths, identityProvidersProvider);
+  }
+
+  private static Config config(String groupInclude) {
+    Config cfg = new Config();
+    cfg.setString("saml", null, "groupInclude", groupInclude);
+    return cfg;
+  }
+}
@@ -0,0 +1,60 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.server.config.SitePaths;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SamlConfigTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void namedIdentityProvidersInheritSharedSettings() throws Exception {
+    Config cfg = new Config();
+    cfg.setString("saml", null, "metadataPath", "https://default.example.com/metadata");
+    cfg.setString("saml", null, "userNameAttr", "uid");
+    cfg.setString("saml", null, "emailDomain", "example.com");
+    cfg.setString("saml", null, "userNameTransform", "stripDomain");
+    cfg.setString("saml", "acquired", "metadataPath", "https://acquired.example.com/metadata");
+    cfg.setString("saml", "acquired", "emailDomain", "Acquired.Example.com");
+    cfg.setString("saml", "acquired", "displayNameAttr", "cn");
+
+    SamlConfig samlConfig = new SamlConfig(cfg, new SitePaths(tmp.getRoot().toPath()));
+    assertThat(samlConfig.getIdentityProviders().keySet()).containsExactly("acquired");
+    assertThat(samlConfig.getEmailDomains()).containsExactly("example.com");
+
+    SamlConfig acquired = samlConfig.getIdentityProviders().get("acquired");
+    assertThat(acquired.getMetadataPath()).isEqualTo("https://acquired.example.com/metadata");
+    assertThat(acquired.getEmailDomains()).containsExactly("acquired.example.com");
+    assertThat(acquired.getUserNameAttr()).isEqualTo("uid");
+    assertThat(acquired.getDisplayNameAttr()).isEqualTo("cn");
+    assertThat(acquired.getUserNameTransforms()).isEmpty();
+    assertThat(acquired.getIdentityProviders()).isEmpty();
+  }
+
+  @Test
+  public void defaultNameIsReserved() throws Exception {
+    Config cfg = new Config();
+    cfg.setString("saml", "default", "metadataPath", "https://other.example.com/metadata");
+
+    SamlConfig samlConfig = new SamlConfig(cfg, new SitePaths(tmp.getRoot().toPath()));
+    assertThat(samlConfig.getIdentityProviders()).isEmpty();
+  }
+}
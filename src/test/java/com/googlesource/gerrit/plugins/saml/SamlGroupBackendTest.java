@@ -0,0 +1,106 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupDescription;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.account.GroupMembership;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SamlGroupBackendTest {
+  private static final Account.Id JDOE = Account.id(1000);
+  private static final AccountGroup.UUID DEVELOPERS = AccountGroup.uuid("saml:developers");
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void handlesOnlySamlGroupsInVirtualMode() throws Exception {
+    SamlGroupBackend backend = new SamlGroupBackend(store("virtual"));
+    assertThat(backend.handles(DEVELOPERS)).isTrue();
+    assertThat(backend.handles(AccountGroup.uuid("developers"))).isFalse();
+    assertThat(backend.handles(null)).isFalse();
+
+    assertThat(new SamlGroupBackend(store("internal")).handles(DEVELOPERS)).isFalse();
+  }
+
+  @Test
+  public void describesGroupByItsClaim() throws Exception {
+    SamlGroupBackend backend = new SamlGroupBackend(store("virtual"));
+    GroupDescription.Basic group = backend.get(DEVELOPERS);
+    assertThat(group.getGroupUUID()).isEqualTo(DEVELOPERS);
+    assertThat(group.getName()).isEqualTo("saml/developers");
+    assertThat(group.getUrl()).isNull();
+
+    assertThat(backend.get(AccountGroup.uuid("developers"))).isNull();
+  }
+
+  @Test
+  public void suggestsGroupsOfAnyAccountByNamePrefix() throws Exception {
+    VirtualMembershipStore store = store("virtual");
+    store.put(JDOE, ImmutableList.of("developers", "reviewers"));
+    store.put(Account.id(1001), ImmutableList.of("devops"));
+    SamlGroupBackend backend = new SamlGroupBackend(store);
+
+    assertThat(backend.suggest("saml/Dev", null))
+        .containsExactly(
+            GroupReference.create(DEVELOPERS, "saml/developers"),
+            GroupReference.create(AccountGroup.uuid("saml:devops"), "saml/devops"));
+    assertThat(new SamlGroupBackend(store("internal")).suggest("saml/", null)).isEmpty();
+  }
+
+  @Test
+  public void membershipsAreTheGroupsOfTheLastLogin() throws Exception {
+    VirtualMembershipStore store = store("virtual");
+    store.put(JDOE, ImmutableList.of("developers"));
+    SamlGroupBackend backend = new SamlGroupBackend(store);
+
+    GroupMembership memberships = backend.membershipsOf(user(JDOE));
+    assertThat(memberships.contains(DEVELOPERS)).isTrue();
+    assertThat(memberships.contains(AccountGroup.uuid("saml:reviewers"))).isFalse();
+    assertThat(backend.membershipsOf(user(Account.id(1001))).getKnownGroups()).isEmpty();
+
+    CurrentUser anonymous = mock(CurrentUser.class);
+    assertThat(backend.membershipsOf(anonymous)).isSameInstanceAs(GroupMembership.EMPTY);
+  }
+
+  private VirtualMembershipStore store(String membershipMode) throws Exception {
+    Config cfg = new Config();
+    cfg.setString("saml", null, "membershipMode", membershipMode);
+    return new VirtualMembershipStore(
+        new SamlConfig(cfg, new SitePaths(tmp.getRoot().toPath())),
+        tmp.getRoot().toPath(),
+        mock(WorkQueue.class));
+  }
+
+  private static CurrentUser user(Account.Id accountId) {
+    CurrentUser user = mock(CurrentUser.class);
+    doReturn(true).when(user).isIdentifiedUser();
+    doReturn(accountId).when(user).getAccountId();
+    return user;
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.server.account.GroupCache;
+import com.google.gerrit.server.group.db.Groups;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+public class SamlGroupIndexTest {
+  private static final AccountGroup.UUID DEVELOPERS = AccountGroup.uuid("developers-uuid");
+  private static final AccountGroup.UUID ADMINS = AccountGroup.uuid("admins-uuid");
+  private static final ImmutableSet<AccountGroup.UUID> ALL = ImmutableSet.of(DEVELOPERS, ADMINS);
+
+  private final Groups groups = mock(Groups.class);
+  private final GroupCache groupCache = mock(GroupCache.class);
+  private final SamlGroupIndex index = new SamlGroupIndex(groups, groupCache);
+
+  @Test
+  public void loadsSamlGroupsOnStart() throws Exception {
+    start();
+
+    assertThat(index.samlGroupsOf(ALL, c -> true)).containsExactly(DEVELOPERS);
+    assertThat(index.samlGroupsOf(ALL, c -> !c.equals("developers"))).isEmpty();
+    verifyNoInteractions(groupCache);
+  }
+
+  @Test
+  public void followsRenamesAndDeletions() throws Exception {
+    start();
+
+    cache(ADMINS, "saml/admins");
+    index.onGroupIndexed(ADMINS.get());
+    assertThat(index.samlGroupsOf(ALL, c -> true)).containsExactly(DEVELOPERS, ADMINS);
+
+    cache(DEVELOPERS, "developers");
+    index.onGroupIndexed(DEVELOPERS.get());
+    assertThat(index.samlGroupsOf(ALL, c -> true)).containsExactly(ADMINS);
+
+    doReturn(Optional.empty()).when(groupCache).get(ADMINS);
+    index.onGroupIndexed(ADMINS.get());
+    assertThat(index.samlGroupsOf(ALL, c -> true)).isEmpty();
+  }
+
+  @Test
+  public void looksUpGroupCacheWhenGroupsCannotBeLoaded() throws Exception {
+    doThrow(new IOException("broken")).when(groups).getAllGroupReferences();
+    index.start();
+
+    index.onGroupIndexed(ADMINS.get());
+    verifyNoInteractions(groupCache);
+
+    cache(DEVELOPERS, "saml/developers");
+    cache(ADMINS, "admins");
+    assertThat(index.samlGroupsOf(ALL, c -> true)).containsExactly(DEVELOPERS);
+    verify(groupCache).get(ADMINS);
+  }
+
+  private void start() throws Exception {
+    doReturn(
+            Stream.of(
+                GroupReference.create(DEVELOPERS, "saml/developers"),
+                GroupReference.create(ADMINS, "admins")))
+        .when(groups)
+        .getAllGroupReferences();
+    index.start();
+  }
+
+  private void cache(AccountGroup.UUID uuid, String name) {
+    InternalGroup group = mock(InternalGroup.class);
+    doReturn(name).when(group).getName();
+    doReturn(Optional.of(group)).when(groupCache).get(uuid);
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.exceptions.DuplicateKeyException;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.Sequences;
+import com.google.gerrit.server.account.AccountManager;
+import com.google.gerrit.server.account.AuthRequest;
+import com.google.gerrit.server.account.GroupCache;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.group.db.GroupsUpdate;
+import com.google.gerrit.server.group.db.InternalGroupCreation;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SamlMembershipTest {
+  private static final AccountGroup.NameKey DEVELOPERS = AccountGroup.nameKey("saml/developers");
+  private static final AccountGroup.UUID DEVELOPERS_UUID = AccountGroup.uuid("developers-uuid");
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final GroupCache groupCache = mock(GroupCache.class);
+  private final GroupsUpdate groupsUpdate = mock(GroupsUpdate.class);
+  private final SamlGroupIndex samlGroupIndex = mock(SamlGroupIndex.class);
+  private final AtomicReference<InternalGroup> created = new AtomicReference<>();
+  private SamlMembership membership;
+
+  @Before
+  public void setUp() throws Exception {
+    SamlConfigHolder samlConfigs = mock(SamlConfigHolder.class);
+    doReturn(new SamlConfig(new Config(), new SitePaths(tmp.getRoot().toPath())))
+        .when(samlConfigs)
+        .get();
+    doAnswer(invocation -> Optional.ofNullable(created.get())).when(groupCache).get(DEVELOPERS);
+    membership =
+        new SamlMembership(
+            samlConfigs,
+            () -> mock(SamlClientPool.class),
+            new PersonIdent("Gerrit Code Review", "gerrit@example.com"),
+            mock(AccountManager.class),
+            groupCache,
+            mock(IdentifiedUser.GenericFactory.class),
+            () -> groupsUpdate,
+            mock(Sequences.class),
+            mock(AuthRequest.Factory.class),
+            mock(GroupMembershipBatchUpdate.class),
+            mock(MembershipFingerprintStore.class),
+            samlGroupIndex,
+            mock(AccountIdCache.class),
+            mock(VirtualMembershipStore.class),
+            new DisabledMetricMaker());
+  }
+
+  @Test
+  public void createsNewGroupOnceForConcurrentLogins() throws Exception {
+    CountDownLatch creating = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              creating.countDown();
+              release.await();
+              created.set(group());
+              return created.get();
+            })
+        .when(groupsUpdate)
+        .createGroup(any(InternalGroupCreation.class), any());
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Optional<AccountGroup.UUID>>> logins = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        logins.add(executor.submit(() -> membership.getOrCreateGroup(DEVELOPERS, "developers")));
+      }
+      assertThat(creating.await(10, TimeUnit.SECONDS)).isTrue();
+      release.countDown();
+      for (Future<Optional<AccountGroup.UUID>> login : logins) {
+        assertThat(login.get(10, TimeUnit.SECONDS)).hasValue(DEVELOPERS_UUID);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(groupsUpdate, times(1)).createGroup(any(InternalGroupCreation.class), any());
+  }
+
+  @Test
+  public void remembersGroupNames() throws Exception {
+    created.set(group());
+
+    assertThat(membership.getOrCreateGroup(DEVELOPERS, "developers")).hasValue(DEVELOPERS_UUID);
+    assertThat(membership.getOrCreateGroup(DEVELOPERS, "developers")).hasValue(DEVELOPERS_UUID);
+    verify(groupCache, times(1)).get(DEVELOPERS);
+    verify(samlGroupIndex).add(created.get());
+  }
+
+  @Test
+  public void skipsGroupThatCannotBeCreatedForAWhile() throws Exception {
+    doThrow(new IOException("broken"))
+        .when(groupsUpdate)
+        .createGroup(any(InternalGroupCreation.class), any());
+
+    assertThat(membership.getOrCreateGroup(DEVELOPERS, "developers")).isEmpty();
+    assertThat(membership.getOrCreateGroup(DEVELOPERS, "developers")).isEmpty();
+    verify(groupsUpdate, times(1)).createGroup(any(InternalGroupCreation.class), any());
+  }
+
+  @Test
+  public void looksUpGroupCreatedByAnotherServer() throws Exception {
+    doAnswer(
+            invocation -> {
+              created.set(group());
+              throw new DuplicateKeyException("saml/developers exists");
+            })
+        .when(groupsUpdate)
+        .createGroup(any(InternalGroupCreation.class), any());
+
+    assertThat(membership.getOrCreateGroup(DEVELOPERS, "developers")).hasValue(DEVELOPERS_UUID);
+    verify(groupCache).evict(DEVELOPERS);
+  }
+
+  private static InternalGroup group() {
+    InternalGroup group = mock(InternalGroup.class);
+    doReturn(DEVELOPERS_UUID).when(group).getGroupUUID();
+    return group;
+  }
+}
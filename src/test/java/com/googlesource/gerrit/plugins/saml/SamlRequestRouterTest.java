@@ -0,0 +1,93 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.util.http.testutil.FakeHttpServletRequest;
+import com.googlesource.gerrit.plugins.saml.SamlRequestRouter.Route;
+import java.nio.file.Paths;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class SamlRequestRouterTest {
+  private final SamlRequestRouter router = newRouter(new Config());
+
+  @Test
+  public void routesLoginAndLogout() {
+    assertThat(router.route(request("", "GET", "/login"))).isEqualTo(Route.LOGIN);
+    assertThat(router.route(request("", "GET", "/login/q/status:open"))).isEqualTo(Route.LOGIN);
+    assertThat(router.route(request("", "GET", "/logout"))).isEqualTo(Route.LOGOUT);
+  }
+
+  @Test
+  public void routesBelowContextPath() {
+    assertThat(router.route(request("/r", "GET", "/login"))).isEqualTo(Route.LOGIN);
+    assertThat(router.route(request("/r", "POST", "/plugins/saml/callback")))
+        .isEqualTo(Route.POSTBACK);
+  }
+
+  @Test
+  public void postbackRequiresPost() {
+    assertThat(router.route(request("", "GET", "/plugins/saml/callback")))
+        .isEqualTo(Route.PASSTHROUGH);
+  }
+
+  @Test
+  public void doesNotMatchInsideOtherPaths() {
+    assertThat(router.route(request("", "GET", "/changes/123/login-fix")))
+        .isEqualTo(Route.PASSTHROUGH);
+    assertThat(router.route(request("", "GET", "/loginfo"))).isEqualTo(Route.PASSTHROUGH);
+  }
+
+  @Test
+  public void bypassesDefaultPaths() {
+    assertThat(router.route(request("", "GET", "/a/changes/"))).isEqualTo(Route.BYPASS);
+    assertThat(router.route(request("", "GET", "/static/logo.png"))).isEqualTo(Route.BYPASS);
+    assertThat(router.route(request("", "GET", "/project/info/refs"))).isEqualTo(Route.BYPASS);
+    assertThat(router.route(request("", "POST", "/project/git-upload-pack")))
+        .isEqualTo(Route.BYPASS);
+  }
+
+  @Test
+  public void bypassPathsAreConfigurable() {
+    Config cfg = new Config();
+    cfg.setString("saml", null, "bypassPath", "/metrics");
+    cfg.setBoolean("saml", null, "bypassGitHttp", false);
+    SamlRequestRouter configured = newRouter(cfg);
+
+    assertThat(configured.route(request("", "GET", "/metrics"))).isEqualTo(Route.BYPASS);
+    assertThat(configured.route(request("", "GET", "/a/changes/"))).isEqualTo(Route.PASSTHROUGH);
+    assertThat(configured.route(request("", "GET", "/project/info/refs")))
+        .isEqualTo(Route.PASSTHROUGH);
+  }
+
+  private static SamlRequestRouter newRouter(Config cfg) {
+    try {
+      return new SamlRequestRouter(new SamlConfig(cfg, new SitePaths(Paths.get("/tmp/site"))));
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static FakeHttpServletRequest request(String contextPath, String method, String path) {
+    FakeHttpServletRequest req =
+        new FakeHttpServletRequest("gerrit.example.com", 80, contextPath, "");
+    req.setMethod(method);
+    req.setPathInfo(path);
+    return req;
+  }
+}
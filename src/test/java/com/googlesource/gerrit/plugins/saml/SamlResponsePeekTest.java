@@ -0,0 +1,98 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.time.Instant;
+import java.util.Base64;
+import org.junit.Test;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.impl.AssertionBuilder;
+import org.opensaml.saml.saml2.core.impl.ConditionsBuilder;
+import org.pac4j.saml.credentials.SAML2Credentials;
+
+public class SamlResponsePeekTest {
+  private static final String RESPONSE =
+      "<samlp:Response xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\""
+          + " xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\""
+          + " ID=\"_response\" InResponseTo=\"_request\">"
+          + "<saml:Assertion ID=\"_assertion\">"
+          + "<saml:Subject><saml:SubjectConfirmation><saml:SubjectConfirmationData"
+          + " NotOnOrAfter=\"2026-01-01T10:05:00Z\"/></saml:SubjectConfirmation></saml:Subject>"
+          + "<saml:Conditions NotOnOrAfter=\"2026-01-01T10:10:00Z\"/>"
+          + "</saml:Assertion>"
+          + "</samlp:Response>";
+
+  @Test
+  public void readsAssertion() {
+    SamlResponsePeek peek = SamlResponsePeek.of(encode(RESPONSE)).get();
+    assertThat(peek.id).isEqualTo("_assertion");
+    assertThat(peek.notOnOrAfter).isEqualTo(Instant.parse("2026-01-01T10:05:00Z"));
+    assertThat(peek.replayKey("default")).isEqualTo("default _assertion");
+  }
+
+  @Test
+  public void replayKeyIgnoresUnsignedInResponseTo() {
+    String replayed = RESPONSE.replace("InResponseTo=\"_request\"", "InResponseTo=\"_other\"");
+    assertThat(replayed).isNotEqualTo(RESPONSE);
+
+    assertThat(SamlResponsePeek.of(encode(replayed)).get().replayKey("default"))
+        .isEqualTo(SamlResponsePeek.of(encode(RESPONSE)).get().replayKey("default"));
+  }
+
+  @Test
+  public void replayKeyIsQualifiedByIdentityProvider() {
+    SamlResponsePeek peek = SamlResponsePeek.of(encode(RESPONSE)).get();
+    assertThat(peek.replayKey("acquired")).isNotEqualTo(peek.replayKey("default"));
+  }
+
+  @Test
+  public void keysEncryptedAssertionOnDecryptedIdOnly() {
+    String encrypted =
+        "<samlp:Response xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\""
+            + " xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"_response\">"
+            + "<saml:EncryptedAssertion/>"
+            + "</samlp:Response>";
+    String replayed = encrypted.replace("ID=\"_response\"", "ID=\"_other\"");
+    assertThat(SamlResponsePeek.of(encode(encrypted)).get().isEncrypted()).isTrue();
+    assertThat(SamlResponsePeek.of(encode(replayed)).get().isEncrypted()).isTrue();
+
+    Assertion assertion = new AssertionBuilder().buildObject();
+    assertion.setID("_assertion");
+    assertion.setConditions(new ConditionsBuilder().buildObject());
+    SAML2Credentials credentials = mock(SAML2Credentials.class);
+    doReturn(assertion.getConditions()).when(credentials).getConditions();
+
+    SamlResponsePeek peek = SamlResponsePeek.ofDecrypted(credentials).get();
+    assertThat(peek.replayKey("default")).isEqualTo("default _assertion");
+    assertThat(peek.notOnOrAfter).isNull();
+    assertThat(SamlResponsePeek.ofDecrypted(mock(SAML2Credentials.class))).isEmpty();
+  }
+
+  @Test
+  public void ignoresOtherContent() {
+    assertThat(SamlResponsePeek.of(null)).isEmpty();
+    assertThat(SamlResponsePeek.of("not base64!")).isEmpty();
+    assertThat(SamlResponsePeek.of(encode("<html/>"))).isEmpty();
+  }
+
+  private static String encode(String xml) {
+    return Base64.getEncoder().encodeToString(xml.getBytes(UTF_8));
+  }
+}
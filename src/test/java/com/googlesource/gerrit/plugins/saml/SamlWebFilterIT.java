@@ -18,19 +18,26 @@ import static com.google.common.base.Strings.nullToEmpty;
 import static com.google.common.truth.Truth.assertThat;
 import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
 
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.config.GerritConfig;
 import com.google.gerrit.extensions.api.GerritApi;
 import com.google.gerrit.extensions.api.accounts.Accounts;
 import com.google.gerrit.extensions.client.AccountFieldName;
 import com.google.gerrit.extensions.common.AccountDetailInfo;
 import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.server.ServerInitiated;
+import com.google.gerrit.server.account.AccountCache;
 import com.google.gerrit.server.account.AccountsUpdate;
 import com.google.gerrit.server.account.Realm;
 import com.google.gerrit.server.config.AuthConfig;
@@ -97,6 +104,24 @@ public class SamlWebFilterIT extends AbstractDaemonTest {
     assertThat(account.name).isEqualTo(samlDisplayName);
   }
 
+  @Test
+  @GerritConfig(name = "saml.maxResponseSize", value = "1k")
+  public void rejectsCallbackLargerThanMaxResponseSize() throws Exception {
+    SamlWebFilter samlWebFilter = server.getTestInjector().getInstance(SamlWebFilter.class);
+
+    for (FakeHttpServletRequest req :
+        ImmutableList.of(
+            SamlWebFilterTest.callback(4096, "PHNhbWw+"),
+            SamlWebFilterTest.callback(-1, Strings.repeat("a", 4096)))) {
+      FakeHttpServletResponse res = new FakeHttpServletResponse();
+      FilterChain chain = mock(FilterChain.class);
+      samlWebFilter.doFilter(req, res, chain);
+
+      assertThat(res.getStatus()).isEqualTo(SC_REQUEST_ENTITY_TOO_LARGE);
+      verifyNoInteractions(chain);
+    }
+  }
+
   @Override
   public Module createModule() {
     return new com.googlesource.gerrit.plugins.saml.Module();
@@ -144,6 +169,27 @@ public class SamlWebFilterIT extends AbstractDaemonTest {
     assertThat(responseStatuses).containsExactly(SC_FORBIDDEN);
   }
 
+  @Test
+  public void doNotWriteAccountNameWhenUnchanged() throws Exception {
+    SamlWebFilter samlWebFilter =
+        newSamlWebFilter(
+            server.getTestInjector().getInstance(Realm.class),
+            newGerritApiMockFailingOnAccountsApi());
+    String currentName = gApi.accounts().id(user.username()).get().name;
+
+    HttpSession httpSession = mock(HttpSession.class);
+    AuthenticatedUser authenticatedUser =
+        new AuthenticatedUser(user.username(), currentName, user.email(), "externalId");
+    doReturn(authenticatedUser).when(httpSession).getAttribute(SamlWebFilter.SESSION_ATTR_USER);
+
+    FakeHttpServletRequest req = new FakeHttpServletRequestWithSession(httpSession);
+    req.setPathInfo(SamlWebFilter.GERRIT_LOGIN);
+    HttpServletResponse res = new FakeHttpServletResponse();
+
+    samlWebFilter.doFilter(req, res, mockFilterReturningStatusOK());
+    assertThat(res.getStatus()).isEqualTo(SC_OK);
+  }
+
   private FilterChain mockFilterReturningStatusOK() {
     return (request, response) ->
         ((HttpServletResponse) response).setStatus(HttpServletResponse.SC_OK);
@@ -172,13 +218,20 @@ public class SamlWebFilterIT extends AbstractDaemonTest {
     return new SamlWebFilter(
         testInjector.getInstance(AuthConfig.class),
         realm,
-        testInjector.getInstance(SamlConfig.class),
+        testInjector.getInstance(SamlConfigHolder.class),
         testInjector.getInstance(SamlMembership.class),
         Collections.emptySet(),
-        gerritApi,
-        testInjector.getInstance(Accounts.class),
+        new AccountNameUpdater(
+            gerritApi,
+            testInjector.getInstance(AccountCache.class),
+            testInjector.getInstance(AccountIdCache.class),
+            testInjector.getInstance(OneOffRequestContext.class),
+            testInjector.getInstance(DisplayNameCache.class),
+            testInjector.getInstance(SamlConfig.class),
+            testInjector.getInstance(MetricMaker.class)),
         null,
-        testInjector.getInstance(OneOffRequestContext.class));
+        testInjector.getInstance(AssertionReplayCache.class),
+        testInjector.getInstance(CallbackAdmissionControl.class));
   }
 
   @Test
@@ -209,7 +262,7 @@ public class SamlWebFilterIT extends AbstractDaemonTest {
     HttpSession session;
 
     public FakeHttpServletRequestWithSession(HttpSession session) {
-      super();
+      super("gerrit.example.com", 80, "", "");
       this.session = session;
     }
 
@@ -217,5 +270,10 @@ public class SamlWebFilterIT extends AbstractDaemonTest {
     public HttpSession getSession() {
       return session;
     }
+
+    @Override
+    public HttpSession getSession(boolean create) {
+      return session;
+    }
   }
 }
@@ -0,0 +1,59 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.googlesource.gerrit.plugins.saml.SamlWebFilter.exceedsMaxResponseSize;
+
+import com.google.common.base.Strings;
+import com.google.gerrit.util.http.testutil.FakeHttpServletRequest;
+import org.junit.Test;
+
+public class SamlWebFilterTest {
+  @Test
+  public void checksDeclaredLength() {
+    assertThat(exceedsMaxResponseSize(1024, callback(1024, ""))).isFalse();
+    assertThat(exceedsMaxResponseSize(1024, callback(1025, ""))).isTrue();
+  }
+
+  @Test
+  public void checksParameterOfChunkedRequest() {
+    assertThat(exceedsMaxResponseSize(1024, callback(-1, Strings.repeat("a", 1024)))).isFalse();
+    assertThat(exceedsMaxResponseSize(1024, callback(-1, Strings.repeat("a", 1025)))).isTrue();
+    assertThat(exceedsMaxResponseSize(1024, callback(-1, null))).isFalse();
+  }
+
+  @Test
+  public void zeroDisablesLimit() {
+    assertThat(exceedsMaxResponseSize(0, callback(Long.MAX_VALUE, ""))).isFalse();
+  }
+
+  /** A posted SAML response, with a declared length, or -1 when chunked. */
+  static FakeHttpServletRequest callback(long contentLength, String samlResponse) {
+    FakeHttpServletRequest req =
+        new FakeHttpServletRequest("gerrit.example.com", 80, "", "") {
+          @Override
+          public long getContentLengthLong() {
+            return contentLength;
+          }
+        };
+    req.setMethod("POST");
+    req.setPathInfo("/" + SamlWebFilter.SAML_CALLBACK);
+    if (samlResponse != null) {
+      req.setQueryString("SAMLResponse=" + samlResponse);
+    }
+    return req;
+  }
+}
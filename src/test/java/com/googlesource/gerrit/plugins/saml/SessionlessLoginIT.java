@@ -0,0 +1,277 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.account.Realm;
+import com.google.gerrit.server.config.AuthConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.testing.ConfigSuite;
+import com.google.gerrit.util.http.testutil.FakeHttpServletRequest;
+import com.google.gerrit.util.http.testutil.FakeHttpServletResponse;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import java.net.URLEncoder;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.FilterChain;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpSession;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.pac4j.core.context.J2EContext;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.saml.client.SAML2Client;
+import org.pac4j.saml.credentials.SAML2Credentials;
+import org.pac4j.saml.profile.SAML2Profile;
+import org.pac4j.saml.state.SAML2StateGenerator;
+import org.pac4j.saml.storage.SAMLMessageStorageFactory;
+
+/**
+ * Runs session-less logins through {@link SamlWebFilter}, with a client standing in for the
+ * identity provider: it issues numbered AuthnRequests, and answers the one named in the posted
+ * {@code SAMLResponse}, only when pac4j finds it in the message storage.
+ */
+public class SessionlessLoginIT extends AbstractDaemonTest {
+  private static final String CALLBACK = "/" + SamlWebFilter.SAML_CALLBACK;
+
+  @ConfigSuite.Default
+  public static Config setupSaml() throws ConfigInvalidException {
+    Config cfg = new Config();
+    cfg.fromText(
+        ""
+            + "[httpd]\n"
+            + "    filterClass = com.googlesource.gerrit.plugins.saml.SamlWebFilter\n"
+            + "[saml]\n"
+            + "    keystorePath = etc/samlKeystore.jks\n"
+            + "    metadataPath = http://localhost:8080/auth/realms/master/protocol/saml/descriptor\n"
+            + "    sessionlessLogin = true\n"
+            + "    relayStateSecret = secret\n"
+            + "    replayCacheSize = 0\n"
+            + "[auth]\n"
+            + "    type = HTTP\n"
+            + "    httpHeader = X-SAML-UserName\n"
+            + "    httpEmailHeader = X-SAML-EmailHeader\n"
+            + "    httpExternalIdHeader = X-SAML-ExternalId");
+    return cfg;
+  }
+
+  @Override
+  public Module createModule() {
+    return new com.googlesource.gerrit.plugins.saml.Module();
+  }
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private SamlWebFilter samlWebFilter;
+
+  @Before
+  public void setUp() throws Exception {
+    SAMLMessageStorageFactory storage =
+        new LoginNonceCookie.MessageStorageFactory(Duration.ofMinutes(10));
+    SAML2Client client = mock(SAML2Client.class);
+    doAnswer(
+            invocation -> {
+              J2EContext context = invocation.getArgument(0);
+              storage
+                  .getMessageStorage(context)
+                  .storeMessage("request-" + requests.incrementAndGet(), null);
+              return null;
+            })
+        .when(client)
+        .redirect(any());
+    doReturn(mock(SAML2Credentials.class)).when(client).getCredentials(any());
+    doAnswer(
+            invocation -> {
+              J2EContext context = invocation.getArgument(1);
+              String inResponseTo = context.getRequest().getParameter("SAMLResponse");
+              if (storage.getMessageStorage(context).retrieveMessage(inResponseTo) == null) {
+                throw new TechnicalException("InResponseTo does not match any AuthnRequest");
+              }
+              SAML2Profile profile = new SAML2Profile();
+              profile.setId(user.username());
+              profile.addAttribute("UserName", user.username());
+              profile.addAttribute("EmailAddress", user.email());
+              return profile;
+            })
+        .when(client)
+        .getUserProfile(any(), any());
+
+    Injector injector = server.getTestInjector();
+    SamlConfig samlConfig = injector.getInstance(SamlConfig.class);
+    SamlClientProvider clientProvider = mock(SamlClientProvider.class);
+    doReturn(client).when(clientProvider).get();
+    SamlClientHolder clients =
+        new SamlClientHolder(
+            clientProvider,
+            samlConfig,
+            injector.getInstance(IdpMetadataManager.class),
+            injector.getInstance(WorkQueue.class));
+    SamlClientPool identityProviders =
+        new SamlClientPool(
+            injector.getInstance(SamlConfigHolder.class),
+            clients,
+            clientProvider,
+            injector.getInstance(Key.get(Path.class, LibModuleData.class)),
+            injector.getInstance(WorkQueue.class),
+            injector.getInstance(MetricMaker.class));
+    samlWebFilter =
+        new SamlWebFilter(
+            injector.getInstance(AuthConfig.class),
+            injector.getInstance(Realm.class),
+            injector.getInstance(SamlConfigHolder.class),
+            injector.getInstance(SamlMembership.class),
+            Collections.emptySet(),
+            injector.getInstance(AccountNameUpdater.class),
+            identityProviders,
+            injector.getInstance(AssertionReplayCache.class),
+            injector.getInstance(CallbackAdmissionControl.class));
+  }
+
+  @Test
+  public void completesLoginInTheBrowserThatStartedIt() throws Exception {
+    Browser browser = new Browser();
+    String relayState = browser.startLogin("/c/project/+/1");
+
+    FakeHttpServletResponse res = browser.postResponse(relayState, "request-1");
+
+    assertThat(res.getStatus()).isEqualTo(302);
+    assertThat(res.getHeader("Location")).isEqualTo("/login/c/project/+/1");
+    verify(browser.session).setAttribute(eq(SamlWebFilter.SESSION_ATTR_USER), any());
+    assertThat(browser.cookie).isEmpty();
+  }
+
+  @Test
+  public void rejectsResponsePostedByBrowserWithoutLoginCookie() throws Exception {
+    String relayState = new Browser().startLogin("/");
+
+    Browser attacker = new Browser();
+    FakeHttpServletResponse res = attacker.postResponse(relayState, "request-1");
+
+    assertThat(res.getStatus()).isEqualTo(SC_FORBIDDEN);
+    verifyNoInteractions(attacker.session);
+  }
+
+  @Test
+  public void rejectsResponseReplayedInBrowserThatStartedAnotherLogin() throws Exception {
+    String relayState = new Browser().startLogin("/");
+    Browser other = new Browser();
+    String otherRelayState = other.startLogin("/");
+
+    assertThat(other.postResponse(relayState, "request-1").getStatus()).isEqualTo(SC_FORBIDDEN);
+    assertThrows(TechnicalException.class, () -> other.postResponse(otherRelayState, "request-1"));
+    verifyNoInteractions(other.session);
+  }
+
+  /** Keeps the login cookie between the requests of one browser, as a browser would. */
+  private class Browser {
+    final HttpSession session = mock(HttpSession.class);
+    String cookie = "";
+
+    String startLogin(String redirectUri) throws Exception {
+      Request req = new Request();
+      req.setPathInfo(SamlWebFilter.GERRIT_LOGIN + redirectUri);
+      send(req);
+      return (String)
+          req.getAttribute(
+              "Gerrit-Saml-Request-" + SAML2StateGenerator.SAML_RELAY_STATE_ATTRIBUTE);
+    }
+
+    FakeHttpServletResponse postResponse(String relayState, String inResponseTo)
+        throws Exception {
+      Request req = new Request();
+      req.setMethod("POST");
+      req.setPathInfo(CALLBACK);
+      req.setQueryString(
+          "RelayState="
+              + URLEncoder.encode(relayState, UTF_8.name())
+              + "&SAMLResponse="
+              + inResponseTo);
+      return send(req);
+    }
+
+    private FakeHttpServletResponse send(Request req) throws Exception {
+      List<String> setCookies = new ArrayList<>();
+      FakeHttpServletResponse res =
+          new FakeHttpServletResponse() {
+            @Override
+            public synchronized void addHeader(String name, String value) {
+              super.addHeader(name, value);
+              if (name.equalsIgnoreCase("Set-Cookie")) {
+                setCookies.add(value);
+              }
+            }
+          };
+      samlWebFilter.doFilter(req, res, mock(FilterChain.class));
+      for (String setCookie : setCookies) {
+        String pair = setCookie.substring(0, setCookie.indexOf(';'));
+        cookie = pair.substring(pair.indexOf('=') + 1);
+      }
+      return res;
+    }
+
+    private class Request extends FakeHttpServletRequest {
+      Request() {
+        super("gerrit.example.com", 80, "", "");
+      }
+
+      @Override
+      public Cookie[] getCookies() {
+        return cookie.isEmpty()
+            ? new Cookie[0]
+            : new Cookie[] {new Cookie(LoginNonceCookie.NAME, cookie)};
+      }
+
+      @Override
+      public long getContentLengthLong() {
+        return -1;
+      }
+
+      @Override
+      public String getRemoteAddr() {
+        return "192.0.2.1";
+      }
+
+      @Override
+      public HttpSession getSession() {
+        return session;
+      }
+
+      @Override
+      public HttpSession getSession(boolean create) {
+        return create ? session : null;
+      }
+    }
+  }
+}
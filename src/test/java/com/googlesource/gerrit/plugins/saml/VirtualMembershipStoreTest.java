@@ -0,0 +1,116 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import java.nio.file.Path;
+import java.util.concurrent.ScheduledExecutorService;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VirtualMembershipStoreTest {
+  private static final Account.Id JDOE = Account.id(1000);
+  private static final Account.Id JROE = Account.id(1001);
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path dataDir;
+  private final WorkQueue workQueue = mock(WorkQueue.class);
+
+  @Before
+  public void setUp() throws Exception {
+    dataDir = tmp.newFolder("data").toPath();
+    doReturn(mock(ScheduledExecutorService.class)).when(workQueue).getDefaultQueue();
+  }
+
+  @Test
+  public void keepsMembershipsAcrossRestarts() throws Exception {
+    VirtualMembershipStore store = newStore("30 days");
+    store.start();
+    store.put(JDOE, ImmutableList.of("developers", "release managers"));
+    store.put(JROE, ImmutableList.of("developers", ""));
+    store.stop();
+
+    VirtualMembershipStore restarted = newStore("30 days");
+    restarted.start();
+    assertThat(restarted.get(JDOE))
+        .containsExactly(
+            SamlGroupBackend.uuid("developers"), SamlGroupBackend.uuid("release managers"));
+    assertThat(restarted.get(JROE)).containsExactly(SamlGroupBackend.uuid("developers"));
+    assertThat(names(restarted, "saml/"))
+        .containsExactly("saml/developers", "saml/release managers")
+        .inOrder();
+  }
+
+  @Test
+  public void dropsExpiredMemberships() throws Exception {
+    VirtualMembershipStore store = newStore("0 ms");
+    store.start();
+    store.put(JDOE, ImmutableList.of("developers"));
+    assertThat(store.get(JDOE)).isEmpty();
+    store.stop();
+
+    VirtualMembershipStore restarted = newStore("0 ms");
+    restarted.start();
+    assertThat(restarted.get(JDOE)).isEmpty();
+    assertThat(names(restarted, "")).isEmpty();
+  }
+
+  @Test
+  public void dropsGroupsNobodyIsInFromIndexOnFlush() throws Exception {
+    VirtualMembershipStore store = newStore("30 days");
+    store.start();
+    store.put(JDOE, ImmutableList.of("developers", "contractors"));
+    store.put(JDOE, ImmutableList.of("developers"));
+    assertThat(names(store, "saml/")).containsExactly("saml/contractors", "saml/developers");
+
+    store.stop();
+    assertThat(names(store, "saml/")).containsExactly("saml/developers");
+  }
+
+  @Test
+  public void findsGroupsByNamePrefixIgnoringCase() throws Exception {
+    VirtualMembershipStore store = newStore("30 days");
+    store.put(JDOE, ImmutableList.of("Developers", "devops", "reviewers"));
+
+    assertThat(names(store, "SAML/DEV")).containsExactly("saml/Developers", "saml/devops");
+    assertThat(names(store, "saml/x")).isEmpty();
+  }
+
+  private VirtualMembershipStore newStore(String maxAge) {
+    Config cfg = new Config();
+    cfg.setString("saml", null, "membershipMode", "virtual");
+    cfg.setString("saml", null, "virtualMembershipMaxAge", maxAge);
+    return new VirtualMembershipStore(
+        new SamlConfig(cfg, new SitePaths(tmp.getRoot().toPath())), dataDir, workQueue);
+  }
+
+  private static ImmutableList<String> names(VirtualMembershipStore store, String prefix) {
+    return store
+        .groupsByNamePrefix(prefix)
+        .map(SamlGroupBackend::name)
+        .collect(ImmutableList.toImmutableList());
+  }
+}
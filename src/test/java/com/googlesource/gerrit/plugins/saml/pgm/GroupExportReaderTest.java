@@ -0,0 +1,88 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml.pgm;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.googlesource.gerrit.plugins.saml.pgm.GroupExportReader.Format;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+public class GroupExportReaderTest {
+  @Test
+  public void readsCsv() throws Exception {
+    Map<String, Set<String>> groups =
+        read(
+            "# group,user\n"
+                + "admins,jdoe\n"
+                + "\n"
+                + "\"CN=users,OU=Groups,DC=example,DC=com\",jdoe\n"
+                + "admins, asmith\n",
+            Format.CSV);
+    assertThat(groups.keySet()).containsExactly("CN=users,OU=Groups,DC=example,DC=com", "admins");
+    assertThat(groups.get("admins")).containsExactly("jdoe", "asmith").inOrder();
+  }
+
+  @Test
+  public void rejectsMalformedCsv() {
+    assertThrows(IOException.class, () -> read("admins\n", Format.CSV));
+  }
+
+  @Test
+  public void readsJson() throws Exception {
+    Map<String, Set<String>> groups =
+        read("{\"admins\": [\"jdoe\", \"asmith\"], \"empty\": []}", Format.JSON);
+    assertThat(groups.get("admins")).containsExactly("jdoe", "asmith");
+    assertThat(groups.get("empty")).isEmpty();
+  }
+
+  @Test
+  public void readsLdif() throws Exception {
+    Map<String, Set<String>> groups =
+        read(
+            "dn: cn=admins,ou=groups,dc=example,dc=com\n"
+                + "objectClass: groupOfNames\n"
+                + "cn: admins\n"
+                + "member: uid=jdoe,ou=people,dc=example,dc=com\n"
+                + "member: uid=asmith,ou=people,\n"
+                + " dc=example,dc=com\n"
+                + "\n"
+                + "dn: uid=jdoe,ou=people,dc=example,dc=com\n"
+                + "objectClass: inetOrgPerson\n"
+                + "cn: John Doe\n"
+                + "\n"
+                + "dn: cn=developers,ou=groups,dc=example,dc=com\n"
+                + "cn:: ZGV2ZWxvcGVycw==\n"
+                + "memberUid: jdoe\n",
+            Format.LDIF);
+    assertThat(groups.keySet()).containsExactly("admins", "developers");
+    assertThat(groups.get("admins")).containsExactly("jdoe", "asmith");
+    assertThat(groups.get("developers")).containsExactly("jdoe");
+  }
+
+  @Test
+  public void formatOfFile() {
+    assertThat(Format.forFile("groups.ldif")).isEqualTo(Format.LDIF);
+    assertThat(Format.forFile("export.CSV")).isEqualTo(Format.CSV);
+  }
+
+  private static Map<String, Set<String>> read(String export, Format format) throws IOException {
+    return GroupExportReader.read(new StringReader(export), format);
+  }
+}
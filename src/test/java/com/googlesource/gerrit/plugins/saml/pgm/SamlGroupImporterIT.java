@@ -0,0 +1,130 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.saml.pgm;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.group.db.GroupConfig;
+import com.google.gerrit.server.group.db.GroupNameNotes;
+import com.google.gerrit.server.notedb.IntBlob;
+import com.googlesource.gerrit.plugins.saml.SamlConfig;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Runs the importer against the {@code All-Users} repository of a test server. */
+public class SamlGroupImporterIT extends AbstractDaemonTest {
+  private static final String GROUP_SEQUENCE_REF = "refs/sequences/groups";
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void createsGroupsWithTheirNamesAndIds() throws Exception {
+    Config cfg = new Config();
+    cfg.setString("saml", "acquired", "emailDomain", "acquired.com");
+
+    Map<String, InternalGroup> groups =
+        importExport(
+            cfg,
+            SamlConfig.DEFAULT_IDENTITY_PROVIDER,
+            ImmutableMap.of(
+                "admins", ImmutableSet.of(admin.username(), "unknown"),
+                "developers", ImmutableSet.of(admin.username(), user.username()),
+                "acquired/developers", ImmutableSet.of(user.username())));
+
+    assertThat(groups.keySet()).containsExactly("saml/admins", "saml/developers");
+    assertThat(groups.get("saml/admins").getMembers()).containsExactly(admin.id());
+    assertThat(groups.get("saml/developers").getMembers()).containsExactly(admin.id(), user.id());
+  }
+
+  @Test
+  public void createsGroupsOfIdentityProviderInItsNamespace() throws Exception {
+    Config cfg = new Config();
+    cfg.setString("saml", "acquired", "emailDomain", "acquired.com");
+    cfg.setString("saml", "acquired", "groupRename", "CN=([^,]+),.* => $1");
+
+    Map<String, InternalGroup> groups =
+        importExport(
+            cfg,
+            "acquired",
+            ImmutableMap.of("CN=developers,OU=Groups", ImmutableSet.of(user.username())));
+
+    assertThat(groups.keySet()).containsExactly("saml/acquired/developers");
+    assertThat(groups.get("saml/acquired/developers").getMembers()).containsExactly(user.id());
+  }
+
+  /**
+   * Imports an export, one group per batch, and checks that the created groups have a ref, were
+   * added to the group names, and were given the next IDs of the group sequence.
+   *
+   * @return the groups created by the import, by name
+   */
+  private Map<String, InternalGroup> importExport(
+      Config cfg, String identityProvider, Map<String, Set<String>> export) throws Exception {
+    try (Repository repo = repoManager.openRepository(allUsers)) {
+      Set<GroupReference> before = ImmutableSet.copyOf(GroupNameNotes.loadAllGroups(repo));
+      ObjectId names = repo.exactRef(RefNames.REFS_GROUPNAMES).getObjectId();
+      int nextId = IntBlob.parse(repo, GROUP_SEQUENCE_REF).get().value();
+
+      SamlGroupImporter importer = new SamlGroupImporter();
+      importer.batchSize = 1;
+      importer.identityProvider = identityProvider;
+      importer.importExport(
+          new SitePaths(tmp.getRoot().toPath()), cfg, repo, new HashMap<>(export));
+
+      assertThat(repo.exactRef(RefNames.REFS_GROUPNAMES).getObjectId()).isNotEqualTo(names);
+      Map<String, InternalGroup> created = new HashMap<>();
+      for (GroupReference group : GroupNameNotes.loadAllGroups(repo)) {
+        if (before.contains(group)) {
+          continue;
+        }
+        assertThat(repo.exactRef(RefNames.refsGroups(group.getUUID()))).isNotNull();
+        created.put(
+            group.getName(),
+            GroupConfig.loadForGroup(allUsers, repo, group.getUUID()).getLoadedGroup().get());
+      }
+      Set<Integer> ids = new TreeSet<>();
+      for (InternalGroup group : created.values()) {
+        ids.add(group.getId().get());
+      }
+      int count = created.size();
+      assertThat(ids).containsExactlyElementsIn(range(nextId, nextId + count));
+      assertThat(IntBlob.parse(repo, GROUP_SEQUENCE_REF).get().value()).isEqualTo(nextId + count);
+      return created;
+    }
+  }
+
+  private static Set<Integer> range(int from, int to) {
+    Set<Integer> range = new TreeSet<>();
+    for (int i = from; i < to; i++) {
+      range.add(i);
+    }
+    return range;
+  }
+}